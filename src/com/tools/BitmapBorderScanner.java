@@ -0,0 +1,191 @@
+package com.tools;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+/**
+ * Finds the bounds of the content of a bitmap that has a solid border, for example black bars. <br>
+ * The pixels are read a strip of {@link #STRIP_ROWS} rows at a time with getPixels, so only a few rows are held in memory,
+ * and every scan walks rows, never down columns. The top and bottom are found first, then the left and right are found
+ * by keeping a running min and max over only the rows in between. Each row only needs to be scanned up to the current
+ * min from the left and down to the current max from the right, so most rows stop early. <br>
+ * With an ExecutorService, the top and bottom searches run at the same time, and the rows in between are split across tasks.
+ * @author Kyle
+ *
+ */
+public class BitmapBorderScanner {
+
+	// constants
+	/** The number of rows read at a time */
+	public static final int STRIP_ROWS = 16;
+
+	/**
+	 * Find the smallest rectangle that contains every pixel that is not nullColor
+	 * @param bitmap The bitmap to scan
+	 * @param nullColor The color of the border
+	 * @param executor The executor to run the scans on. If null, the calling thread does all the work.
+	 * @param nTasks How many tasks to split the left and right scan into, usually the number of cores
+	 * @return The bounds, right and bottom exclusive. Null if every pixel is nullColor.
+	 */
+	public static Rect findContentBounds(
+			final Bitmap bitmap,
+			final int nullColor,
+			ExecutorService executor,
+			int nTasks){
+
+		final int width = bitmap.getWidth();
+		final int height = bitmap.getHeight();
+		if (width == 0 || height == 0)
+			return null;
+		if (nTasks < 1)
+			nTasks = 1;
+
+		// top and bottom
+		int top, bottom;
+		if (executor == null || nTasks == 1){
+			top = findTop(bitmap, nullColor, width, height);
+			if (top < 0)
+				return null;
+			bottom = findBottom(bitmap, nullColor, width, height, top);
+		}else{
+			Future<Integer> topFuture = executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					return findTop(bitmap, nullColor, width, height);
+				}
+			});
+			Future<Integer> bottomFuture = executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					return findBottom(bitmap, nullColor, width, height, 0);
+				}
+			});
+			top = getResult(topFuture);
+			bottom = getResult(bottomFuture);
+			if (top < 0)
+				return null;
+		}
+
+		// left and right over the rows in between
+		int rows = bottom - top + 1;
+		nTasks = Math.min(nTasks, (rows + STRIP_ROWS - 1)/STRIP_ROWS);
+		int left = width;
+		int right = -1;
+		if (executor == null || nTasks <= 1){
+			int[] bounds = findLeftRight(bitmap, nullColor, width, top, bottom);
+			left = bounds[0];
+			right = bounds[1];
+		}else{
+			ArrayList<Future<int[]>> futures = new ArrayList<Future<int[]>>(nTasks);
+			for (int i = 0; i < nTasks; i++){
+				final int first = top + (int) ((long) rows*i/nTasks);
+				final int last = top + (int) ((long) rows*(i+1)/nTasks) - 1;
+				futures.add(executor.submit(new Callable<int[]>() {
+					@Override
+					public int[] call() {
+						return findLeftRight(bitmap, nullColor, width, first, last);
+					}
+				}));
+			}
+			for (Future<int[]> future : futures){
+				int[] bounds = getResult(future);
+				left = Math.min(left, bounds[0]);
+				right = Math.max(right, bounds[1]);
+			}
+		}
+
+		return new Rect(left, top, right + 1, bottom + 1);
+	}
+
+	/**
+	 * The first row from the top that has a pixel that is not nullColor, or -1 if there are none
+	 */
+	private static int findTop(Bitmap bitmap, int nullColor, int width, int height){
+		int[] strip = new int[width*STRIP_ROWS];
+		for (int y = 0; y < height; y += STRIP_ROWS){
+			int n = Math.min(STRIP_ROWS, height - y);
+			bitmap.getPixels(strip, 0, width, 0, y, width, n);
+			int end = n*width;
+			for (int k = 0; k < end; k++){
+				if (strip[k] != nullColor)
+					return y + k/width;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The first row from the bottom, down to stopRow, that has a pixel that is not nullColor, or -1 if there are none
+	 */
+	private static int findBottom(Bitmap bitmap, int nullColor, int width, int height, int stopRow){
+		int[] strip = new int[width*STRIP_ROWS];
+		for (int end = height; end > stopRow; end -= STRIP_ROWS){
+			int y = Math.max(stopRow, end - STRIP_ROWS);
+			int n = end - y;
+			bitmap.getPixels(strip, 0, width, 0, y, width, n);
+			for (int k = n*width - 1; k >= 0; k--){
+				if (strip[k] != nullColor)
+					return y + k/width;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The min column and max column that have a pixel that is not nullColor, in rows first to last inclusive.
+	 * @return {left, right}, {width, -1} if there are none
+	 */
+	private static int[] findLeftRight(Bitmap bitmap, int nullColor, int width, int first, int last){
+		int[] strip = new int[width*STRIP_ROWS];
+		int left = width;
+		int right = -1;
+		for (int y = first; y <= last; y += STRIP_ROWS){
+			int n = Math.min(STRIP_ROWS, last - y + 1);
+			bitmap.getPixels(strip, 0, width, 0, y, width, n);
+			for (int i = 0; i < n; i++){
+				int row = i*width;
+
+				// only need to look left of the current min
+				for (int j = 0; j < left; j++){
+					if (strip[row + j] != nullColor){
+						left = j;
+						break;
+					}
+				}
+
+				// and right of the current max
+				for (int j = width - 1; j > right; j--){
+					if (strip[row + j] != nullColor){
+						right = j;
+						break;
+					}
+				}
+			}
+
+			// can't get any wider
+			if (left == 0 && right == width - 1)
+				break;
+		}
+		return new int[]{left, right};
+	}
+
+	/**
+	 * Wait for a future and unwrap its exceptions
+	 */
+	private static <T> T getResult(Future<T> future){
+		try{
+			return future.get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}catch(ExecutionException e){
+			throw new RuntimeException(e.getCause());
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package com.tools;
+
+import java.io.IOException;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+
+import com.tools.ImageProcessing.ResizeType;
+
+/**
+ * Decodes, scales, rotates, and crops or letterboxes JPEG data in one pass. <br>
+ * The image is never decoded at full size unless the output needs it. The bounds are read first, inSampleSize is
+ * picked so the decoded image is as small as possible while still at least as big as the output, and for
+ * {@link ResizeType#CROP} only the part of the image that will be visible is decoded with a {@link BitmapRegionDecoder}.
+ * Then scaling, rotation and the centering or letterboxing are done with one {@link Canvas} draw into the output. <p>
+ * Peak memory, with RGB_565 at 2 bytes per pixel and f the fitted size of the image from
+ * {@link ImageProcessing#fitCrop(WidthHeight, WidthHeight)} or {@link ImageProcessing#fitNoCrop(WidthHeight, WidthHeight)}: <br>
+ * the decoded bitmap, less than 2*f.width x 2*f.height (for CROP, less than 2*out.width x 2*out.height), plus the output bitmap.
+ * So for CROP less than 10 bytes per output pixel, and for the other types less than 8 bytes per fitted pixel plus 2 per output pixel.
+ * The old approach held the full size decode, a rotated and scaled copy, the output, and an int[] of the output at the same time.
+ * @author Kyle
+ *
+ */
+public class BitmapResizer {
+
+	// constants
+	private static final String TAG = "com.tools.BitmapResizer";
+	private static final Bitmap.Config CONFIG = Bitmap.Config.RGB_565; 		// the config of decoded and output bitmaps
+
+	/**
+	 * Resize JPEG data keeping aspect ratio, see {@link ImageProcessing#resizeByteArray(byte[], WidthHeight, ResizeType, android.content.Context, float)}
+	 * @param input The JPEG data
+	 * @param newWidthHeight The desired output size
+	 * @param cropFlag What to do with image that doesn't fit the new size
+	 * @param orientationAngle The clockwise angle the raw image must be rotated to look correct, usually 0, 90, 180, or 270
+	 * @param reuse A mutable bitmap of the output size to draw into instead of allocating one, can be null.
+	 * Only used if the size matches, so check the returned bitmap.
+	 * @return The resized bitmap, or null if the data could not be decoded
+	 * @throws IllegalArgumentException if cropFlag is not a known type
+	 */
+	public static Bitmap resize(
+			byte[] input,
+			WidthHeight newWidthHeight,
+			ResizeType cropFlag,
+			float orientationAngle,
+			Bitmap reuse){
+
+		// read the size without decoding
+		BitmapFactory.Options opt = new BitmapFactory.Options();
+		opt.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(input, 0, input.length, opt);
+		int srcWidth = opt.outWidth;
+		int srcHeight = opt.outHeight;
+		if (srcWidth <= 0 || srcHeight <= 0)
+			return null;
+
+		// the size after rotating
+		int angle = Math.round(orientationAngle);
+		boolean isRightAngle = angle % 90 == 0;
+		boolean isSwapped = ((angle % 180) + 180) % 180 == 90;
+		int width = isSwapped ? srcHeight : srcWidth;
+		int height = isSwapped ? srcWidth : srcHeight;
+
+		// check if no resizing required
+		if (width == newWidthHeight.width &&
+				height == newWidthHeight.height &&
+				orientationAngle == 0 &&
+				reuse == null){
+			opt = new BitmapFactory.Options();
+			opt.inDither = true;
+			opt.inPreferredConfig = CONFIG;
+			return BitmapFactory.decodeByteArray(input, 0, input.length, opt);
+		}
+
+		// the size the whole rotated image would be scaled to, and the output size
+		WidthHeight original = new WidthHeight(width, height);
+		WidthHeight fitted;
+		WidthHeight out;
+		switch(cropFlag){
+		case BLACK_BARS:
+			fitted = ImageProcessing.fitNoCrop(original, newWidthHeight);
+			out = newWidthHeight;
+			break;
+		case RESIZE_SMALL:
+			fitted = ImageProcessing.fitNoCrop(original, newWidthHeight);
+			out = fitted;
+			break;
+		case RESIZE_LARGE:
+			fitted = ImageProcessing.fitCrop(original, newWidthHeight);
+			out = fitted;
+			break;
+		case CROP:
+			fitted = ImageProcessing.fitCrop(original, newWidthHeight);
+			out = newWidthHeight;
+			break;
+		default:
+			throw new IllegalArgumentException("unkown ResizeType");
+		}
+
+		// for crop, only decode the centered part that will be visible. A centered rectangle stays centered under
+		// right angle rotations, so we only need to swap its dimensions back to the raw image.
+		Rect region = null;
+		if (cropFlag == ResizeType.CROP && isRightAngle){
+			int visibleWidth = Math.min(width, Math.round((float) width*out.width/fitted.width));
+			int visibleHeight = Math.min(height, Math.round((float) height*out.height/fitted.height));
+			int regionWidth = Math.max(1, isSwapped ? visibleHeight : visibleWidth);
+			int regionHeight = Math.max(1, isSwapped ? visibleWidth : visibleHeight);
+			if (regionWidth < srcWidth || regionHeight < srcHeight){
+				int left = (srcWidth - regionWidth)/2;
+				int top = (srcHeight - regionHeight)/2;
+				region = new Rect(left, top, left + regionWidth, top + regionHeight);
+			}
+		}
+
+		// largest power of 2 that keeps the decode at least as big as the fitted size
+		int sampleSize = 1;
+		while ((float) width/(sampleSize*2) >= fitted.width && (float) height/(sampleSize*2) >= fitted.height)
+			sampleSize *= 2;
+
+		// decode
+		opt = new BitmapFactory.Options();
+		opt.inDither = true;
+		opt.inPreferredConfig = CONFIG;
+		opt.inSampleSize = sampleSize;
+		Bitmap decoded = null;
+		if (region != null)
+			decoded = decodeRegion(input, region, opt);
+		if (decoded == null){
+			region = null;
+			decoded = BitmapFactory.decodeByteArray(input, 0, input.length, opt);
+		}
+		if (decoded == null)
+			return null;
+
+		// the output, reused if we can
+		Bitmap output;
+		if (reuse != null && reuse.isMutable() && !reuse.isRecycled() &&
+				reuse.getWidth() == out.width && reuse.getHeight() == out.height)
+			output = reuse;
+		else
+			output = Bitmap.createBitmap(out.width, out.height, CONFIG);
+
+		// the size the decoded bitmap should be drawn at, after rotating
+		float drawWidth, drawHeight;
+		if (region != null){
+			drawWidth = out.width;
+			drawHeight = out.height;
+		}else{
+			drawWidth = fitted.width;
+			drawHeight = fitted.height;
+		}
+		int decodedWidth = isSwapped ? decoded.getHeight() : decoded.getWidth();
+		int decodedHeight = isSwapped ? decoded.getWidth() : decoded.getHeight();
+
+		// center, rotate, scale, and move to the center of the output
+		Matrix matrix = new Matrix();
+		matrix.setTranslate(-decoded.getWidth()/2f, -decoded.getHeight()/2f);
+		if (orientationAngle != 0)
+			matrix.postRotate(orientationAngle);
+		matrix.postScale(drawWidth/decodedWidth, drawHeight/decodedHeight);
+		matrix.postTranslate(out.width/2f, out.height/2f);
+
+		// draw, letterbox is whatever is not covered
+		Canvas canvas = new Canvas(output);
+		if (output == reuse || cropFlag == ResizeType.BLACK_BARS)
+			canvas.drawColor(Color.BLACK);
+		canvas.drawBitmap(decoded, matrix, new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG));
+		decoded.recycle();
+
+		return output;
+	}
+
+	/**
+	 * Decode only a region of the data
+	 * @return The bitmap or null if the region decoder failed
+	 */
+	private static Bitmap decodeRegion(byte[] input, Rect region, BitmapFactory.Options opt){
+		BitmapRegionDecoder decoder = null;
+		try{
+			decoder = BitmapRegionDecoder.newInstance(input, 0, input.length, false);
+			return decoder.decodeRegion(region, opt);
+		}catch(IOException e){
+			Log.e(TAG, Log.getStackTraceString(e));
+			return null;
+		}catch(IllegalArgumentException e){
+			Log.e(TAG, Log.getStackTraceString(e));
+			return null;
+		}finally{
+			if (decoder != null)
+				decoder.recycle();
+		}
+	}
+}
@@ -52,6 +52,8 @@ implements SurfaceHolder.Callback{
 	private boolean isFocused = false;
 	private ExceptionCaught exceptionCaught;
 	private boolean isSurfaceCreated = false;
+	private CameraPreviewPipeline previewPipeline = null; 							// delivers preview frames to a worker, null if not wanted
+	private CaptureSaveQueue saveQueue = null; 										// saves captures in the background, created on first use
 
 	// orientation enum
 	public enum Orientation{
@@ -192,6 +194,13 @@ implements SurfaceHolder.Callback{
 		mOrientationEventListener.disable();
 		mOrientationEventListener = null;
 
+		// captures already queued are still saved, a new queue is made on the next capture
+		synchronized (this) {
+			if (saveQueue != null)
+				saveQueue.shutdown();
+			saveQueue = null;
+		}
+
 		isSurfaceInitialized = false;
 	}
 
@@ -419,6 +428,10 @@ implements SurfaceHolder.Callback{
 		if (flashMode == null)
 			flashMode = Camera.Parameters.FLASH_MODE_AUTO;
 
+		// stop sending frames from the old camera
+		if (previewPipeline != null)
+			previewPipeline.detach();
+
 		// release the old camera
 		if (mCamera != null){
 			try{
@@ -841,6 +854,10 @@ implements SurfaceHolder.Callback{
 		if (isPreviewRunning)
 			mCamera.stopPreview();
 
+		// hand the preview buffers to the camera, the preview size may have changed since last time
+		if (previewPipeline != null)
+			previewPipeline.attach(mCamera);
+
 		//TODO: see if we want a runnable, seems to leak and also may cause screen freeze
 		new Thread(new Runnable() {
 			public void run() {
@@ -851,6 +868,29 @@ implements SurfaceHolder.Callback{
 		}).start();
 	}
 
+	/**
+	 * Receive preview frames on a background thread, using a fixed set of reused buffers. Frames are dropped if the
+	 * callback can't keep up, see {@link CameraPreviewPipeline}. Takes effect the next time the preview starts.
+	 * @param frameCallback The callback to receive frames. Null to stop receiving frames.
+	 * @param nBuffers The number of preview buffers, see {@link CameraPreviewPipeline#DEFAULT_BUFFERS}
+	 */
+	public synchronized void setPreviewFrameCallback(CameraPreviewPipeline.FrameCallback frameCallback, int nBuffers){
+		if (previewPipeline != null)
+			previewPipeline.detach();
+		if (frameCallback == null)
+			previewPipeline = null;
+		else
+			previewPipeline = new CameraPreviewPipeline(frameCallback, nBuffers);
+	}
+
+	/**
+	 * The pipeline receiving preview frames, used to read the frames processed and dropped, and the latency.
+	 * @return The pipeline, or null if {@link #setPreviewFrameCallback(CameraPreviewPipeline.FrameCallback, int)} has not been called
+	 */
+	public CameraPreviewPipeline getPreviewPipeline(){
+		return previewPipeline;
+	}
+
 	/**
 	 * Stop the camera preview. If null camera or already stopped, nothing happens.
 	 */
@@ -979,6 +1019,46 @@ implements SurfaceHolder.Callback{
 		}
 	}
 
+	/**
+	 * Take a picture and save it on a background thread. As soon as the jpeg data arrives it is queued to be saved, and the
+	 * preview is restarted without waiting for the save, so pictures can be taken in a burst. The current rotation is written as the
+	 * exif orientation. If the save queue is full the picture is dropped and the callback gets a failed result.
+	 * @param shutter The shutter callback to call, can be null
+	 * @param fileName The file to save to, or null to create a new entry in the media store
+	 * @param maxThumbnailDimension If > 0, a thumbnail no bigger than this is passed to the callback
+	 * @param callback Called on the main thread when the picture is saved, can be null
+	 */
+	public void takePictureAndSave(
+			ShutterCallback shutter,
+			final String fileName,
+			final int maxThumbnailDimension,
+			final CaptureSaveQueue.SaveCallback callback){
+		final int exifOrientation = ExifHeader.angleToOrientation(getRotation());
+		takePicture(shutter, null, new PictureCallback() {
+
+			@Override
+			public void onPictureTaken(byte[] data, Camera camera) {
+				boolean isQueued = getSaveQueue().save(data, fileName, exifOrientation, maxThumbnailDimension, true, callback);
+				if (!isQueued && callback != null)
+					callback.onSaved(new SuccessReason(false, "save queue full"), null);
+
+				// the camera stops the preview after a picture, start it again right away
+				setIsPreviewRunning(false);
+				startPreview();
+			}
+		});
+	}
+
+	/**
+	 * The queue used by {@link #takePictureAndSave(ShutterCallback, String, int, CaptureSaveQueue.SaveCallback)}
+	 * @return The save queue, created on first call, and again after onPause or if it was shut down
+	 */
+	public synchronized CaptureSaveQueue getSaveQueue(){
+		if (saveQueue == null || saveQueue.isShutdown())
+			saveQueue = new CaptureSaveQueue(act, CaptureSaveQueue.DEFAULT_CAPACITY);
+		return saveQueue;
+	}
+
 	public interface ExceptionCaught{
 		public void onExceptionCaught(Exception e);
 	}
@@ -0,0 +1,289 @@
+package com.tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.hardware.Camera.Parameters;
+import android.hardware.Camera.Size;
+import android.util.Log;
+
+/**
+ * Delivers camera preview frames to a single worker thread, without allocating a byte[] per frame. <br>
+ * A fixed set of buffers is handed to the camera with {@link Camera#addCallbackBuffer(byte[])}. Each frame is passed to the
+ * worker, and when the worker is done, the buffer goes back to the camera. Only one frame waits for the worker at a time, so if
+ * the worker falls behind, the waiting frame is dropped and replaced by the newest one, and the worker always sees recent frames. <br>
+ * Use through {@link CameraHelper#setPreviewFrameCallback(FrameCallback, int)}, which attaches this to the camera each time the preview starts.
+ * @author Kyle
+ *
+ */
+public class CameraPreviewPipeline
+implements Camera.PreviewCallback{
+
+	// constants
+	private static final String TAG = "com.tools.CameraPreviewPipeline";
+	/** The default number of preview buffers */
+	public static final int DEFAULT_BUFFERS = 3;
+
+	// private variables
+	private final FrameCallback callback; 							// where the frames go
+	private final int nBuffers; 									// number of buffers to give the camera
+	private final Object lock = new Object(); 						// guards the pending frame and running state
+	private Camera camera = null; 									// the camera we are attached to
+	private byte[][] buffers = null; 								// all the buffers
+	private int bufferSize = 0; 									// size of each buffer
+	private int width; 												// preview width
+	private int height; 											// preview height
+	private int format; 											// preview format, ImageFormat
+	private byte[] pendingFrame = null; 							// frame waiting for the worker
+	private long pendingTime; 										// System.nanoTime when pendingFrame arrived
+	private byte[] processingFrame = null; 							// frame the worker currently has
+	private Thread worker = null; 									// the worker thread
+	private boolean isRunning = false; 								// should the worker keep going
+	private AtomicLong framesProcessed = new AtomicLong(); 			// frames handed to the callback
+	private AtomicLong framesDropped = new AtomicLong(); 			// frames replaced before the worker got to them
+	private AtomicLong totalLatencyNanos = new AtomicLong(); 		// sum of time from arrival to callback done
+	private AtomicLong maxLatencyNanos = new AtomicLong(); 			// worst time from arrival to callback done
+
+	/**
+	 * Called on the worker thread with each preview frame
+	 */
+	public interface FrameCallback{
+		/**
+		 * Process a preview frame. The data buffer is reused after this returns, so copy anything you need to keep.
+		 * @param data The frame data
+		 * @param width The preview width
+		 * @param height The preview height
+		 * @param format The preview format, see {@link ImageFormat}, usually NV21
+		 */
+		public void onFrame(byte[] data, int width, int height, int format);
+	}
+
+	/**
+	 * Create a pipeline. Call {@link #attach(Camera)} to start receiving frames.
+	 * @param callback Called on the worker thread with each frame
+	 * @param nBuffers Number of preview buffers, at least 2. 3 is usually enough: one for the camera, one waiting, and one being processed.
+	 */
+	public CameraPreviewPipeline(FrameCallback callback, int nBuffers){
+		if (nBuffers < 2)
+			nBuffers = 2;
+		this.callback = callback;
+		this.nBuffers = nBuffers;
+	}
+
+	/**
+	 * Attach to a camera and give it the buffers. Call this after the preview size is set and before startPreview.
+	 * Buffers are only reallocated if the preview size changed.
+	 * @param camera The camera. If null, this is the same as {@link #detach()}
+	 */
+	public void attach(Camera camera){
+		if (camera == null){
+			detach();
+			return;
+		}
+
+		// figure out how big the frames are
+		Parameters params = camera.getParameters();
+		Size size = params.getPreviewSize();
+		int format = params.getPreviewFormat();
+		int bitsPerPixel = ImageFormat.getBitsPerPixel(format);
+		if (bitsPerPixel <= 0)
+			bitsPerPixel = 12;
+		int bufferSize = (int) ((long) size.width*size.height*bitsPerPixel/8);
+
+		synchronized (lock) {
+
+			// drop anything from the old configuration
+			pendingFrame = null;
+			this.camera = camera;
+			this.width = size.width;
+			this.height = size.height;
+			this.format = format;
+			if (buffers == null || this.bufferSize != bufferSize){
+				buffers = new byte[nBuffers][];
+				for (int i = 0; i < nBuffers; i++)
+					buffers[i] = new byte[bufferSize];
+				this.bufferSize = bufferSize;
+			}
+			startWorker();
+
+			// clearing the callback also clears the camera's buffer queue, so give back every buffer the worker isn't using.
+			// The worker gives its buffer back when it is done.
+			camera.setPreviewCallbackWithBuffer(null);
+			for (int i = 0; i < buffers.length; i++){
+				if (buffers[i] != processingFrame)
+					camera.addCallbackBuffer(buffers[i]);
+			}
+			camera.setPreviewCallbackWithBuffer(this);
+		}
+	}
+
+	/**
+	 * Stop receiving frames and stop the worker thread. Any frame currently being processed will finish.
+	 */
+	public void detach(){
+		Camera old;
+		synchronized (lock) {
+			old = camera;
+			camera = null;
+			pendingFrame = null;
+			isRunning = false;
+			lock.notifyAll();
+			worker = null;
+		}
+		if (old != null){
+			try{
+				old.setPreviewCallbackWithBuffer(null);
+			}catch(RuntimeException e){
+				// camera was already released
+			}
+		}
+	}
+
+	@Override
+	public void onPreviewFrame(byte[] data, Camera camera) {
+		if (data == null)
+			return;
+		long now = System.nanoTime();
+
+		synchronized (lock) {
+			if (camera != this.camera || !isRunning || data.length != bufferSize)
+				return;
+
+			// replace the waiting frame with this newer one, and give the stale frame back to the camera
+			byte[] dropped = pendingFrame;
+			pendingFrame = data;
+			pendingTime = now;
+			lock.notifyAll();
+			if (dropped != null){
+				framesDropped.incrementAndGet();
+				returnBuffer(dropped);
+			}
+		}
+	}
+
+	/**
+	 * Number of frames that were processed by the callback
+	 * @return frames processed
+	 */
+	public long getFramesProcessed(){
+		return framesProcessed.get();
+	}
+
+	/**
+	 * Number of frames that were dropped because the worker was still busy when a newer frame arrived
+	 * @return frames dropped
+	 */
+	public long getFramesDropped(){
+		return framesDropped.get();
+	}
+
+	/**
+	 * The average time in ms from the camera delivering a frame to the callback finishing with it
+	 * @return average latency in ms, 0 if no frames processed
+	 */
+	public double getAverageLatencyMs(){
+		long n = framesProcessed.get();
+		if (n == 0)
+			return 0;
+		return totalLatencyNanos.get()/1e6/n;
+	}
+
+	/**
+	 * The longest time in ms from the camera delivering a frame to the callback finishing with it
+	 * @return max latency in ms
+	 */
+	public double getMaxLatencyMs(){
+		return maxLatencyNanos.get()/1e6;
+	}
+
+	/**
+	 * Reset the frame counts and latencies
+	 */
+	public void resetStats(){
+		framesProcessed.set(0);
+		framesDropped.set(0);
+		totalLatencyNanos.set(0);
+		maxLatencyNanos.set(0);
+	}
+
+	/**
+	 * Give a buffer back to the camera, if it still belongs to the current configuration. Must hold lock, so attach
+	 * can't hand the same buffer to the camera in between and have it queued twice.
+	 */
+	private void returnBuffer(byte[] buffer){
+		if (buffer == processingFrame)
+			processingFrame = null;
+		if (camera == null || buffer.length != bufferSize)
+			return;
+		try{
+			camera.addCallbackBuffer(buffer);
+		}catch(RuntimeException e){
+			// camera was released in the meantime
+		}
+	}
+
+	/**
+	 * Start the worker thread if it is not already running. Must hold lock.
+	 */
+	private void startWorker(){
+		if (isRunning && worker != null)
+			return;
+		isRunning = true;
+		worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				processFrames(Thread.currentThread());
+			}
+		}, "CameraPreviewPipeline");
+		worker.start();
+	}
+
+	/**
+	 * The worker loop. Wait for a frame, process it, and give the buffer back.
+	 */
+	private void processFrames(Thread self){
+		while (true){
+			byte[] frame;
+			long arrived;
+			int width, height, format;
+			synchronized (lock) {
+				while (isRunning && worker == self && pendingFrame == null){
+					try{
+						lock.wait();
+					}catch(InterruptedException e){
+						return;
+					}
+				}
+				if (!isRunning || worker != self)
+					return;
+				frame = pendingFrame;
+				arrived = pendingTime;
+				pendingFrame = null;
+				processingFrame = frame;
+				width = this.width;
+				height = this.height;
+				format = this.format;
+			}
+
+			// process
+			try{
+				callback.onFrame(frame, width, height, format);
+			}catch(RuntimeException e){
+				Log.e(TAG, Log.getStackTraceString(e));
+			}
+
+			// keep stats
+			long latency = System.nanoTime() - arrived;
+			framesProcessed.incrementAndGet();
+			totalLatencyNanos.addAndGet(latency);
+			long max = maxLatencyNanos.get();
+			while (latency > max && !maxLatencyNanos.compareAndSet(max, latency))
+				max = maxLatencyNanos.get();
+
+			synchronized (lock) {
+				returnBuffer(frame);
+			}
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package com.tools;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Saves captured JPEG data to disk on a background thread, so the camera callback can return and the preview restart right away. <br>
+ * Saves run one at a time in the order they were queued. The queue is bounded, so a long burst can't hold an unlimited number of
+ * full size JPEGs in memory; when it is full {@link #save(byte[], String, Integer, int, boolean, SaveCallback)} returns false instead of blocking. <br>
+ * The EXIF orientation is written in the same pass as the JPEG data, see {@link ExifHeader#writeJpegWithOrientation(java.io.OutputStream, byte[], int)},
+ * and the thumbnail is decoded from the in-memory data instead of reading the file back.
+ * @author Kyle
+ *
+ */
+public class CaptureSaveQueue {
+
+	// constants
+	private static final String TAG = "com.tools.CaptureSaveQueue";
+	private static final long KEEP_ALIVE_MS = 5000; 					// the save thread exits after being idle this long
+	/** The default number of captures that can wait to be saved */
+	public static final int DEFAULT_CAPACITY = 4;
+
+	// private variables
+	private final Context ctx; 										// application context used for the media store
+	private final ThreadPoolExecutor executor; 						// the single save thread and its bounded queue
+	private final Handler mainHandler = new Handler(Looper.getMainLooper()); 	// callbacks are posted here
+	private final AtomicInteger pending = new AtomicInteger(); 		// queued plus currently saving
+
+	/**
+	 * Called on the main thread when a save is done
+	 */
+	public interface SaveCallback{
+		/**
+		 * The save finished
+		 * @param result Success or not. On success the reason is the file name, the same as {@link ImageProcessing#saveByteDataToFile(Context, byte[], Boolean, String, Integer, boolean)}
+		 * @param thumbnail The thumbnail, already rotated to ExifInterface.ORIENTATION_NORMAL. Null if none was asked for or it could not be made.
+		 */
+		public void onSaved(SuccessReason result, Bitmap thumbnail);
+	}
+
+	/**
+	 * Create a save queue with its own background thread
+	 * @param ctx A context, only the application context is kept
+	 * @param capacity How many captures can wait to be saved, not counting the one being saved. See {@link #DEFAULT_CAPACITY}
+	 */
+	public CaptureSaveQueue(Context ctx, int capacity){
+		if (capacity < 1)
+			capacity = 1;
+		this.ctx = ctx.getApplicationContext();
+		executor = new ThreadPoolExecutor(
+				1,
+				1,
+				KEEP_ALIVE_MS,
+				TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(capacity),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "CaptureSaveQueue");
+						thread.setPriority(Thread.NORM_PRIORITY - 1);
+						return thread;
+					}
+				});
+
+		// don't keep a thread around between captures
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Queue JPEG data to be saved. Returns right away. The data array is kept until the save is done, so don't modify it.
+	 * @param data The JPEG data
+	 * @param fileName The file to save to, or null to create a new entry in the media store
+	 * @param exifOrientation The orientation to write, for example ExifInterface.ORIENTATION_ROTATE_90. Null to leave it as is.
+	 * @param maxThumbnailDimension If > 0, a thumbnail no bigger than this is made from the data and passed to the callback
+	 * @param showImageInScanner Run the media scanner on the file when done
+	 * @param callback Called on the main thread when done, can be null
+	 * @return true if queued, false if the queue is full or shut down and nothing will be saved
+	 */
+	public boolean save(
+			final byte[] data,
+			final String fileName,
+			final Integer exifOrientation,
+			final int maxThumbnailDimension,
+			final boolean showImageInScanner,
+			final SaveCallback callback){
+
+		if (data == null)
+			return false;
+
+		pending.incrementAndGet();
+		try{
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try{
+						doSave(data, fileName, exifOrientation, maxThumbnailDimension, showImageInScanner, callback);
+					}finally{
+						pending.decrementAndGet();
+					}
+				}
+			});
+		}catch(RejectedExecutionException e){
+			pending.decrementAndGet();
+			Log.w(TAG, "save queue full, capture dropped");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The number of captures that are queued or being saved
+	 * @return the number not yet saved
+	 */
+	public int getPendingCount(){
+		return pending.get();
+	}
+
+	/**
+	 * Stop accepting new captures. Captures already queued are still saved.
+	 */
+	public void shutdown(){
+		executor.shutdown();
+	}
+
+	/**
+	 * Has {@link #shutdown()} been called
+	 * @return true if no more captures are accepted
+	 */
+	public boolean isShutdown(){
+		return executor.isShutdown();
+	}
+
+	/**
+	 * Save the data and make the thumbnail. Runs on the save thread.
+	 */
+	private void doSave(
+			byte[] data,
+			String fileName,
+			Integer exifOrientation,
+			int maxThumbnailDimension,
+			boolean showImageInScanner,
+			final SaveCallback callback){
+
+		// write the file
+		SuccessReason result;
+		try{
+			result = ImageProcessing.saveByteDataToFile(ctx, data, false, fileName, exifOrientation, showImageInScanner);
+		}catch(RuntimeException e){
+			Log.e(TAG, Log.getStackTraceString(e));
+			result = new SuccessReason(false, e.toString());
+		}
+
+		// thumbnail from the data we already have
+		Bitmap thumbnail = null;
+		if (maxThumbnailDimension > 0 && result.getSuccess()){
+			try{
+				int orientation = (exifOrientation != null) ? exifOrientation : ExifHeader.findOrientation(data, data.length).orientation;
+				thumbnail = ImageProcessing.makeThumbnail(data, orientation, maxThumbnailDimension, true);
+			}catch(OutOfMemoryError e){
+				Log.e(TAG, Log.getStackTraceString(e));
+			}
+		}
+
+		// report on the main thread
+		if (callback != null){
+			final SuccessReason finalResult = result;
+			final Bitmap finalThumbnail = thumbnail;
+			mainHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					callback.onSaved(finalResult, finalThumbnail);
+				}
+			});
+		}
+	}
+}
@@ -16,12 +16,20 @@
 
 package com.tools;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import android.os.Bundle;
 import android.app.Dialog;
 import android.content.Context;
 import android.graphics.*;
 import android.graphics.Paint.Align;
 import android.text.TextPaint;
+import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
 
@@ -31,6 +39,22 @@ extends Dialog {
 	// member variables
 	private OnColorChangedListener mListener;
     private int mInitialColor;
+
+    // the color wheel is the same for every dialog, so it is built once in the background and shared
+    private static final int HUE_TABLE_SIZE = 4096; 								// number of angles in the hue and saturation table
+    private static int[] hueTable = null; 											// color at full value for each angle, guarded by class
+    private static Bitmap cachedWheel = null; 										// the shared wheel bitmap, guarded by class
+    private static boolean isBuildingWheel = false; 								// is the wheel being built now
+    private static final ArrayList<WeakReference<View>> waitingViews = new ArrayList<WeakReference<View>>(); // views to redraw when the wheel is done
+    private static final String LOG_TAG = "com.tools";
+
+    /**
+     * Start building the color wheel in the background, so the first dialog opens instantly.
+     * Does nothing if it is already built or being built.
+     */
+    public static void preloadColorWheel(){
+    	getColorWheel(null);
+    }
     
     /**
      * Create a color picker dialog. It's a color wheel
@@ -114,6 +138,7 @@ extends Dialog {
         private OnColorChangedListener mListener;
         private Bitmap colorWheelBitmap = null;
         private TextPaint textPaint;
+        private float textOffsetY; 						// offset to vertically center the text
         
         // constants
         private static final int CENTER_X = 200;
@@ -123,7 +148,6 @@ extends Dialog {
         private static final int RADIUS = 200;
         private static final int CENTER_RADIUS = 32;
         private static final int HOLE_RADIUS = 48; 
-        private static final float SCALE = 4;
 
         ColorPickerView(Context c, OnColorChangedListener l, int color) {
             super(c);
@@ -132,7 +156,7 @@ extends Dialog {
             mCenterPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
             mCenterPaint.setColor(color);
             mCenterPaint.setStrokeWidth(5);
-            colorWheelBitmap = createColorWheelBitmap();
+            colorWheelBitmap = getColorWheel(this);
             
             textPaint = new TextPaint();
             textPaint.setTextAlign(Align.CENTER);     
@@ -140,6 +164,11 @@ extends Dialog {
             textPaint.setTypeface(Typeface.DEFAULT_BOLD);
             textPaint.setColor(Color.rgb(0, 0, 0));
             textPaint.setTextSize(25);  
+
+            // the text never changes, so measure it once
+            Rect bounds = new Rect();
+            textPaint.getTextBounds("OK", 0, 2, bounds);
+            textOffsetY = (bounds.bottom-bounds.top)/2;
         }
 
         private boolean mTrackingCenter;
@@ -150,7 +179,11 @@ extends Dialog {
 
             canvas.translate(CENTER_X, CENTER_Y);
 
-            canvas.drawBitmap(colorWheelBitmap, -CENTER_X, -CENTER_Y, null);
+            // the wheel may still be building the first time
+            if (colorWheelBitmap == null)
+            	colorWheelBitmap = getColorWheel(null);
+            if (colorWheelBitmap != null)
+            	canvas.drawBitmap(colorWheelBitmap, -CENTER_X, -CENTER_Y, null);
             
             canvas.drawCircle(0, 0, CENTER_RADIUS, mCenterPaint);
 
@@ -163,11 +196,9 @@ extends Dialog {
             if (g >= 128) g = 0; else g = 255;
             if (b >= 128) b = 0; else b = 255;
             textPaint.setColor(Color.rgb(r, g, b));
-            Rect bounds = new Rect();
-            textPaint.getTextBounds("OK", 0, 2, bounds);
             
             // draw the text
-            canvas.drawText("OK", 0f, (bounds.bottom-bounds.top)/2, textPaint);
+            canvas.drawText("OK", 0f, textOffsetY, textPaint);
  
             if (mTrackingCenter) {
                 int c = mCenterPaint.getColor();
@@ -187,63 +218,6 @@ extends Dialog {
             }
         }
         
-        /**
-         * Create the bitmap of the color wheel
-         * @return
-         */
-        private Bitmap createColorWheelBitmap(){
-        	
-        	// initalize values
-        	float x;
-        	float y;
-        	float r;
-        	float theta;
-        	float[] hsv = new float[3];
-        	int[] colors = new int[WIDTH*HEIGHT];
-        	float centerX = Math.round(CENTER_X/SCALE);
-        	float centerY = Math.round(CENTER_Y/SCALE);
-        	int width = Math.round(WIDTH/SCALE);
-        	int height = Math.round(HEIGHT/SCALE);
-        	float radius = Math.round(RADIUS/SCALE);
-        	float holeRadius = Math.round(HOLE_RADIUS/SCALE);
-
-        	// create the bitmap
-        	for (int i = 0; i < height; i++){
-        		for (int j = 0; j < width; j++){
-        			
-        			// calcualte r and theta
-        			x = j-centerX;
-        			y = i-centerY;
-        			r = (float) Math.sqrt(x*x + y*y);
-        			theta = (float) Math.atan2(-y, x);
-        			
-        			// calculate hue
-        			hsv[0] = (float) ((Math.cos(theta*2*Math.PI/(Math.PI + theta + 1))/2+0.5)*360);
-        			
-        			// calcualte saturation
-        			hsv[1] = (float) (theta/(2*Math.PI)*1.1+0.5);
-        			if (hsv[1] > 1)
-        				hsv[1] = 1;
-        			else if (hsv[1] < 0)
-        				hsv[1] = 0;
-        			
-        			// calcualte value
-        			hsv[2] = (r-holeRadius)/(radius-holeRadius);
-        			if (hsv[2] > 1)
-        				hsv[2] = 1;
-        			else if (hsv[2] < 0)
-        				hsv[2] = 0;
-        			
-        			// assing to colors
-        			colors[i*width + j] = Color.HSVToColor(hsv);
-        		}
-        	}
-        	return Bitmap.createScaledBitmap(
-        			Bitmap.createBitmap(colors, 0, width, width, height, Bitmap.Config.RGB_565),
-        			WIDTH, HEIGHT, true);
-        	//return Bitmap.createBitmap(colors, 0, WIDTH, WIDTH, HEIGHT, Bitmap.Config.RGB_565);
-        }
-        
         /**
          * Get the color on the colorwheel
          * @param y the y value (center subtracted)
@@ -251,30 +225,7 @@ extends Dialog {
          * @return the color
          */
         private int getColor(float y, float x){
-        	// calcualte r and theta
-			float r = (float) Math.sqrt(x*x + y*y);
-			float theta = (float) Math.atan2(-y, x);
-			
-			// calculate hue
-			float[] hsv = new float[3];
-			hsv[0] = (float) ((Math.cos(theta*2*Math.PI/(Math.PI + theta + 1))/2+0.5)*360);
-			
-			// calculate saturation
-			hsv[1] = (float) (theta/(2*Math.PI)*1.1+0.5);
-			if (hsv[1] > 1)
-				hsv[1] = 1;
-			else if (hsv[1] < 0)
-				hsv[1] = 0;
-			
-			// calvualte value
-			hsv[2] = (r-HOLE_RADIUS)/(RADIUS-HOLE_RADIUS);
-			if (hsv[2] > 1)
-				hsv[2] = 1;
-			else if (hsv[2] < 0)
-				hsv[2] = 0;
-			
-			// assign to colors
-			return Color.HSVToColor(hsv);
+        	return getWheelColor(getHueTable(), x, y);
         }
 
         @Override
@@ -321,4 +272,159 @@ extends Dialog {
             return true;
         }
     } 
+
+    /**
+     * Get the shared color wheel. If it is not built yet, start building it in the background and redraw waiting when done.
+     * @param waiting The view to invalidate when the wheel is ready, can be null
+     * @return The wheel, or null if it is not ready yet
+     */
+    private static synchronized Bitmap getColorWheel(View waiting){
+    	if (cachedWheel != null)
+    		return cachedWheel;
+    	if (waiting != null)
+    		waitingViews.add(new WeakReference<View>(waiting));
+    	if (!isBuildingWheel){
+    		isBuildingWheel = true;
+    		Thread thread = new Thread(new Runnable() {
+    			@Override
+    			public void run() {
+    				Bitmap wheel = null;
+    				ArrayList<WeakReference<View>> views;
+    				try{
+    					wheel = createColorWheelBitmap();
+    				}catch(OutOfMemoryError e){
+    					Log.e(LOG_TAG, "out of memory building the color wheel");
+    				}catch(RuntimeException e){
+    					Log.e(LOG_TAG, Log.getStackTraceString(e));
+    				}finally{
+    					// always allow another build. On failure the waiting views are dropped instead of redrawn,
+    					// so they don't retry in a loop, and their next draw or the next dialog tries again.
+    					synchronized (ColorPickerDialog.class) {
+    						cachedWheel = wheel;
+    						isBuildingWheel = false;
+    						views = new ArrayList<WeakReference<View>>(waitingViews);
+    						waitingViews.clear();
+    					}
+    				}
+    				if (wheel == null)
+    					return;
+    				for (WeakReference<View> weak : views){
+    					View view = weak.get();
+    					if (view != null)
+    						view.postInvalidate();
+    				}
+    			}
+    		}, "ColorWheel");
+    		thread.setPriority(Thread.NORM_PRIORITY - 1);
+    		try{
+    			thread.start();
+    		}catch(OutOfMemoryError e){
+    			Log.e(LOG_TAG, "could not start the color wheel thread");
+    			isBuildingWheel = false;
+    			waitingViews.clear();
+    		}
+    	}
+    	return null;
+    }
+
+    /**
+     * The color at full value for each angle from -pi to pi. The value only scales the rgb of an hsv color,
+     * so every pixel is a table lookup and a multiply instead of Color.HSVToColor.
+     * @return The table, do not modify
+     */
+    private static synchronized int[] getHueTable(){
+    	if (hueTable != null)
+    		return hueTable;
+    	int[] table = new int[HUE_TABLE_SIZE];
+    	float[] hsv = new float[3];
+    	hsv[2] = 1;
+    	for (int i = 0; i < HUE_TABLE_SIZE; i++){
+    		double theta = -Math.PI + 2*Math.PI*i/(HUE_TABLE_SIZE-1);
+
+    		// calculate hue
+    		hsv[0] = (float) ((Math.cos(theta*2*Math.PI/(Math.PI + theta + 1))/2+0.5)*360);
+
+    		// calculate saturation
+    		hsv[1] = (float) (theta/(2*Math.PI)*1.1+0.5);
+    		if (hsv[1] > 1)
+    			hsv[1] = 1;
+    		else if (hsv[1] < 0)
+    			hsv[1] = 0;
+    		table[i] = Color.HSVToColor(hsv);
+    	}
+    	hueTable = table;
+    	return table;
+    }
+
+    /**
+     * The color of the wheel at a point
+     * @param table The table from getHueTable
+     * @param x x from the center
+     * @param y y from the center, down is positive
+     * @return The color
+     */
+    private static int getWheelColor(int[] table, float x, float y){
+
+    	// hue and saturation from the angle
+    	double theta = Math.atan2(-y, x);
+    	int index = (int) ((theta + Math.PI)*((HUE_TABLE_SIZE-1)/(2*Math.PI)) + 0.5);
+    	int color = table[index];
+
+    	// value from the radius
+    	float r = (float) Math.sqrt(x*x + y*y);
+    	float value = (r-ColorPickerView.HOLE_RADIUS)/(ColorPickerView.RADIUS-ColorPickerView.HOLE_RADIUS);
+    	if (value >= 1)
+    		return color;
+    	else if (value <= 0)
+    		return Color.BLACK;
+    	int red = (int) (Color.red(color)*value + 0.5f);
+    	int green = (int) (Color.green(color)*value + 0.5f);
+    	int blue = (int) (Color.blue(color)*value + 0.5f);
+    	return Color.rgb(red, green, blue);
+    }
+
+    /**
+     * Create the bitmap of the color wheel at full size. Rows are split across one thread per core.
+     * @return The wheel
+     */
+    private static Bitmap createColorWheelBitmap(){
+    	final int width = ColorPickerView.WIDTH;
+    	final int height = ColorPickerView.HEIGHT;
+    	final int[] colors = new int[width*height];
+    	final int[] table = getHueTable();
+
+    	int nTasks = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), height));
+    	ExecutorService executor = Executors.newFixedThreadPool(nTasks);
+    	try{
+    		ArrayList<Future<?>> futures = new ArrayList<Future<?>>(nTasks);
+    		for (int t = 0; t < nTasks; t++){
+    			final int first = height*t/nTasks;
+    			final int last = height*(t+1)/nTasks;
+    			futures.add(executor.submit(new Runnable() {
+    				@Override
+    				public void run() {
+    					for (int i = first; i < last; i++){
+    						float y = i - ColorPickerView.CENTER_Y;
+    						int row = i*width;
+    						for (int j = 0; j < width; j++)
+    							colors[row + j] = getWheelColor(table, j - ColorPickerView.CENTER_X, y);
+    					}
+    				}
+    			}));
+    		}
+    		for (Future<?> future : futures){
+    			try{
+    				future.get();
+    			}catch(InterruptedException e){
+    				Thread.currentThread().interrupt();
+    				throw new RuntimeException(e);
+    			}catch(ExecutionException e){
+    				throw new RuntimeException(e.getCause());
+    			}
+    		}
+    	}finally{
+    		executor.shutdown();
+    	}
+    	return Bitmap.createBitmap(colors, 0, width, width, height, Bitmap.Config.RGB_565);
+    }
 }
\ No newline at end of file
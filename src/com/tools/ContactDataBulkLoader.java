@@ -0,0 +1,252 @@
+package com.tools;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.ContactsContract.CommonDataKinds;
+import android.provider.ContactsContract.Data;
+import android.support.v4.util.LongSparseArray;
+
+/**
+ * Loads the phone numbers, email addresses, and names of many contacts at once. <br>
+ * {@link CustomCursors#getContactPhoneArrayEmailArrayAndName(android.content.Context, long)} does a phone query,
+ * a name query per phone row, and an email query for every contact. This class instead reads all three mimetypes
+ * straight from {@link Data#CONTENT_URI} with the contact ids batched into IN clauses, so loading 2000 contacts
+ * is a handful of queries. Rows are sorted by contact id, so each contact is finished and stored as soon as the cursor
+ * moves past it, and the results are keyed by the primitive contact id.
+ * @author Kyle
+ *
+ */
+public class ContactDataBulkLoader {
+
+	// constants
+	/** The default number of contact ids to put in each query */
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	private static final String[] PROJECTION = {
+		Data.CONTACT_ID,
+		Data.MIMETYPE,
+		Data.DISPLAY_NAME,
+		Data.DATA1,
+		Data.DATA2,
+		Data.DATA3};
+	private static final String MIMETYPE_SELECTION =
+		Data.MIMETYPE + " IN ('"
+		+ CommonDataKinds.Phone.CONTENT_ITEM_TYPE + "', '"
+		+ CommonDataKinds.Email.CONTENT_ITEM_TYPE + "', '"
+		+ CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE + "')";
+
+	// private variables
+	private ContentResolver cr; 				// resolver to query on
+	private int batchSize; 						// number of ids per query
+
+	/**
+	 * Create a bulk loader with the default batch size
+	 * @param cr The content resolver to query
+	 */
+	public ContactDataBulkLoader(ContentResolver cr){
+		this(cr, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Create a bulk loader
+	 * @param cr The content resolver to query
+	 * @param batchSize The number of contact ids to put into each query. Must be > 0
+	 */
+	public ContactDataBulkLoader(ContentResolver cr, int batchSize){
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("batchSize must be > 0");
+		this.cr = cr;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Load the phone numbers, email addresses, and name of all the contacts.
+	 * @param contactIds The contact ids to load. Null values are skipped.
+	 * @return A map from contactId to a ThreeObjects in the same format as
+	 * {@link CustomCursors#getContactPhoneArrayEmailArrayAndName(android.content.Context, long)}. Contacts with no rows will not be in the map.
+	 */
+	public LongSparseArray<ThreeObjects<HashSet<TwoStrings>, HashSet<TwoStrings>, TwoStrings>> load(Collection<Long> contactIds){
+		long[] ids = new long[contactIds.size()];
+		int n = 0;
+		for (Long id : contactIds){
+			if (id != null)
+				ids[n++] = id;
+		}
+		return load(Arrays.copyOf(ids, n));
+	}
+
+	/**
+	 * Load the phone numbers, email addresses, and name of all the contacts.
+	 * @param contactIds The contact ids to load. This array is not modified.
+	 * @return A map from contactId to a ThreeObjects in the same format as
+	 * {@link CustomCursors#getContactPhoneArrayEmailArrayAndName(android.content.Context, long)}. Contacts with no rows will not be in the map.
+	 */
+	public LongSparseArray<ThreeObjects<HashSet<TwoStrings>, HashSet<TwoStrings>, TwoStrings>> load(long[] contactIds){
+
+		// sort the ids, so each batch and each cursor comes back in ascending order and we can append to the map
+		long[] ids = contactIds.clone();
+		Arrays.sort(ids);
+
+		LongSparseArray<ThreeObjects<HashSet<TwoStrings>, HashSet<TwoStrings>, TwoStrings>> output =
+			new LongSparseArray<ThreeObjects<HashSet<TwoStrings>, HashSet<TwoStrings>, TwoStrings>>(ids.length);
+
+		// loop over batches
+		int start = 0;
+		while (start < ids.length){
+			int end = Math.min(start + batchSize, ids.length);
+			loadBatch(ids, start, end, output);
+			start = end;
+		}
+
+		return output;
+	}
+
+	/**
+	 * Run one query for the ids from start (inclusive) to end (exclusive) and put the results into output
+	 * @param ids The sorted ids
+	 * @param start first index
+	 * @param end last index + 1
+	 * @param output The map to append to
+	 */
+	private void loadBatch(
+			long[] ids,
+			int start,
+			int end,
+			LongSparseArray<ThreeObjects<HashSet<TwoStrings>, HashSet<TwoStrings>, TwoStrings>> output){
+
+		// build the IN clause, skipping duplicate ids
+		StringBuilder selection = new StringBuilder(MIMETYPE_SELECTION.length() + 12*(end-start) + 32);
+		selection.append(MIMETYPE_SELECTION).append(" AND ").append(Data.CONTACT_ID).append(" IN (");
+		for (int i = start; i < end; i++){
+			if (i > start && ids[i] == ids[i-1])
+				continue;
+			if (i > start)
+				selection.append(',');
+			selection.append(ids[i]);
+		}
+		selection.append(')');
+
+		// the query
+		Cursor cursor = cr.query(
+				Data.CONTENT_URI,
+				PROJECTION,
+				selection.toString(),
+				null,
+				Data.CONTACT_ID + " ASC");
+		if (cursor == null)
+			return;
+
+		try{
+			int idCol = cursor.getColumnIndex(Data.CONTACT_ID);
+			int mimeCol = cursor.getColumnIndex(Data.MIMETYPE);
+			int displayCol = cursor.getColumnIndex(Data.DISPLAY_NAME);
+			int data1Col = cursor.getColumnIndex(Data.DATA1);
+			int data2Col = cursor.getColumnIndex(Data.DATA2);
+			int data3Col = cursor.getColumnIndex(Data.DATA3);
+
+			// the contact we are currently building
+			ContactAccumulator current = null;
+
+			while (cursor.moveToNext()){
+				long id = cursor.getLong(idCol);
+
+				// new contact, so store the old one
+				if (current == null || current.contactId != id){
+					if (current != null)
+						current.finishInto(output);
+					current = new ContactAccumulator(id);
+				}
+
+				// grab display name
+				if (current.displayName.length() == 0){
+					String name = cursor.getString(displayCol);
+					if (name != null)
+						current.displayName = name;
+				}
+
+				// fill the correct value based on mimetype
+				String mime = cursor.getString(mimeCol);
+				if (CommonDataKinds.Phone.CONTENT_ITEM_TYPE.equals(mime)){
+					String number = cursor.getString(data1Col);
+					if (number != null)
+						current.phones.add(new TwoStrings(
+								com.tools.Tools.formatPhoneNumber(number),
+								CustomCursors.getPhoneTypeString(cursor.getInt(data2Col), cursor.getString(data3Col))));
+				}else if (CommonDataKinds.Email.CONTENT_ITEM_TYPE.equals(mime)){
+					String email = cursor.getString(data1Col);
+					if (email != null)
+						current.emails.add(new TwoStrings(
+								email,
+								CustomCursors.getEmailTypeString(cursor.getInt(data2Col), cursor.getString(data3Col))));
+				}else if (CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE.equals(mime)){
+					current.addName(CustomCursors.cleanFirstAndLastName(cursor.getString(data2Col), cursor.getString(data3Col)));
+				}
+			}
+
+			// store the last one
+			if (current != null)
+				current.finishInto(output);
+		}finally{
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Holds the values for one contact while its rows are read from the cursor
+	 */
+	private static class ContactAccumulator{
+		private final long contactId;
+		private HashSet<TwoStrings> phones = new HashSet<TwoStrings>();
+		private HashSet<TwoStrings> emails = new HashSet<TwoStrings>();
+		private TwoStrings fullName = new TwoStrings("", "", "Full name of contact, where mObject1 is first name and mObject2 is second name");
+		private String displayName = "";
+
+		private ContactAccumulator(long contactId){
+			this.contactId = contactId;
+		}
+
+		/**
+		 * Fill any empty name parts from this name
+		 * @param name The first and last name
+		 */
+		private void addName(TwoStrings name){
+			if ((fullName.mObject1 == null ||
+					fullName.mObject1.length() == 0) &&
+					(name.mObject1 != null &&
+							name.mObject1.length() != 0))
+				fullName.mObject1 = name.mObject1;
+
+			if ((fullName.mObject2 == null ||
+					fullName.mObject2.length() == 0) &&
+					(name.mObject2 != null &&
+							name.mObject2.length() != 0))
+				fullName.mObject2 = name.mObject2;
+		}
+
+		/**
+		 * Choose the name to use and put the contact into the output map. Ids arrive in ascending order, so append is used.
+		 * @param output The map to store into
+		 */
+		private void finishInto(LongSparseArray<ThreeObjects<HashSet<TwoStrings>, HashSet<TwoStrings>, TwoStrings>> output){
+
+			// figure out which name parts to use, same as CustomCursors.getContactPhoneArrayEmailArrayAndName
+			if (fullName.mObject1 == null
+					|| fullName.mObject1.length() == 0
+					|| fullName.mObject2 == null
+					|| fullName.mObject2.length() == 0
+					&& (displayName != null && displayName.length() != 0)){
+				fullName.mObject1 = displayName;
+				fullName.mObject2 = "";
+			}
+
+			output.append(contactId, new ThreeObjects<HashSet<TwoStrings>, HashSet<TwoStrings>, TwoStrings>
+			(phones, emails, fullName,
+					"mObject1 is hashSet of TwoStrings phone numbers with number and type, "+
+					"mObject2 is hashSet of TwoStrinsg emails of email and type, and "+
+					"mObject3 is the full name of the contact stored in first and last names"));
+		}
+	}
+}
@@ -0,0 +1,424 @@
+package com.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.provider.ContactsContract.CommonDataKinds;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.RawContacts;
+import android.support.v4.util.LongSparseArray;
+
+/**
+ * An in memory index from phone number and email address to contact ids. <br>
+ * {@link CustomCursors#getCursorFromPhoneAndEmail(android.app.Activity, String, String, boolean)} runs two queries for every
+ * lookup, which is very slow when matching thousands of phone/email pairs. This index is built once from the contacts
+ * provider and then answers lookups from hash maps. <br>
+ * Phone numbers are normalized with {@link Tools#fixPhoneString(String)} and emails are trimmed and lowercased, so matching is
+ * exact on those keys, and not the fuzzy matching that PhoneLookup performs. <br>
+ * Call {@link #startWatching()} to keep the index up to date. When the contacts change, only the raw contacts whose
+ * VERSION changed are re-read, on a background thread. Call {@link #stopWatching()} when done.
+ * @author Kyle
+ *
+ */
+public class ContactLookupIndex {
+
+	// constants
+	private static final int BATCH_SIZE = 500; 							// raw contact ids per data query
+
+	// private variables
+	private ContentResolver cr; 										// resolver to query on
+	private LongSparseArray<RawEntry> rawEntries =
+		new LongSparseArray<RawEntry>(); 								// everything we have indexed, keyed on raw contact id
+	private HashMap<String, ArrayList<RawEntry>> phoneIndex =
+		new HashMap<String, ArrayList<RawEntry>>(); 					// normalized phone to raw contacts
+	private HashMap<String, ArrayList<RawEntry>> emailIndex =
+		new HashMap<String, ArrayList<RawEntry>>(); 					// lowercase email to raw contacts
+	private final Object refreshLock = new Object(); 					// only one refresh at a time
+	private ExecutorService refreshExecutor = null; 					// runs refreshes when contacts change
+	private AtomicBoolean isRefreshPending = new AtomicBoolean(false); 	// coalesce change notifications
+	private ContentObserver observer = null; 							// listens to contact changes
+
+	/**
+	 * Create an empty index. Call {@link #refresh()} or {@link #startWatching()} to fill it.
+	 * @param ctx The context used to query the contacts provider
+	 */
+	public ContactLookupIndex(Context ctx){
+		cr = ctx.getApplicationContext().getContentResolver();
+	}
+
+	/**
+	 * Start listening for changes to the contacts and refresh the index in the background when they occur.
+	 * This also starts an initial refresh in the background.
+	 */
+	public synchronized void startWatching(){
+		if (observer != null)
+			return;
+
+		refreshExecutor = Executors.newSingleThreadExecutor();
+		observer = new ContentObserver(null) {
+			@Override
+			public void onChange(boolean selfChange) {
+				scheduleRefresh();
+			}
+		};
+		cr.registerContentObserver(RawContacts.CONTENT_URI, true, observer);
+		cr.registerContentObserver(Data.CONTENT_URI, true, observer);
+		scheduleRefresh();
+	}
+
+	/**
+	 * Stop listening for contact changes. The index keeps its current values.
+	 */
+	public synchronized void stopWatching(){
+		if (observer == null)
+			return;
+		cr.unregisterContentObserver(observer);
+		observer = null;
+		refreshExecutor.shutdown();
+		refreshExecutor = null;
+	}
+
+	/**
+	 * Queue a refresh on the background thread. Any number of notifications that arrive before it runs result in one refresh.
+	 */
+	private synchronized void scheduleRefresh(){
+		if (refreshExecutor == null)
+			return;
+		if (!isRefreshPending.compareAndSet(false, true))
+			return;
+		refreshExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				isRefreshPending.set(false);
+				refresh();
+			}
+		});
+	}
+
+	/**
+	 * Bring the index up to date with the contacts provider. The first call reads all phones and emails, and later calls
+	 * only re-read raw contacts that were added or whose VERSION changed, and drop those that were deleted. <br>
+	 * This performs queries, so do not call on the main thread.
+	 */
+	public void refresh(){
+		synchronized (refreshLock) {
+
+			// grab the current version of every raw contact
+			Cursor cursor = cr.query(
+					RawContacts.CONTENT_URI,
+					new String[] {RawContacts._ID, RawContacts.CONTACT_ID, RawContacts.VERSION},
+					RawContacts.DELETED + " = 0",
+					null,
+					null);
+			if (cursor == null)
+				return;
+
+			LongSparseArray<RawEntry> current = new LongSparseArray<RawEntry>(cursor.getCount());
+			ArrayList<RawEntry> changed = new ArrayList<RawEntry>();
+			try{
+				int idCol = cursor.getColumnIndex(RawContacts._ID);
+				int contactCol = cursor.getColumnIndex(RawContacts.CONTACT_ID);
+				int versionCol = cursor.getColumnIndex(RawContacts.VERSION);
+				while (cursor.moveToNext()){
+					long rawId = cursor.getLong(idCol);
+					long contactId = cursor.getLong(contactCol);
+					int version = cursor.getInt(versionCol);
+
+					// keep the old entry if nothing has changed
+					RawEntry old;
+					synchronized (this) {
+						old = rawEntries.get(rawId);
+					}
+					if (old != null && old.version == version && old.contactId == contactId){
+						current.put(rawId, old);
+					}else{
+						RawEntry entry = new RawEntry(rawId, contactId, version);
+						current.put(rawId, entry);
+						changed.add(entry);
+					}
+				}
+			}finally{
+				cursor.close();
+			}
+
+			// read the phones and emails of the changed raw contacts
+			for (int start = 0; start < changed.size(); start += BATCH_SIZE)
+				loadData(changed.subList(start, Math.min(start + BATCH_SIZE, changed.size())));
+
+			// swap in the new entries
+			synchronized (this) {
+				for (int i = 0; i < rawEntries.size(); i++){
+					RawEntry old = rawEntries.valueAt(i);
+					if (current.get(old.rawId) != old)
+						removeFromIndex(old);
+				}
+				for (RawEntry entry : changed)
+					addToIndex(entry);
+				rawEntries = current;
+			}
+		}
+	}
+
+	/**
+	 * Query the phones and emails of the given raw contacts and store them in the entries
+	 * @param entries The entries to fill
+	 */
+	private void loadData(List<RawEntry> entries){
+
+		LongSparseArray<RawEntry> byId = new LongSparseArray<RawEntry>(entries.size());
+		StringBuilder selection = new StringBuilder();
+		selection.append(Data.MIMETYPE).append(" IN ('")
+		.append(CommonDataKinds.Phone.CONTENT_ITEM_TYPE).append("', '")
+		.append(CommonDataKinds.Email.CONTENT_ITEM_TYPE).append("') AND ")
+		.append(Data.RAW_CONTACT_ID).append(" IN (");
+		for (int i = 0; i < entries.size(); i++){
+			RawEntry entry = entries.get(i);
+			byId.put(entry.rawId, entry);
+			if (i > 0)
+				selection.append(',');
+			selection.append(entry.rawId);
+		}
+		selection.append(')');
+
+		Cursor cursor = cr.query(
+				Data.CONTENT_URI,
+				new String[] {Data.RAW_CONTACT_ID, Data.MIMETYPE, Data.DATA1},
+				selection.toString(),
+				null,
+				null);
+		if (cursor == null)
+			return;
+
+		try{
+			int rawCol = cursor.getColumnIndex(Data.RAW_CONTACT_ID);
+			int mimeCol = cursor.getColumnIndex(Data.MIMETYPE);
+			int dataCol = cursor.getColumnIndex(Data.DATA1);
+			while (cursor.moveToNext()){
+				RawEntry entry = byId.get(cursor.getLong(rawCol));
+				if (entry == null)
+					continue;
+				String mime = cursor.getString(mimeCol);
+				if (CommonDataKinds.Phone.CONTENT_ITEM_TYPE.equals(mime)){
+					String key = normalizePhone(cursor.getString(dataCol));
+					if (key != null)
+						entry.phones.add(key);
+				}else{
+					String key = normalizeEmail(cursor.getString(dataCol));
+					if (key != null)
+						entry.emails.add(key);
+				}
+			}
+		}finally{
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Add the keys of this entry to the index. Must hold lock on this.
+	 */
+	private void addToIndex(RawEntry entry){
+		for (String key : entry.phones)
+			addKey(phoneIndex, key, entry);
+		for (String key : entry.emails)
+			addKey(emailIndex, key, entry);
+	}
+
+	/**
+	 * Remove the keys of this entry from the index. Must hold lock on this.
+	 */
+	private void removeFromIndex(RawEntry entry){
+		for (String key : entry.phones)
+			removeKey(phoneIndex, key, entry);
+		for (String key : entry.emails)
+			removeKey(emailIndex, key, entry);
+	}
+
+	private static void addKey(HashMap<String, ArrayList<RawEntry>> index, String key, RawEntry entry){
+		ArrayList<RawEntry> list = index.get(key);
+		if (list == null){
+			list = new ArrayList<RawEntry>(1);
+			index.put(key, list);
+		}
+		if (!list.contains(entry))
+			list.add(entry);
+	}
+
+	private static void removeKey(HashMap<String, ArrayList<RawEntry>> index, String key, RawEntry entry){
+		ArrayList<RawEntry> list = index.get(key);
+		if (list == null)
+			return;
+		list.remove(entry);
+		if (list.size() == 0)
+			index.remove(key);
+	}
+
+	/**
+	 * Find all the contact ids with this phone number
+	 * @param phone The phone number, in any format
+	 * @return The sorted unique contact ids, or an empty array if none
+	 */
+	public synchronized long[] getContactIdsFromPhone(String phone){
+		return getContactIds(phoneIndex, normalizePhone(phone));
+	}
+
+	/**
+	 * Find all the contact ids with this email address
+	 * @param email The email address, case does not matter
+	 * @return The sorted unique contact ids, or an empty array if none
+	 */
+	public synchronized long[] getContactIdsFromEmail(String email){
+		return getContactIds(emailIndex, normalizeEmail(email));
+	}
+
+	/**
+	 * Return all contacts with the passed phone number and/or email. Same rules as
+	 * {@link CustomCursors#getCursorFromPhoneAndEmail(android.app.Activity, String, String, boolean)}:
+	 * Only contacts where both phone and email match will return (if isRequireBothIfNotNull is true, else only 1 requried).
+	 * If one is null (or empty), then only one must match, if both are null (or empty), then null is returned.
+	 * @param phone The phone number to search
+	 * @param email The email address to search
+	 * @param isRequireBothIfNotNull if true, then both phone and email are required (if both are non-null / empty) and if false, then either/or is required.
+	 * @return The sorted unique contact ids that match, or null if there are none
+	 */
+	public synchronized long[] getContactIdsFromPhoneAndEmail(String phone, String email, boolean isRequireBothIfNotNull){
+		String phoneKey = normalizePhone(phone);
+		String emailKey = normalizeEmail(email);
+
+		// if both null, return
+		if (phoneKey == null && emailKey == null)
+			return null;
+
+		long[] output;
+		if (phoneKey == null)
+			output = getContactIds(emailIndex, emailKey);
+		else if (emailKey == null)
+			output = getContactIds(phoneIndex, phoneKey);
+		else if (isRequireBothIfNotNull)
+			output = intersect(getContactIds(phoneIndex, phoneKey), getContactIds(emailIndex, emailKey));
+		else
+			output = union(getContactIds(phoneIndex, phoneKey), getContactIds(emailIndex, emailKey));
+
+		if (output.length == 0)
+			return null;
+		else
+			return output;
+	}
+
+	/**
+	 * The number of raw contacts currently in the index
+	 * @return the number of raw contacts
+	 */
+	public synchronized int size(){
+		return rawEntries.size();
+	}
+
+	/**
+	 * Get the sorted unique contact ids for the key
+	 */
+	private static long[] getContactIds(HashMap<String, ArrayList<RawEntry>> index, String key){
+		if (key == null)
+			return new long[0];
+		ArrayList<RawEntry> list = index.get(key);
+		if (list == null)
+			return new long[0];
+		long[] ids = new long[list.size()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = list.get(i).contactId;
+		return sortUnique(ids, ids.length);
+	}
+
+	/**
+	 * Sort the first n values of ids and remove duplicates
+	 */
+	private static long[] sortUnique(long[] ids, int n){
+		Arrays.sort(ids, 0, n);
+		int out = 0;
+		for (int i = 0; i < n; i++){
+			if (out == 0 || ids[out-1] != ids[i])
+				ids[out++] = ids[i];
+		}
+		return Arrays.copyOf(ids, out);
+	}
+
+	/**
+	 * Intersection of two sorted unique arrays
+	 */
+	private static long[] intersect(long[] a, long[] b){
+		long[] out = new long[Math.min(a.length, b.length)];
+		int i = 0, j = 0, n = 0;
+		while (i < a.length && j < b.length){
+			if (a[i] < b[j])
+				i++;
+			else if (a[i] > b[j])
+				j++;
+			else{
+				out[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(out, n);
+	}
+
+	/**
+	 * Union of two sorted unique arrays
+	 */
+	private static long[] union(long[] a, long[] b){
+		long[] out = new long[a.length + b.length];
+		System.arraycopy(a, 0, out, 0, a.length);
+		System.arraycopy(b, 0, out, a.length, b.length);
+		return sortUnique(out, out.length);
+	}
+
+	/**
+	 * Normalize the phone number into the key we store
+	 * @param phone the phone number
+	 * @return The key, or null if there are no digits
+	 */
+	private static String normalizePhone(String phone){
+		String key = Tools.fixPhoneString(phone);
+		if (key == null || key.length() == 0)
+			return null;
+		return key;
+	}
+
+	/**
+	 * Normalize the email into the key we store
+	 * @param email the email address
+	 * @return The key, or null if empty
+	 */
+	private static String normalizeEmail(String email){
+		if (email == null)
+			return null;
+		String key = email.trim().toLowerCase();
+		if (key.length() == 0)
+			return null;
+		return key;
+	}
+
+	/**
+	 * The indexed values of one raw contact
+	 */
+	private static class RawEntry{
+		private final long rawId;
+		private final long contactId;
+		private final int version;
+		private ArrayList<String> phones = new ArrayList<String>(2);
+		private ArrayList<String> emails = new ArrayList<String>(1);
+
+		private RawEntry(long rawId, long contactId, int version){
+			this.rawId = rawId;
+			this.contactId = contactId;
+			this.version = version;
+		}
+	}
+}
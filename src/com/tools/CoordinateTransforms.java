@@ -1,5 +1,16 @@
 package com.tools;
 
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Conversions between WGS84 geodetic, ecf, and local east-north-up coordinates. <br>
+ * The Geodetic, Ecf, and Local classes convert one point at a time. For long tracks use the static batch methods, like
+ * {@link #geodeticToEcf(double[], double[], double[], double[], double[], double[], int, ExecutorService, int)},
+ * which work on arrays of each coordinate, write into arrays the caller passes in, and can split the work across an executor.
+ */
 public class CoordinateTransforms {
 
 	// helper variables used internal
@@ -10,6 +21,7 @@ public class CoordinateTransforms {
 	private static double EARTH_RADIUS				= 6378137;            	// WGS84 equatorial radius of earth (m)
 	private static double GEOD_TOL 					= 1e-7;					// tolerance for ecf-geod conversion
 	private static int GEOD_MAX_ITER 				= 50; 					// max interation for ecf-geod conversion
+	private static final int MIN_POINTS_PER_TASK 	= 4096; 				// don't split batches into pieces smaller than this
 
 	/**
 	 * A class to store local coordinates in meters. (east, north, up)
@@ -79,26 +91,9 @@ public class CoordinateTransforms {
 		 * @return ecf coordinates
 		 */
 		public Ecf ecf(){
-
-			// convert to radians and grab altitude
-			double lon = longitude*DEG2RAD;
-			double lat = latitude*DEG2RAD;
-			double alt = altitude;
-
-			// sin and cos of angles
-			double sLon = Math.sin(lon);
-			double sLat = Math.sin(lat);
-			double cLon = Math.cos(lon);
-			double cLat = Math.cos(lat);
-
-			// conversion steps
-			double N = EARTH_RADIUS / Math.sqrt(1-E2*sLat*sLat);
-			Ecf ecf = new Ecf(cLat*cLon*(N+alt), 
-					cLat*sLon*(N+alt), 
-					sLat*(N*(1-E2)+alt));
-
-			// return ecf
-			return ecf;
+			double[] out = new double[3];
+			geodeticToEcf(latitude, longitude, altitude, out);
+			return new Ecf(out);
 		}
 
 		/**
@@ -107,43 +102,9 @@ public class CoordinateTransforms {
 		 * @return the new ecf position
 		 */
 		public Ecf addLocalVector2Ecf(Local local){
-
-			// altered lat and lon
-			double lat2 = -(90 - latitude)*DEG2RAD;
-			double lon2 = -(90 + longitude)*DEG2RAD;
-
-			// sin and cos of angles
-			double sLon = Math.sin(lon2);
-			double sLat = Math.sin(lat2);
-			double cLon = Math.cos(lon2);
-			double cLat = Math.cos(lat2);
-
-			// grab ecf position
-			Ecf ecf = this.ecf();
-
-			// transformation matrixes
-			double R1[][] = {
-					{1,	0, 		0},
-					{0, 	cLat, 	-sLat},
-					{0, 	sLat, 	cLat}
-			};
-			double R3[][] = {
-					{cLon,	-sLon, 	0},
-					{sLon, 	cLon, 	0},
-					{0, 		0, 		1}
-			};
-
-			// forward transformation, ecf to local
-			double R[][] = com.tools.MathTools.matrixMultiply(R1, R3);
-
-			// we want reverse transform of local to ecf, so transpose
-			R = com.tools.MathTools.transposeMatrix(R);
-			//return ecf;
-
-			// multiple rotation matrix by local position and add to current position
-			ecf = ecf.add(new Ecf(com.tools.MathTools.matrixMultiply(R, local.getArray())));
-			
-			return ecf;
+			double[] out = new double[3];
+			new LocalFrame(this).localToEcf(local.east, local.north, local.up, out);
+			return new Ecf(out);
 		}
 	
 		/**
@@ -211,55 +172,366 @@ public class CoordinateTransforms {
 		 * @return geodetic object of ecf coordinates
 		 */
 		public Geodetic geodetic(){
-			
-			// calculate rho and long
-			double rho = Math.sqrt(x*x + y*y);
-			double lon = Math.atan2(y, x);
-			double lat = 0;
-			
-			// Initialize to spherical values
-			if (rho == 0){
-				if (z >= 0)
-					lat = PI/2;
-				else
-					lat = -PI/2;
-			}else
-				lat = Math.atan(z/rho);
-			
-			// Calculate h
-			double h = Math.sqrt(x*x + y*y + z*z);
-			
-			// Iteration loop
-			int n = 1;
-			boolean conv = false;
-			while (!conv && n < GEOD_MAX_ITER){
-				
-				// various calculations
-				double sLat = Math.sin(lat);
-				double cLat = Math.cos(lat);
-				double u = 1 / Math.sqrt(1-E2*sLat*sLat);
-				double N = EARTH_RADIUS*u;
-				double v = N + h;
-				double w = N*(1-E2) + h;
-				double rhoErr = v*cLat - rho;
-				double zErr = w*sLat - z;
-				
-				// check convergence
-				if (Math.abs(rhoErr) < GEOD_TOL &&
-						Math.abs(zErr) < GEOD_TOL)
-					conv = true;
-				else{
-					double t = Math.abs(w*u*u);
-					lat = lat + (sLat*rhoErr - cLat*zErr)/t;
-					h = h - cLat*rhoErr - sLat*zErr;
+			double[] out = new double[3];
+			ecfToGeodeticIterative(x, y, z, out);
+			return new Geodetic(out[0], out[1], out[2]);
+		}
+	}
+
+	/**
+	 * A local east-north-up frame at a reference point. The rotation and the ecf position of the reference are computed
+	 * once in the constructor, so converting many local vectors at the same reference costs a 3x3 multiply each.
+	 * @author Kyle
+	 *
+	 */
+	public static class LocalFrame{
+		private final double x0; 							// ecf of reference point
+		private final double y0;
+		private final double z0;
+		private final double[] rotation = new double[9]; 	// ecf to local rotation, row-major
+
+		/**
+		 * Create the local frame at this reference point
+		 * @param reference The origin of the frame
+		 */
+		public LocalFrame(Geodetic reference){
+
+			// altered lat and lon
+			double lat2 = -(90 - reference.latitude)*DEG2RAD;
+			double lon2 = -(90 + reference.longitude)*DEG2RAD;
+
+			// sin and cos of angles
+			double sLon = Math.sin(lon2);
+			double sLat = Math.sin(lat2);
+			double cLon = Math.cos(lon2);
+			double cLat = Math.cos(lat2);
+
+			// transformation matrixes
+			double[] R1 = {
+					1,	0, 		0,
+					0, 	cLat, 	-sLat,
+					0, 	sLat, 	cLat
+			};
+			double[] R3 = {
+					cLon,	-sLon, 	0,
+					sLon, 	cLon, 	0,
+					0, 		0, 		1
+			};
+
+			// forward transformation, ecf to local
+			Matrix.multiply3x3Into(rotation, R1, R3);
+
+			// grab ecf position
+			double[] ecf = new double[3];
+			geodeticToEcf(reference.latitude, reference.longitude, reference.altitude, ecf);
+			x0 = ecf[0];
+			y0 = ecf[1];
+			z0 = ecf[2];
+		}
+
+		/**
+		 * Convert a local vector in this frame to an ecf position
+		 * @param east east (m)
+		 * @param north north (m)
+		 * @param up up (m)
+		 * @param out (x, y, z) ecf output (m), length 3
+		 */
+		public void localToEcf(double east, double north, double up, double[] out){
+			out[0] = east;
+			out[1] = north;
+			out[2] = up;
+
+			// we want reverse transform of local to ecf, so transpose
+			Matrix.multiplyTransposeVector3x3Into(out, rotation, out);
+			out[0] += x0;
+			out[1] += y0;
+			out[2] += z0;
+		}
+
+		/**
+		 * Convert count local vectors in this frame to ecf positions, from index start to end (exclusive)
+		 */
+		private void localToEcf(
+				double[] east, double[] north, double[] up,
+				double[] x, double[] y, double[] z,
+				int start, int end){
+			double[] R = rotation;
+			for (int i = start; i < end; i++){
+				double e = east[i], n = north[i], u = up[i];
+				x[i] = R[0]*e + R[3]*n + R[6]*u + x0;
+				y[i] = R[1]*e + R[4]*n + R[7]*u + y0;
+				z[i] = R[2]*e + R[5]*n + R[8]*u + z0;
+			}
+		}
+	}
+
+	/**
+	 * Work on the range start to end (exclusive) of a batch
+	 */
+	private interface RangeTask{
+		public void run(int start, int end);
+	}
+
+	/**
+	 * Convert a batch of geodetic points to ecf. All arrays must have at least count elements.
+	 * @param latitude latitude WGS84 (deg)
+	 * @param longitude longitude WGS84 (deg)
+	 * @param altitude altitude WGS84 (m)
+	 * @param x output ecf x (m)
+	 * @param y output ecf y (m)
+	 * @param z output ecf z (m)
+	 * @param count number of points
+	 * @param executor executor to split large batches across. If null, all work is on the calling thread
+	 * @param nTasks maximum number of pieces to split into, usually the number of cores
+	 */
+	public static void geodeticToEcf(
+			final double[] latitude, final double[] longitude, final double[] altitude,
+			final double[] x, final double[] y, final double[] z,
+			int count,
+			ExecutorService executor,
+			int nTasks){
+
+		runInRanges(count, executor, nTasks, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int i = start; i < end; i++){
+					double lon = longitude[i]*DEG2RAD;
+					double lat = latitude[i]*DEG2RAD;
+					double alt = altitude[i];
+					double sLat = Math.sin(lat);
+					double cLat = Math.cos(lat);
+					double N = EARTH_RADIUS / Math.sqrt(1-E2*sLat*sLat);
+					x[i] = cLat*Math.cos(lon)*(N+alt);
+					y[i] = cLat*Math.sin(lon)*(N+alt);
+					z[i] = sLat*(N*(1-E2)+alt);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Convert a batch of ecf points to geodetic. All arrays must have at least count elements.
+	 * @param x ecf x (m)
+	 * @param y ecf y (m)
+	 * @param z ecf z (m)
+	 * @param latitude output latitude WGS84 (deg)
+	 * @param longitude output longitude WGS84 (deg)
+	 * @param altitude output altitude WGS84 (m)
+	 * @param count number of points
+	 * @param isClosedForm if true, use the closed form solution of Vermeille, which needs no iteration and
+	 * is accurate to well under a millimeter for points near the surface. If false, use the same iteration as {@link Ecf#geodetic()}.
+	 * @param executor executor to split large batches across. If null, all work is on the calling thread
+	 * @param nTasks maximum number of pieces to split into, usually the number of cores
+	 */
+	public static void ecfToGeodetic(
+			final double[] x, final double[] y, final double[] z,
+			final double[] latitude, final double[] longitude, final double[] altitude,
+			int count,
+			final boolean isClosedForm,
+			ExecutorService executor,
+			int nTasks){
+
+		runInRanges(count, executor, nTasks, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				double[] out = new double[3];
+				for (int i = start; i < end; i++){
+					if (!isClosedForm || !ecfToGeodeticClosedForm(x[i], y[i], z[i], out))
+						ecfToGeodeticIterative(x[i], y[i], z[i], out);
+					latitude[i] = out[0];
+					longitude[i] = out[1];
+					altitude[i] = out[2];
+				}
+			}
+		});
+	}
+
+	/**
+	 * Convert a batch of local east-north-up vectors at a reference point to ecf. The rotation is computed once for the batch.
+	 * All arrays must have at least count elements.
+	 * @param reference The origin of the local frame
+	 * @param east east (m)
+	 * @param north north (m)
+	 * @param up up (m)
+	 * @param x output ecf x (m)
+	 * @param y output ecf y (m)
+	 * @param z output ecf z (m)
+	 * @param count number of points
+	 * @param executor executor to split large batches across. If null, all work is on the calling thread
+	 * @param nTasks maximum number of pieces to split into, usually the number of cores
+	 */
+	public static void localToEcf(
+			Geodetic reference,
+			final double[] east, final double[] north, final double[] up,
+			final double[] x, final double[] y, final double[] z,
+			int count,
+			ExecutorService executor,
+			int nTasks){
+
+		final LocalFrame frame = new LocalFrame(reference);
+		runInRanges(count, executor, nTasks, new RangeTask() {
+			@Override
+			public void run(int start, int end) {
+				frame.localToEcf(east, north, up, x, y, z, start, end);
+			}
+		});
+	}
+
+	/**
+	 * Split 0 to count into at most nTasks ranges and run them on the executor, waiting until all are done.
+	 * Small batches are run on the calling thread.
+	 */
+	private static void runInRanges(int count, ExecutorService executor, int nTasks, final RangeTask task){
+		nTasks = Math.min(nTasks, count/MIN_POINTS_PER_TASK);
+		if (executor == null || nTasks <= 1){
+			task.run(0, count);
+			return;
+		}
+
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>(nTasks);
+		int chunk = (count + nTasks - 1)/nTasks;
+		for (int start = 0; start < count; start += chunk){
+			final int s = start;
+			final int e = Math.min(start + chunk, count);
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					task.run(s, e);
 				}
-				
-				// iterate
-				n++;
+			}));
+		}
+		for (Future<?> future : futures){
+			try{
+				future.get();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}catch(ExecutionException e){
+				throw new RuntimeException(e.getCause());
 			}
-			
-			// outside of loop convert back to degrees
-			return new Geodetic(lat*RAD2DEG, lon*RAD2DEG, h);
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Convert geodetic to ecf coordinate
+	 * @param latitude latitude WGS84 (deg)
+	 * @param longitude longitude WGS84 (deg)
+	 * @param altitude altitude WGS84 (m)
+	 * @param out (x, y, z) ecf output (m), length 3
+	 */
+	private static void geodeticToEcf(double latitude, double longitude, double altitude, double[] out){
+
+		// convert to radians and grab altitude
+		double lon = longitude*DEG2RAD;
+		double lat = latitude*DEG2RAD;
+		double alt = altitude;
+
+		// sin and cos of angles
+		double sLon = Math.sin(lon);
+		double sLat = Math.sin(lat);
+		double cLon = Math.cos(lon);
+		double cLat = Math.cos(lat);
+
+		// conversion steps
+		double N = EARTH_RADIUS / Math.sqrt(1-E2*sLat*sLat);
+		out[0] = cLat*cLon*(N+alt);
+		out[1] = cLat*sLon*(N+alt);
+		out[2] = sLat*(N*(1-E2)+alt);
+	}
+
+	/**
+	 * Convert ecf position to WGS84 geodetic by iteration
+	 * @param x ecf x (m)
+	 * @param y ecf y (m)
+	 * @param z ecf z (m)
+	 * @param out (latitude (deg), longitude (deg), altitude (m)), length 3
+	 */
+	private static void ecfToGeodeticIterative(double x, double y, double z, double[] out){
+
+		// calculate rho and long
+		double rho = Math.sqrt(x*x + y*y);
+		double lon = Math.atan2(y, x);
+		double lat = 0;
+
+		// Initialize to spherical values
+		if (rho == 0){
+			if (z >= 0)
+				lat = PI/2;
+			else
+				lat = -PI/2;
+		}else
+			lat = Math.atan(z/rho);
+
+		// Calculate h
+		double h = Math.sqrt(x*x + y*y + z*z);
+
+		// Iteration loop
+		int n = 1;
+		boolean conv = false;
+		while (!conv && n < GEOD_MAX_ITER){
+
+			// various calculations
+			double sLat = Math.sin(lat);
+			double cLat = Math.cos(lat);
+			double u = 1 / Math.sqrt(1-E2*sLat*sLat);
+			double N = EARTH_RADIUS*u;
+			double v = N + h;
+			double w = N*(1-E2) + h;
+			double rhoErr = v*cLat - rho;
+			double zErr = w*sLat - z;
+
+			// check convergence
+			if (Math.abs(rhoErr) < GEOD_TOL &&
+					Math.abs(zErr) < GEOD_TOL)
+				conv = true;
+			else{
+				double t = Math.abs(w*u*u);
+				lat = lat + (sLat*rhoErr - cLat*zErr)/t;
+				h = h - cLat*rhoErr - sLat*zErr;
+			}
+
+			// iterate
+			n++;
+		}
+
+		// outside of loop convert back to degrees
+		out[0] = lat*RAD2DEG;
+		out[1] = lon*RAD2DEG;
+		out[2] = h;
+	}
+
+	/**
+	 * Convert ecf position to WGS84 geodetic with the closed form solution from
+	 * Vermeille, "Direct transformation from geocentric coordinates to geodetic coordinates", Journal of Geodesy (2002)
+	 * @param x ecf x (m)
+	 * @param y ecf y (m)
+	 * @param z ecf z (m)
+	 * @param out (latitude (deg), longitude (deg), altitude (m)), length 3
+	 * @return false if the point is too close to the center of the earth for the formula, and out was not filled
+	 */
+	private static boolean ecfToGeodeticClosedForm(double x, double y, double z, double[] out){
+		double a2 = EARTH_RADIUS*EARTH_RADIUS;
+		double e4 = E2*E2;
+		double rho2 = x*x + y*y;
+		double rho = Math.sqrt(rho2);
+
+		double p = rho2/a2;
+		double q = (1-E2)/a2*z*z;
+		double r = (p + q - e4)/6;
+		if (r <= 0)
+			return false;
+		double s = e4*p*q/(4*r*r*r);
+		double t = Math.cbrt(1 + s + Math.sqrt(s*(2 + s)));
+		double u = r*(1 + t + 1/t);
+		double v = Math.sqrt(u*u + e4*q);
+		double w = E2*(u + v - q)/(2*v);
+		double k = Math.sqrt(u + v + w*w) - w;
+		double D = k*rho/(k + E2);
+		double Dz = Math.sqrt(D*D + z*z);
+
+		out[0] = 2*Math.atan2(z, D + Dz)*RAD2DEG;
+		out[1] = Math.atan2(y, x)*RAD2DEG;
+		out[2] = (k + E2 - 1)/k*Dz;
+		return true;
+	}
+}
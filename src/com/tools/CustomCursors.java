@@ -16,6 +16,7 @@ import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds;
 import android.provider.ContactsContract.CommonDataKinds.Nickname;
 import android.provider.ContactsContract.Data;
+import android.support.v4.util.LongSparseArray;
 
 /**
  * A helper class with many different static methods for calling database methods to extract user info.
@@ -570,6 +571,21 @@ public class CustomCursors {
 					(ContactsContract.CommonDataKinds.StructuredName.FAMILY_NAME));
 		}
 
+		if (cursor2 != null)
+			cursor2.close();
+
+		return cleanFirstAndLastName(selectedName, lastName);
+	}
+	
+	/**
+	 * Clean up a given and family name read from a StructuredName row. If there is no last name, but the
+	 * first name has a space in it, then the first name is split on the last space.
+	 * @param selectedName The given name, can be null
+	 * @param lastName The family name, can be null
+	 * @return The user's first and last name in a TwoString object
+	 */
+	static TwoStrings cleanFirstAndLastName(String selectedName, String lastName){
+		
 		// remove traling white
 		if (selectedName != null)
 			selectedName.trim();
@@ -592,9 +608,6 @@ public class CustomCursors {
 			}
 		}
 
-		if (cursor2 != null)
-			cursor2.close();
-
 		return new TwoStrings(selectedName, lastName);
 	}
 	
@@ -737,6 +750,7 @@ public class CustomCursors {
 	 * @param email The email address to search
 	 * @param isRequireBothIfNotNull if true, then both phone and email are required (if both are non-null / empty) and if false, then either/or is required.
 	 * @return A hashset of all the contact ids that match the phone and/or email
+	 * @see ContactLookupIndex ContactLookupIndex for matching many phone/email pairs without a query per lookup
 	 */
 	public static HashSet<Integer> getCursorFromPhoneAndEmail(Activity act, String phone, String email, boolean isRequireBothIfNotNull){
 
@@ -969,25 +983,7 @@ public class CustomCursors {
 
     				// add phone numbers and types
     				String number = cursor.getString(numberIndex);
-    				int typeInt = cursor.getInt(typeIndex);
-    				String type = "";
-    				switch (typeInt){
-    				case CommonDataKinds.Phone.TYPE_HOME: type = "Home"; break;
-    				case CommonDataKinds.Phone.TYPE_MOBILE: type = "Mobile"; break;
-    				case CommonDataKinds.Phone.TYPE_WORK_MOBILE: type = "Work Mobile"; break;
-    				case CommonDataKinds.Phone.TYPE_WORK: type = "Work"; break;
-    				case CommonDataKinds.Phone.TYPE_PAGER: type = "Pager"; break;
-    				case CommonDataKinds.Phone.TYPE_CUSTOM: {
-    					String label = cursor.getString(labelIndex);
-    					if (label == null)
-    						label = "Other";
-    					else if (label.equalsIgnoreCase("GrandCentral"))
-    						label = "Google Voice";
-    					type = label;
-    					break;
-    				}
-    				default: type = "Other"; break;
-    				}
+    				String type = getPhoneTypeString(cursor.getInt(typeIndex), cursor.getString(labelIndex));
     				if (number != null)
     					phoneNumberArray.add(new TwoStrings(com.tools.Tools.formatPhoneNumber(number), type));
     			}while (cursor.moveToNext());
@@ -1045,21 +1041,7 @@ public class CustomCursors {
 
     				// add email addresses
     				String email = cursor2.getString(emailIndex);
-    				int typeInt = cursor2.getInt(typeIndex2);
-    				String type = "";
-    				switch (typeInt){
-    				case CommonDataKinds.Email.TYPE_HOME: type = "Home"; break;
-    				case CommonDataKinds.Email.TYPE_MOBILE: type = "Mobile"; break;
-    				case CommonDataKinds.Email.TYPE_WORK: type = "Work"; break;
-    				case CommonDataKinds.Email.TYPE_CUSTOM: {
-    					String label = cursor2.getString(labelIndex2);
-    					if (label == null)
-    						label = "Other";
-    					type = label;
-    					break;
-    				}
-    				default: type = "Other"; break;
-    				}
+    				String type = getEmailTypeString(cursor2.getInt(typeIndex2), cursor2.getString(labelIndex2));
     				if (email != null)
     					emailAddressArray.add(new TwoStrings(email, type));
     			}while (cursor2.moveToNext());
@@ -1087,6 +1069,72 @@ public class CustomCursors {
     	return output;
 	}
 	
+	/**
+	 * Find a list of phone numbers, email addresses, and the name of every contact in contactIds. <br>
+	 * This is the bulk version of {@link #getContactPhoneArrayEmailArrayAndName(Context, long)}, and only
+	 * performs one query per {@link ContactDataBulkLoader#DEFAULT_BATCH_SIZE} contacts, instead of several per contact.
+	 * @param ctx A context to perform the search on
+	 * @param contactIds The contactIds to search on
+	 * @return A map from contactId to a ThreeObjects where mObject1 is a hashSet of TwoStrings of phone numbers and type, 
+	 * mObjec 2 is a hashSet of TwoStrings of email addresses and type,
+	 * and mObject3 is a TwoString with firstName and lastName. Contacts with no data will not be in the map.
+	 */
+	public static LongSparseArray<ThreeObjects<HashSet<TwoStrings>, HashSet<TwoStrings>, TwoStrings>> getContactPhoneArrayEmailArrayAndName(
+			Context ctx,
+			Collection<Long> contactIds){
+		return new ContactDataBulkLoader(ctx.getContentResolver()).load(contactIds);
+	}
+	
+	/**
+	 * Convert a phone type and label to a readable string, ie "Home", "Mobile", or the custom label
+	 * @param typeInt The CommonDataKinds.Phone.TYPE value
+	 * @param label The CommonDataKinds.Phone.LABEL value, only used for TYPE_CUSTOM
+	 * @return The readable type
+	 */
+	static String getPhoneTypeString(int typeInt, String label){
+		String type = "";
+		switch (typeInt){
+		case CommonDataKinds.Phone.TYPE_HOME: type = "Home"; break;
+		case CommonDataKinds.Phone.TYPE_MOBILE: type = "Mobile"; break;
+		case CommonDataKinds.Phone.TYPE_WORK_MOBILE: type = "Work Mobile"; break;
+		case CommonDataKinds.Phone.TYPE_WORK: type = "Work"; break;
+		case CommonDataKinds.Phone.TYPE_PAGER: type = "Pager"; break;
+		case CommonDataKinds.Phone.TYPE_CUSTOM: {
+			if (label == null)
+				label = "Other";
+			else if (label.equalsIgnoreCase("GrandCentral"))
+				label = "Google Voice";
+			type = label;
+			break;
+		}
+		default: type = "Other"; break;
+		}
+		return type;
+	}
+	
+	/**
+	 * Convert an email type and label to a readable string, ie "Home", "Work", or the custom label
+	 * @param typeInt The CommonDataKinds.Email.TYPE value
+	 * @param label The CommonDataKinds.Email.LABEL value, only used for TYPE_CUSTOM
+	 * @return The readable type
+	 */
+	static String getEmailTypeString(int typeInt, String label){
+		String type = "";
+		switch (typeInt){
+		case CommonDataKinds.Email.TYPE_HOME: type = "Home"; break;
+		case CommonDataKinds.Email.TYPE_MOBILE: type = "Mobile"; break;
+		case CommonDataKinds.Email.TYPE_WORK: type = "Work"; break;
+		case CommonDataKinds.Email.TYPE_CUSTOM: {
+			if (label == null)
+				label = "Other";
+			type = label;
+			break;
+		}
+		default: type = "Other"; break;
+		}
+		return type;
+	}
+	
 	/** 
 	 * Look up in the address book to try and find the user of phone, based on phone number and/or user account info
 	 * @return first and last name, email hashset, and phonenumber hashset.
@@ -1316,25 +1364,7 @@ public class CustomCursors {
     				
     				// add phone numbers and types
     				String number = cursor.getString(numberIndex);
-    				int typeInt = cursor.getInt(typeIndex);
-    				String type = "";
-    				switch (typeInt){
-    				case CommonDataKinds.Phone.TYPE_HOME: type = "Home"; break;
-    				case CommonDataKinds.Phone.TYPE_MOBILE: type = "Mobile"; break;
-    				case CommonDataKinds.Phone.TYPE_WORK_MOBILE: type = "Work Mobile"; break;
-    				case CommonDataKinds.Phone.TYPE_WORK: type = "Work"; break;
-    				case CommonDataKinds.Phone.TYPE_PAGER: type = "Pager"; break;
-    				case CommonDataKinds.Phone.TYPE_CUSTOM: {
-    					String label = cursor.getString(labelIndex);
-    					if (label == null)
-    						label = "Other";
-    					else if (label.equalsIgnoreCase("GrandCentral"))
-    						label = "Google Voice";
-    					type = label;
-    					break;
-    				}
-    				default: type = "Other"; break;
-    				}
+    				String type = getPhoneTypeString(cursor.getInt(typeIndex), cursor.getString(labelIndex));
     				if (number != null)
     					phoneNumberArray.add(new TwoStrings(com.tools.Tools.formatPhoneNumber(number), type));
     			}while (cursor.moveToNext());
@@ -1368,21 +1398,7 @@ public class CustomCursors {
     				
     				// add email addresses
     				String email = cursor2.getString(emailIndex);
-    				int typeInt = cursor2.getInt(typeIndex2);
-    				String type = "";
-    				switch (typeInt){
-    				case CommonDataKinds.Email.TYPE_HOME: type = "Home"; break;
-    				case CommonDataKinds.Email.TYPE_MOBILE: type = "Mobile"; break;
-    				case CommonDataKinds.Email.TYPE_WORK: type = "Work"; break;
-    				case CommonDataKinds.Email.TYPE_CUSTOM: {
-    					String label = cursor2.getString(labelIndex2);
-    					if (label == null)
-    						label = "Other";
-    					type = label;
-    					break;
-    				}
-    				default: type = "Other"; break;
-    				}
+    				String type = getEmailTypeString(cursor2.getInt(typeIndex2), cursor2.getString(labelIndex2));
     				if (email != null)
     					emailAddressArray.add(new TwoStrings(email, type));
     			}while (cursor2.moveToNext());
@@ -15,6 +15,7 @@ import android.hardware.SensorEventListener;
 
 import android.hardware.SensorManager;
 import android.location.Location;
+import android.os.SystemClock;
 import android.view.GestureDetector;
 import android.view.GestureDetector.SimpleOnGestureListener;
 import android.view.MotionEvent;
@@ -42,23 +43,50 @@ extends MyLocationOverlay{
 	private static final float 	MIN_SCALE_INCREASE 		= (float) 0.5; 		// only scales down for screen size by this amount
 	private static int[] 		DEFAULT_RGB 			= {100, 100, 255}; 	// default color of accuracy circle
 	private static double 		MIN_ANGLE_CHANGE_UPDATE = 5; 				// minimum angle change required before updating orientation
+	private static final float 	FILTER_ALPHA 			= 0.2f; 			// weight of a new sensor sample in the low-pass filter
+	private static final long 	FRAME_INTERVAL_MS 		= 16; 				// minimum time between sensor driven redraws
+	private static final long 	IDLE_TIMEOUT_MS 		= 3000; 			// time without a change before sensor slows down
+	private static final int 	SENSOR_RATE_ACTIVE 		= SensorManager.SENSOR_DELAY_UI; 	// sensor rate while orientation is changing
+	private static final int 	SENSOR_RATE_IDLE 		= SensorManager.SENSOR_DELAY_NORMAL; // sensor rate while orientation is steady
 
 	// class variables
 	private boolean 			mIsShowCompass 			= false; 			// should we show the compass
 	private boolean 			mIsUseDefaultBitmap 	= true; 			// should we use default location bitmap
 	private float 				mActualResizeRatio		= DEFAULT_RESIZE_RATIO;// The actual resize ratio to use, allow user to change
 	private MapController    	mMapController; 							// The controller for the map									
+	private MapView 			mMapView; 									// The map to redraw when orientation changes
 	private Bitmap           	mMarker; 									// The bitmap to show for user location
 	private Point            	mCurrentPoint        	= new Point(); 		// The current center of map
 	private GestureDetector  	mGestureDetector; 							// a detector for finding double taps
 	private SensorEventListener mSensorListener;							// listener for sensor callbacks
 	private SensorManager 		mSensorManager; 							// sensor manager for handling sensor callbacks
 	private boolean 			mIsSensorRegistered		= false; 			// boolean to track if listeners are registered or not	
-
-	// pitch roll and yaw
-	private float	 			mAzimuth; 									// keep track of last azimuth angle in degrees
-	private float 				mPitch; 									// keep track of last pitch angle in degrees
-	private float 				mRoll;										// keep track of last roll angle in degrees
+	private int 				mSensorRate 			= SENSOR_RATE_IDLE; // the rate the sensor is currently registered at
+
+	// filtered pitch roll and yaw
+	private volatile boolean 	mHasSensorSample 		= false; 			// have we received any orientation yet
+	private volatile float 		mAzimuth; 									// keep track of filtered azimuth angle in degrees
+	private float 				mPitch; 									// keep track of filtered pitch angle in degrees
+	private float 				mRoll;										// keep track of filtered roll angle in degrees
+
+	// the angles at the last requested redraw
+	private float 				mDrawnAzimuth; 								// azimuth at last redraw
+	private float 				mDrawnPitch; 								// pitch at last redraw
+	private float 				mDrawnRoll; 								// roll at last redraw
+	private long 				mLastChangeTime; 							// time of last change larger than MIN_ANGLE_CHANGE_UPDATE
+
+	// redraw coalescing
+	private boolean 			mIsRedrawPending 		= false; 			// is there already a redraw posted
+	private long 				mLastRedrawTime; 							// time the last redraw was run
+	private final Runnable 		mRedrawRunnable 		= new Runnable() { 	// invalidate the map once per posting
+		@Override
+		public void run() {
+			mIsRedrawPending = false;
+			mLastRedrawTime = SystemClock.uptimeMillis();
+			if (mMapView != null)
+				mMapView.invalidate();
+		}
+	};
 
 	public enum LOCATION_CENTERING { 										// enum for various types of centering
 		FREE_FLOAT, STAY_ON_SCREEN, STAY_IN_CENTER
@@ -70,6 +98,14 @@ extends MyLocationOverlay{
 	private int              	mWidth; 									// The width of map
 
 	protected final Paint 		mCirclePaint 			= new Paint();		// the object for paingint the circle around the user position.
+	private final Paint 		mMarkerPaint 			= new Paint(Paint.FILTER_BITMAP_FLAG); // smooths the rotated marker
+	private final Matrix 		mMarkerMatrix 			= new Matrix(); 	// reused to rotate, scale and place the marker
+
+	// scale ratio cached for the last canvas size
+	private int 				mScaleCanvasWidth 		= -1; 				// canvas width the scale ratio was computed for
+	private int 				mScaleCanvasHeight 		= -1; 				// canvas height the scale ratio was computed for
+	private int 				mScaleCanvasDensity 	= -1; 				// canvas density the scale ratio was computed for
+	private float 				mScaleRatio; 								// the cached scale ratio
 
 	/**
 	 * Show the current location with an arrow pointing towards your orientation. Overrides MyLocationOverlay
@@ -93,6 +129,7 @@ extends MyLocationOverlay{
 
 		// grab the controller
 		this.mMapController = mapView.getController();
+		this.mMapView = mapView;
 
 		// grab the marker to use, or use default if none input
 		if (drawableArrow == -1){
@@ -148,21 +185,45 @@ extends MyLocationOverlay{
 						float azimuthNew = se.values[0];
 						float pitchNew = se.values[1]; 
 						float rollNew = se.values[2];
-
-						// calculate change in angles	
-						double change = 
-							Math.sqrt((azimuthNew - mAzimuth)*(azimuthNew - mAzimuth) + 
-									(pitchNew - mPitch)*(pitchNew - mPitch) + 
-									(rollNew - mRoll)*(rollNew - mRoll));
-
-						// update angles
-						mAzimuth = azimuthNew;
-						mRoll = rollNew;
-						mPitch = pitchNew;
-
-						// only update graph if we have changed by a minimum threshold
-						if (change > MIN_ANGLE_CHANGE_UPDATE)
-							onLocationChanged(getLastFix());
+						long now = SystemClock.uptimeMillis();
+
+						// low pass filter, going the short way around the circle
+						if (!mHasSensorSample){
+							mAzimuth = azimuthNew;
+							mPitch = pitchNew;
+							mRoll = rollNew;
+							mDrawnAzimuth = azimuthNew;
+							mDrawnPitch = pitchNew;
+							mDrawnRoll = rollNew;
+							mLastChangeTime = now;
+							mHasSensorSample = true;
+							requestRedraw();
+							return;
+						}
+						mAzimuth = wrapAngle(mAzimuth + FILTER_ALPHA*wrapAngle(azimuthNew - mAzimuth));
+						if (mAzimuth < 0)
+							mAzimuth += 360;
+						mPitch = wrapAngle(mPitch + FILTER_ALPHA*wrapAngle(pitchNew - mPitch));
+						mRoll = wrapAngle(mRoll + FILTER_ALPHA*wrapAngle(rollNew - mRoll));
+
+						// calculate change in angles since the last redraw
+						float dAzimuth = wrapAngle(mAzimuth - mDrawnAzimuth);
+						float dPitch = wrapAngle(mPitch - mDrawnPitch);
+						float dRoll = wrapAngle(mRoll - mDrawnRoll);
+						double change = Math.sqrt(dAzimuth*dAzimuth + dPitch*dPitch + dRoll*dRoll);
+
+						// only redraw if we have changed by a minimum threshold
+						if (change > MIN_ANGLE_CHANGE_UPDATE){
+							mDrawnAzimuth = mAzimuth;
+							mDrawnPitch = mPitch;
+							mDrawnRoll = mRoll;
+							mLastChangeTime = now;
+							setSensorRate(SENSOR_RATE_ACTIVE);
+							requestRedraw();
+
+							// slow down when nothing is changing
+						}else if (now - mLastChangeTime > IDLE_TIMEOUT_MS)
+							setSensorRate(SENSOR_RATE_IDLE);
 					}
 				}
 
@@ -185,9 +246,10 @@ extends MyLocationOverlay{
 
 			// only register if not already done
 			if (mIsSensorRegistered == false){
+				mSensorRate = SENSOR_RATE_IDLE;
 				mSensorManager.registerListener( mSensorListener, 
 						mSensorManager.getDefaultSensor(Sensor.TYPE_ORIENTATION), 
-						SensorManager.SENSOR_DELAY_NORMAL);
+						mSensorRate);
 				mIsSensorRegistered = true;
 			}
 
@@ -208,6 +270,53 @@ extends MyLocationOverlay{
 
 		// they've been unregistered
 		mIsSensorRegistered = false;
+		mHasSensorSample = false;
+		if (mMapView != null)
+			mMapView.removeCallbacks(mRedrawRunnable);
+		mIsRedrawPending = false;
+	}
+
+	/**
+	 * Re-register the sensor at a new rate, if it is registered and the rate is different
+	 * @param rate One of the SensorManager.SENSOR_DELAY_* values
+	 */
+	private void setSensorRate(int rate){
+		if (!mIsSensorRegistered || mSensorRate == rate || mSensorManager == null || mSensorListener == null)
+			return;
+		mSensorManager.unregisterListener(mSensorListener);
+		mSensorManager.registerListener(mSensorListener, 
+				mSensorManager.getDefaultSensor(Sensor.TYPE_ORIENTATION), 
+				rate);
+		mSensorRate = rate;
+	}
+
+	/**
+	 * Ask the map to redraw. Only one redraw is ever pending, and they are spaced at least FRAME_INTERVAL_MS
+	 * apart, so a burst of sensor events causes a single invalidate per frame.
+	 */
+	private void requestRedraw(){
+		if (mIsRedrawPending || mMapView == null)
+			return;
+		mIsRedrawPending = true;
+		long delay = mLastRedrawTime + FRAME_INTERVAL_MS - SystemClock.uptimeMillis();
+		if (delay > 0)
+			mMapView.postDelayed(mRedrawRunnable, delay);
+		else
+			mMapView.post(mRedrawRunnable);
+	}
+
+	/**
+	 * Wrap an angle in degrees to [-180, 180)
+	 * @param angle
+	 * @return
+	 */
+	private static float wrapAngle(float angle){
+		angle %= 360;
+		if (angle >= 180)
+			angle -= 360;
+		else if (angle < -180)
+			angle += 360;
+		return angle;
 	}
 
 	@Override
@@ -254,11 +363,9 @@ extends MyLocationOverlay{
 			this.mWidth = mapView.getWidth();
 		}
 
-		// grab the custom bitmap
-		Bitmap rotatedMarker = getRotatedMarker(canvas);  
-
-		// null marker, then use default
-		if (rotatedMarker == null){
+		// no orientation, then use default. Prefer our filtered azimuth
+		float angle = mHasSensorSample ? mAzimuth : getOrientation();
+		if (Float.isNaN(angle) || mMarker == null){
 			super.drawMyLocation(canvas, mapView, lastFix, myLocation, when);
 			return;
 		}
@@ -273,10 +380,7 @@ extends MyLocationOverlay{
 		canvas.drawCircle(mCurrentPoint.x, mCurrentPoint.y, radius, this.mCirclePaint);
 
 		// paint the arrow
-		canvas.drawBitmap(rotatedMarker, 
-				mCurrentPoint.x - (float)getScaleRatio(canvas)*rotatedMarker.getWidth()/2, 
-				mCurrentPoint.y - (float)getScaleRatio(canvas)*rotatedMarker.getHeight()/2, 
-				null);
+		drawRotatedMarker(canvas, angle);
 	}
 
 	@Override
@@ -337,32 +441,19 @@ extends MyLocationOverlay{
 	}
 
 	/**
-	 * Get the bitmap of the rotated arrow according to orientation
-	 * @param inputCanvas
-	 * @return
+	 * Draw the arrow rotated to the orientation and centered on mCurrentPoint. The rotation, scale and
+	 * position are all in one reused matrix, so no intermediate bitmap is needed and nothing is allocated.
+	 * @param canvas The canvas to draw on
+	 * @param angle The orientation in degrees
 	 */
-	private Bitmap getRotatedMarker(Canvas inputCanvas){
-		float angle = getOrientation();
-		if (angle == Float.NaN)
-			return null;
-
-		// Create blank bitmap of equal size
-		Bitmap rotatedMarker = mMarker.copy(Bitmap.Config.ARGB_8888, true);
-		rotatedMarker.eraseColor(0x00000000);
-
-		// Create canvas
-		Canvas canvas = new Canvas(rotatedMarker);
-
-		// Create rotation matrix
-		Matrix rotateMatrix = new Matrix();
-		rotateMatrix.setRotate(angle, canvas.getWidth()/2, canvas.getHeight()/2);
-		rotateMatrix.postScale((float)getScaleRatio(inputCanvas), (float)getScaleRatio(inputCanvas));
-
-		// Draw bitmap onto canvas using matrix
-		canvas.drawBitmap(mMarker, rotateMatrix, null);
-
-		return rotatedMarker;
-
+	private void drawRotatedMarker(Canvas canvas, float angle){
+		float scale = getScaleRatio(canvas);
+		float width = mMarker.getWidth();
+		float height = mMarker.getHeight();
+		mMarkerMatrix.setRotate(angle, width/2, height/2);
+		mMarkerMatrix.postScale(scale, scale);
+		mMarkerMatrix.postTranslate(mCurrentPoint.x - scale*width/2, mCurrentPoint.y - scale*height/2);
+		canvas.drawBitmap(mMarker, mMarkerMatrix, mMarkerPaint);
 	}
 
 	@Override
@@ -376,7 +467,7 @@ extends MyLocationOverlay{
 
 	/**
 	 * defaults to being 7.0% of s screen that is 3.33x2, and scales up or down accordingly
-	 * However maxes out at 3x the size and 0.5 the size
+	 * However maxes out at 3x the size and 0.5 the size. Only recomputed when the canvas size changes.
 	 * @return
 	 */
 	private float getScaleRatio(Canvas canvas){
@@ -386,6 +477,10 @@ extends MyLocationOverlay{
 		int width = canvas.getWidth();
 		int height = canvas.getHeight();
 
+		// same canvas as last time
+		if (width == mScaleCanvasWidth && height == mScaleCanvasHeight && density == mScaleCanvasDensity)
+			return mScaleRatio;
+
 		// the diagonal length of canvas in pixels and physical size
 		float diagonal = (float) Math.sqrt((float)(width*width + height*height));
 		float physicalSize = diagonal/density;
@@ -398,7 +493,11 @@ extends MyLocationOverlay{
 			scale = MIN_SCALE_INCREASE;
 
 		// The result
-		return scale*mActualResizeRatio;
+		mScaleRatio = scale*mActualResizeRatio;
+		mScaleCanvasWidth = width;
+		mScaleCanvasHeight = height;
+		mScaleCanvasDensity = density;
+		return mScaleRatio;
 	}
 
 	/**
@@ -428,5 +527,6 @@ extends MyLocationOverlay{
 	 */
 	public void setResizeRatio(float ratio){
 		mActualResizeRatio = ratio;
+		mScaleCanvasWidth = -1;
 	}
 }
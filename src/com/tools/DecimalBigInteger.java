@@ -0,0 +1,410 @@
+package com.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Immutable non-negative integer of any size, used by the string math in {@link MathTools}. <br>
+ * The value is stored as int[] limbs in base 10^9, least significant first, so converting to and from a decimal
+ * string is linear. Multiplication is schoolbook for small numbers and Karatsuba above {@link #KARATSUBA_THRESHOLD} limbs,
+ * and the factorial is computed as a balanced product tree so the large multiplies are between similar sized numbers.
+ * @author Kyle
+ *
+ */
+public final class DecimalBigInteger {
+
+	// constants
+	/** Number of limbs in the smaller number above which Karatsuba multiplication is used */
+	public static final int KARATSUBA_THRESHOLD = 48;
+	private static final int BASE = 1000000000; 					// value of one limb
+	private static final int DIGITS_PER_LIMB = 9; 					// decimal digits in one limb
+	private static final int FACTORIAL_LEAF = 16; 					// multiply this many numbers directly in the product tree
+	/** zero */
+	public static final DecimalBigInteger ZERO = new DecimalBigInteger(new int[0]);
+	/** one */
+	public static final DecimalBigInteger ONE = new DecimalBigInteger(new int[] {1});
+
+	// private variables
+	private final int[] limbs; 										// base 10^9 limbs, least significant first, no leading zero limbs
+
+	/**
+	 * Wrap the limbs, they must already be trimmed
+	 */
+	private DecimalBigInteger(int[] limbs){
+		this.limbs = limbs;
+	}
+
+	/**
+	 * Create from a non-negative long
+	 * @param value The value, must be >= 0
+	 * @return The new number
+	 */
+	public static DecimalBigInteger valueOf(long value){
+		if (value < 0)
+			throw new IllegalArgumentException("value must be >= 0");
+		if (value == 0)
+			return ZERO;
+		int[] out = new int[3];
+		int n = 0;
+		while (value > 0){
+			out[n++] = (int) (value % BASE);
+			value /= BASE;
+		}
+		return new DecimalBigInteger(Arrays.copyOf(out, n));
+	}
+
+	/**
+	 * Parse a string of decimal digits. Leading zeros are allowed.
+	 * @param digits The string, must only contain 0-9 and be non-empty
+	 * @return The new number
+	 * @throws NumberFormatException if the string is empty or contains a non digit
+	 */
+	public static DecimalBigInteger parse(String digits){
+		int len = digits.length();
+		if (len == 0)
+			throw new NumberFormatException("empty string");
+
+		int[] out = new int[(len + DIGITS_PER_LIMB - 1)/DIGITS_PER_LIMB];
+		int n = 0;
+
+		// read 9 digits at a time from the right
+		for (int end = len; end > 0; end -= DIGITS_PER_LIMB){
+			int start = Math.max(0, end - DIGITS_PER_LIMB);
+			int value = 0;
+			for (int i = start; i < end; i++){
+				int c = digits.charAt(i) - '0';
+				if (c < 0 || c > 9)
+					throw new NumberFormatException("not a digit string: " + digits);
+				value = value*10 + c;
+			}
+			out[n++] = value;
+		}
+		return new DecimalBigInteger(trim(out, n));
+	}
+
+	/**
+	 * this + other
+	 * @param other the number to add
+	 * @return the sum
+	 */
+	public DecimalBigInteger add(DecimalBigInteger other){
+		return new DecimalBigInteger(add(limbs, other.limbs));
+	}
+
+	/**
+	 * this * other
+	 * @param other The number to multiply
+	 * @return the product
+	 */
+	public DecimalBigInteger multiply(DecimalBigInteger other){
+		return new DecimalBigInteger(multiply(limbs, other.limbs));
+	}
+
+	/**
+	 * Calculate n! on the calling thread
+	 * @param n The number, must be >= 0
+	 * @return n!
+	 */
+	public static DecimalBigInteger factorial(int n){
+		return factorial(n, null, 1);
+	}
+
+	/**
+	 * Calculate n!, with the range 2..n split into nTasks pieces that are each multiplied out on the executor.
+	 * The pieces are then multiplied together on the calling thread.
+	 * @param n The number, must be >= 0
+	 * @param executor The executor to use, if null, all work is done on the calling thread
+	 * @param nTasks The number of pieces to split into, usually the number of cores
+	 * @return n!
+	 */
+	public static DecimalBigInteger factorial(int n, ExecutorService executor, int nTasks){
+		if (n < 0)
+			throw new IllegalArgumentException("n must be >= 0");
+		if (n < 2)
+			return ONE;
+
+		// single thread
+		if (executor == null || nTasks <= 1 || n < 2*FACTORIAL_LEAF*nTasks)
+			return new DecimalBigInteger(product(2, n));
+
+		// split 2..n into chunks of similar total size. Later numbers are bigger, but only logarithmically, so equal widths are close enough
+		ArrayList<Future<int[]>> futures = new ArrayList<Future<int[]>>(nTasks);
+		long width = (n - 1L)/nTasks;
+		for (int i = 0; i < nTasks; i++){
+			final int lo = (int) (2 + i*width);
+			final int hi = (i == nTasks-1) ? n : (int) (2 + (i+1)*width - 1);
+			futures.add(executor.submit(new Callable<int[]>() {
+				@Override
+				public int[] call() throws Exception {
+					return product(lo, hi);
+				}
+			}));
+		}
+
+		// grab the results
+		ArrayList<int[]> parts = new ArrayList<int[]>(nTasks);
+		for (Future<int[]> future : futures){
+			try{
+				parts.add(future.get());
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}catch(ExecutionException e){
+				throw new RuntimeException(e.getCause());
+			}
+		}
+
+		// multiply neighbors together pairwise, so it stays balanced
+		while (parts.size() > 1){
+			ArrayList<int[]> next = new ArrayList<int[]>((parts.size()+1)/2);
+			for (int i = 0; i < parts.size(); i += 2){
+				if (i+1 < parts.size())
+					next.add(multiply(parts.get(i), parts.get(i+1)));
+				else
+					next.add(parts.get(i));
+			}
+			parts = next;
+		}
+		return new DecimalBigInteger(parts.get(0));
+	}
+
+	/**
+	 * The decimal string, with no leading zeros
+	 */
+	@Override
+	public String toString(){
+		if (limbs.length == 0)
+			return "0";
+
+		char[] out = new char[limbs.length*DIGITS_PER_LIMB];
+		int pos = out.length;
+
+		// every limb but the top one is zero padded to 9 digits
+		for (int i = 0; i < limbs.length - 1; i++){
+			int value = limbs[i];
+			for (int d = 0; d < DIGITS_PER_LIMB; d++){
+				out[--pos] = (char) ('0' + value % 10);
+				value /= 10;
+			}
+		}
+		int value = limbs[limbs.length - 1];
+		while (value > 0){
+			out[--pos] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return new String(out, pos, out.length - pos);
+	}
+
+	@Override
+	public boolean equals(Object o){
+		if (!(o instanceof DecimalBigInteger))
+			return false;
+		return Arrays.equals(limbs, ((DecimalBigInteger) o).limbs);
+	}
+
+	@Override
+	public int hashCode(){
+		return Arrays.hashCode(limbs);
+	}
+
+	/**
+	 * Product of all numbers lo..hi, as a product tree
+	 */
+	private static int[] product(int lo, int hi){
+		if (hi - lo < FACTORIAL_LEAF){
+			int[] out = new int[] {1};
+			for (long i = lo; i <= hi; i++)
+				out = multiplySmall(out, (int) i);
+			return out;
+		}
+		int mid = (int) (((long) lo + hi) >>> 1);
+		return multiply(product(lo, mid), product(mid+1, hi));
+	}
+
+	/**
+	 * a * m, where m >= 0
+	 */
+	private static int[] multiplySmall(int[] a, int m){
+		if (a.length == 0 || m == 0)
+			return new int[0];
+		int[] out = new int[a.length + 2];
+		long carry = 0;
+		for (int i = 0; i < a.length; i++){
+			long value = (long) a[i]*m + carry;
+			out[i] = (int) (value % BASE);
+			carry = value / BASE;
+		}
+		int n = a.length;
+		while (carry > 0){
+			out[n++] = (int) (carry % BASE);
+			carry /= BASE;
+		}
+		return trim(out, n);
+	}
+
+	/**
+	 * a + b
+	 */
+	private static int[] add(int[] a, int[] b){
+		if (a.length < b.length){
+			int[] tmp = a;
+			a = b;
+			b = tmp;
+		}
+		int[] out = new int[a.length + 1];
+		int carry = 0;
+		for (int i = 0; i < a.length; i++){
+			int value = a[i] + carry + (i < b.length ? b[i] : 0);
+			if (value >= BASE){
+				value -= BASE;
+				carry = 1;
+			}else
+				carry = 0;
+			out[i] = value;
+		}
+		out[a.length] = carry;
+		return trim(out, out.length);
+	}
+
+	/**
+	 * a -= b, where a >= b. a keeps its length
+	 */
+	private static void subtractInPlace(int[] a, int[] b){
+		int borrow = 0;
+		for (int i = 0; i < a.length; i++){
+			int value = a[i] - borrow - (i < b.length ? b[i] : 0);
+			if (value < 0){
+				value += BASE;
+				borrow = 1;
+			}else
+				borrow = 0;
+			a[i] = value;
+			if (borrow == 0 && i >= b.length)
+				break;
+		}
+	}
+
+	/**
+	 * out += b * BASE^shift. out must be long enough to hold the result
+	 */
+	private static void addShiftedInPlace(int[] out, int[] b, int shift){
+		int carry = 0;
+		int i = 0;
+		for (; i < b.length; i++){
+			int value = out[i + shift] + b[i] + carry;
+			if (value >= BASE){
+				value -= BASE;
+				carry = 1;
+			}else
+				carry = 0;
+			out[i + shift] = value;
+		}
+		for (int k = i + shift; carry != 0 && k < out.length; k++){
+			int value = out[k] + carry;
+			if (value >= BASE){
+				value -= BASE;
+				carry = 1;
+			}else
+				carry = 0;
+			out[k] = value;
+		}
+	}
+
+	/**
+	 * a * b, choosing schoolbook or Karatsuba
+	 */
+	private static int[] multiply(int[] a, int[] b){
+		if (a.length == 0 || b.length == 0)
+			return new int[0];
+		if (Math.min(a.length, b.length) < KARATSUBA_THRESHOLD)
+			return multiplySchoolbook(a, b);
+		return multiplyKaratsuba(a, b);
+	}
+
+	/**
+	 * a * b the elementary school way, one limb at a time
+	 */
+	private static int[] multiplySchoolbook(int[] a, int[] b){
+		int[] out = new int[a.length + b.length];
+		for (int i = 0; i < a.length; i++){
+			long ai = a[i];
+			if (ai == 0)
+				continue;
+			long carry = 0;
+			for (int j = 0; j < b.length; j++){
+				long value = out[i + j] + ai*b[j] + carry;
+				out[i + j] = (int) (value % BASE);
+				carry = value / BASE;
+			}
+			int k = i + b.length;
+			while (carry != 0){
+				long value = out[k] + carry;
+				out[k] = (int) (value % BASE);
+				carry = value / BASE;
+				k++;
+			}
+		}
+		return trim(out, out.length);
+	}
+
+	/**
+	 * a * b by Karatsuba. a = a1*B^h + a0, b = b1*B^h + b0, and then
+	 * a*b = z2*B^2h + (z1 - z2 - z0)*B^h + z0, where z1 = (a0+a1)(b0+b1)
+	 */
+	private static int[] multiplyKaratsuba(int[] a, int[] b){
+		int half = Math.max(a.length, b.length)/2;
+
+		int[] a0 = lowPart(a, half);
+		int[] a1 = highPart(a, half);
+		int[] b0 = lowPart(b, half);
+		int[] b1 = highPart(b, half);
+
+		int[] z0 = multiply(a0, b0);
+		int[] z2 = multiply(a1, b1);
+		int[] z1 = multiply(add(a0, a1), add(b0, b1));
+
+		// z1 - z2 - z0 is never negative. Pad so the subtraction can work in place
+		int[] middle = Arrays.copyOf(z1, Math.max(z1.length, Math.max(z0.length, z2.length)));
+		subtractInPlace(middle, z0);
+		subtractInPlace(middle, z2);
+
+		int[] out = new int[a.length + b.length + 1];
+		addShiftedInPlace(out, z0, 0);
+		addShiftedInPlace(out, trim(middle, middle.length), half);
+		addShiftedInPlace(out, z2, 2*half);
+		return trim(out, out.length);
+	}
+
+	/**
+	 * The lowest n limbs of a, trimmed
+	 */
+	private static int[] lowPart(int[] a, int n){
+		if (a.length <= n)
+			return a;
+		return trim(Arrays.copyOf(a, n), n);
+	}
+
+	/**
+	 * The limbs of a above n
+	 */
+	private static int[] highPart(int[] a, int n){
+		if (a.length <= n)
+			return new int[0];
+		return Arrays.copyOfRange(a, n, a.length);
+	}
+
+	/**
+	 * Drop the zero limbs at the top, looking at only the first n limbs
+	 */
+	private static int[] trim(int[] a, int n){
+		while (n > 0 && a[n-1] == 0)
+			n--;
+		if (n == a.length)
+			return a;
+		return Arrays.copyOf(a, n);
+	}
+}
@@ -9,6 +9,7 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
 
 import android.app.ProgressDialog;
 import android.content.DialogInterface;
@@ -210,17 +211,23 @@ public class DownloadFile {
 		@Override
 		protected Boolean doInBackground(Void... params) {
 			//boolean result = downloadFileHelper(saveFilePath);
-			boolean result = downloadFile(saveFilePath, new PublishFileProgress() {
-				
-				@Override
-				public boolean shouldWeCancel() {
-					// check if we should cancel
-					return (cancelTask || isCancelled());
-				}
-				
+			// run the download on the shared network lane, so it counts against its budget
+			boolean result = TaskScheduler.getInstance().runAndWait(TaskScheduler.Lane.NETWORK, new Callable<Boolean>() {
 				@Override
-				public void onProgress(int percentComplete) {
-					publishProgress(percentComplete);	
+				public Boolean call() {
+					return downloadFile(saveFilePath, new PublishFileProgress() {
+
+						@Override
+						public boolean shouldWeCancel() {
+							// check if we should cancel
+							return (cancelTask || isCancelled());
+						}
+
+						@Override
+						public void onProgress(int percentComplete) {
+							publishProgress(percentComplete);	
+						}
+					});
 				}
 			});
 			
@@ -0,0 +1,656 @@
+package com.tools;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import android.media.ExifInterface;
+import android.support.v4.util.LruCache;
+
+/**
+ * Minimal reader and writer of the EXIF orientation tag in a JPEG header. <br>
+ * {@link ExifInterface} parses all the metadata, and saveAttributes rewrites the whole file. These methods only walk the JPEG
+ * markers up to the APP1 segment and the first IFD of its TIFF header, so they can change the orientation while the JPEG
+ * is being written the first time. <br>
+ * {@link #readInfo(String)} reads the orientation, dimensions and date of a file from its first few KB, and caches the
+ * result by path, size and modified time, so scanning a gallery again does not parse unchanged files.
+ * @author Kyle
+ *
+ */
+public class ExifHeader {
+
+	// constants
+	private static final int MARKER_SOI = 0xD8; 				// start of image
+	private static final int MARKER_SOS = 0xDA; 				// start of scan, image data follows
+	private static final int MARKER_EOI = 0xD9; 				// end of image
+	private static final int MARKER_APP1 = 0xE1; 				// EXIF lives here
+	private static final int TAG_ORIENTATION = 0x0112; 			// orientation tag in IFD0
+	private static final int TAG_DATE_TIME = 0x0132; 			// file change date in IFD0
+	private static final int TAG_EXIF_IFD = 0x8769; 			// pointer to the Exif IFD in IFD0
+	private static final int TAG_DATE_TIME_ORIGINAL = 0x9003; 	// capture date in the Exif IFD
+	private static final int TAG_PIXEL_X_DIMENSION = 0xA002; 	// image width in the Exif IFD
+	private static final int TAG_PIXEL_Y_DIMENSION = 0xA003; 	// image height in the Exif IFD
+	private static final int TYPE_ASCII = 2; 					// null terminated string TIFF type
+	private static final int TYPE_SHORT = 3; 					// unsigned 16 bit TIFF type
+	private static final int TYPE_LONG = 4; 					// unsigned 32 bit TIFF type
+	private static final int HEAD_READ_SIZE = 8192; 			// bytes read up front, enough for the markers and IFDs of most files
+	private static final int MAX_SEGMENT_SIZE = 65535; 			// a JPEG segment can't be longer
+	private static final int MAX_PATCH_READ_SIZE = 4*MAX_SEGMENT_SIZE; // bytes searched for the orientation when patching, room for a few app segments
+	private static final int INFO_CACHE_SIZE = 1024; 			// files remembered by readInfo
+
+	// private variables
+	private static final LruCache<String, CachedInfo> infoCache =
+		new LruCache<String, CachedInfo>(INFO_CACHE_SIZE); 		// readInfo results by path
+
+	/**
+	 * Location of the orientation value inside a JPEG
+	 */
+	public static class OrientationLocation{
+		/** offset of the APP1 EXIF segment marker, -1 if there is none */
+		public int app1Offset = -1;
+		/** offset of the 2 byte orientation value, -1 if there is no orientation tag */
+		public int valueOffset = -1;
+		/** true if the TIFF header is little endian (II), false if big endian (MM) */
+		public boolean isLittleEndian;
+		/** the current orientation value, or ExifInterface.ORIENTATION_UNDEFINED if there is none */
+		public int orientation = ExifInterface.ORIENTATION_UNDEFINED;
+	}
+
+	/**
+	 * The header values read by {@link #readInfo(String)}
+	 */
+	public static class ExifInfo{
+		/** the orientation, or ExifInterface.ORIENTATION_UNDEFINED if there is none */
+		public final int orientation;
+		/** the stored width in pixels, before applying the orientation, -1 if unknown */
+		public final int width;
+		/** the stored height in pixels, before applying the orientation, -1 if unknown */
+		public final int height;
+		/** the capture date, or the file date if there is none, as "yyyy:MM:dd HH:mm:ss". null if unknown */
+		public final String dateTime;
+
+		private ExifInfo(int orientation, int width, int height, String dateTime){
+			this.orientation = orientation;
+			this.width = width;
+			this.height = height;
+			this.dateTime = dateTime;
+		}
+	}
+
+	/**
+	 * A readInfo result and the file state it was read from
+	 */
+	private static class CachedInfo{
+		final long size;
+		final long modified;
+		final ExifInfo info;
+
+		CachedInfo(long size, long modified, ExifInfo info){
+			this.size = size;
+			this.modified = modified;
+			this.info = info;
+		}
+	}
+
+	/**
+	 * Read the orientation, dimensions and date of a JPEG file. Only the JPEG markers up to the first frame and the start of the
+	 * EXIF segment are read, usually a few KB, instead of all the metadata like {@link ExifInterface}. <br>
+	 * Results are cached by path, size and modified time, so calling again on an unchanged file does not read it.
+	 * Files that are not JPEGs, or have no EXIF, return an info with the unknown values.
+	 * @param path The path of the file
+	 * @return The info, never null
+	 * @throws IOException If the file can't be found or read
+	 */
+	public static ExifInfo readInfo(String path)
+	throws IOException{
+		File file = new File(path);
+		long size = file.length();
+		long modified = file.lastModified();
+		if (modified == 0 && !file.exists())
+			throw new FileNotFoundException(path);
+
+		CachedInfo cached = infoCache.get(path);
+		if (cached != null && cached.size == size && cached.modified == modified)
+			return cached.info;
+
+		RandomAccessFile f = new RandomAccessFile(file, "r");
+		ExifInfo info;
+		try{
+			info = readInfo(f);
+		}finally{
+			f.close();
+		}
+		infoCache.put(path, new CachedInfo(size, modified, info));
+		return info;
+	}
+
+	/**
+	 * Forget what readInfo read. Not needed when files change, as changed files are read again anyway.
+	 */
+	public static void clearInfoCache(){
+		infoCache.evictAll();
+	}
+
+	/**
+	 * Forget what readInfo read for this file. Used after changing a file in a way that may keep its size and modified time.
+	 */
+	static void forgetInfo(String path){
+		infoCache.remove(path);
+	}
+
+	/**
+	 * Change the orientation of a JPEG file in place, by overwriting the 2 bytes of the existing tag. <br>
+	 * Nothing else in the file is read past the header or written, unlike {@link ExifInterface#saveAttributes()} which
+	 * rewrites the whole file. If the file has no orientation tag, it is not changed and false is returned, so the caller
+	 * can fall back to ExifInterface.
+	 * @param path The path of the file
+	 * @param orientation The orientation, for example ExifInterface.ORIENTATION_ROTATE_90
+	 * @return true if the orientation was written, false if the file has no orientation tag
+	 * @throws IOException If the file can't be read or written
+	 */
+	public static boolean patchOrientation(String path, int orientation)
+	throws IOException{
+		RandomAccessFile f = new RandomAccessFile(path, "rw");
+		try{
+			long length = f.length();
+			byte[] head = new byte[(int) Math.min(HEAD_READ_SIZE, length)];
+			f.readFully(head);
+			OrientationLocation location = findOrientation(head, head.length);
+
+			// the exif is further in, or its IFD runs past what we read
+			if (location.valueOffset < 0 && head.length < length){
+				head = new byte[(int) Math.min(MAX_PATCH_READ_SIZE, length)];
+				f.seek(0);
+				f.readFully(head);
+				location = findOrientation(head, head.length);
+			}
+			if (location.valueOffset < 0)
+				return false;
+			if (location.orientation == orientation)
+				return true;
+
+			byte[] value = new byte[2];
+			writeShort(value, 0, orientation, location.isLittleEndian);
+			f.seek(location.valueOffset);
+			f.write(value);
+		}finally{
+			f.close();
+		}
+
+		// the size is the same, and the modified time may be too
+		forgetInfo(path);
+		return true;
+	}
+
+	/**
+	 * Walk the JPEG markers of an open file, reading the EXIF segment and the frame size
+	 */
+	private static ExifInfo readInfo(RandomAccessFile f)
+	throws IOException{
+		InfoBuilder builder = new InfoBuilder();
+
+		// the first few KB usually hold everything we need
+		byte[] head = new byte[(int) Math.min(HEAD_READ_SIZE, f.length())];
+		f.readFully(head);
+		if (head.length < 4 || (head[0] & 0xFF) != 0xFF || (head[1] & 0xFF) != MARKER_SOI)
+			return builder.build();
+
+		long length = f.length();
+		long pos = 2;
+		byte[] marker = new byte[4];
+		boolean isExifRead = false;
+		while (pos + 4 <= length){
+			readAt(f, pos, marker, 4, head);
+			if ((marker[0] & 0xFF) != 0xFF)
+				break;
+			int type = marker[1] & 0xFF;
+
+			// fill bytes
+			if (type == 0xFF){
+				pos++;
+				continue;
+			}
+			if (type == MARKER_SOS || type == MARKER_EOI)
+				break;
+			int segmentLength = readShort(marker, 2, false);
+			if (segmentLength < 2)
+				break;
+
+			// the frame header has the real size, and comes after all the app segments
+			if (isStartOfFrame(type)){
+				if (segmentLength >= 7 && pos + 9 <= length){
+					byte[] frame = new byte[5];
+					readAt(f, pos + 4, frame, 5, head);
+					builder.height = readShort(frame, 1, false);
+					builder.width = readShort(frame, 3, false);
+				}
+				break;
+			}
+
+			// APP1 with the Exif header. Read what is in head first, the whole segment only if the IFDs run past it.
+			if (type == MARKER_APP1 && !isExifRead && segmentLength >= 8 && pos + 10 <= length){
+				int available = (int) Math.max(0, Math.min(segmentLength - 2, head.length - pos - 4));
+				byte[] segment = new byte[Math.max(6, available)];
+				readAt(f, pos + 4, segment, segment.length, head);
+				if (segment[0] == 'E' && segment[1] == 'x' && segment[2] == 'i' && segment[3] == 'f'
+						&& segment[4] == 0 && segment[5] == 0){
+					isExifRead = true;
+					if (!builder.readTiff(segment, 6, segment.length) && segment.length < segmentLength - 2){
+						segment = new byte[(int) Math.min(segmentLength - 2, length - pos - 4)];
+						readAt(f, pos + 4, segment, segment.length, head);
+						builder = new InfoBuilder();
+						builder.readTiff(segment, 6, segment.length);
+					}
+				}
+			}
+
+			pos += 2 + segmentLength;
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Read bytes at a file position, from head if they are in it
+	 */
+	private static void readAt(RandomAccessFile f, long pos, byte[] out, int count, byte[] head)
+	throws IOException{
+		if (pos + count <= head.length){
+			System.arraycopy(head, (int) pos, out, 0, count);
+		}else{
+			f.seek(pos);
+			f.readFully(out, 0, count);
+		}
+	}
+
+	/**
+	 * Is this marker a start of frame, which holds the image size
+	 */
+	private static boolean isStartOfFrame(int marker){
+		return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+	}
+
+	/**
+	 * Collects the values found while reading, and reads the TIFF header of the EXIF segment
+	 */
+	private static class InfoBuilder{
+		int orientation = ExifInterface.ORIENTATION_UNDEFINED;
+		int width = -1;
+		int height = -1;
+		String dateTime;
+		String dateTimeOriginal;
+		boolean isTruncated;
+
+		ExifInfo build(){
+			return new ExifInfo(orientation, width, height, dateTimeOriginal != null ? dateTimeOriginal : dateTime);
+		}
+
+		/**
+		 * Read IFD0 and the Exif IFD of the TIFF header starting at tiff
+		 * @return false if an IFD or value ran past end, so a longer read could find more
+		 */
+		boolean readTiff(byte[] data, int tiff, int end){
+			if (tiff + 8 > end)
+				return false;
+
+			// byte order
+			boolean little;
+			if (data[tiff] == 'I' && data[tiff+1] == 'I')
+				little = true;
+			else if (data[tiff] == 'M' && data[tiff+1] == 'M')
+				little = false;
+			else
+				return true;
+			if (readShort(data, tiff+2, little) != 42)
+				return true;
+
+			int exifIfd = readIfd(data, tiff, readInt(data, tiff+4, little) & 0xFFFFFFFFL, end, little);
+			if (exifIfd > 0)
+				readIfd(data, tiff, exifIfd, end, little);
+			return !isTruncated;
+		}
+
+		/**
+		 * Read the tags we want from one IFD
+		 * @return The offset of the Exif IFD if this IFD points to one, else 0
+		 */
+		private int readIfd(byte[] data, int tiff, long ifdOffset, int end, boolean little){
+			if (ifdOffset < 8)
+				return 0;
+			if (tiff + ifdOffset + 2 > end){
+				isTruncated = true;
+				return 0;
+			}
+			int ifd = (int) (tiff + ifdOffset);
+			int exifIfd = 0;
+			int count = readShort(data, ifd, little);
+			for (int i = 0; i < count; i++){
+				int entry = ifd + 2 + 12*i;
+				if (entry + 12 > end){
+					isTruncated = true;
+					return exifIfd;
+				}
+				int tag = readShort(data, entry, little);
+				int type = readShort(data, entry+2, little);
+				switch (tag){
+				case TAG_ORIENTATION:
+					if (type == TYPE_SHORT)
+						orientation = readShort(data, entry+8, little);
+					break;
+				case TAG_EXIF_IFD:
+					if (type == TYPE_LONG)
+						exifIfd = readInt(data, entry+8, little);
+					break;
+				case TAG_PIXEL_X_DIMENSION:
+					if (width < 0)
+						width = readNumber(data, entry, type, little);
+					break;
+				case TAG_PIXEL_Y_DIMENSION:
+					if (height < 0)
+						height = readNumber(data, entry, type, little);
+					break;
+				case TAG_DATE_TIME:
+					dateTime = readAscii(data, tiff, entry, type, end, little);
+					break;
+				case TAG_DATE_TIME_ORIGINAL:
+					dateTimeOriginal = readAscii(data, tiff, entry, type, end, little);
+					break;
+				}
+			}
+			return exifIfd;
+		}
+
+		/**
+		 * The value of a SHORT or LONG entry, -1 for other types
+		 */
+		private static int readNumber(byte[] data, int entry, int type, boolean little){
+			if (type == TYPE_SHORT)
+				return readShort(data, entry+8, little);
+			if (type == TYPE_LONG)
+				return readInt(data, entry+8, little);
+			return -1;
+		}
+
+		/**
+		 * The value of an ASCII entry, null for other types or if it runs past end
+		 */
+		private String readAscii(byte[] data, int tiff, int entry, int type, int end, boolean little){
+			if (type != TYPE_ASCII)
+				return null;
+			int count = readInt(data, entry+4, little);
+			if (count <= 0 || count > MAX_SEGMENT_SIZE)
+				return null;
+			long offset = entry + 8;
+			if (count > 4)
+				offset = tiff + (readInt(data, entry+8, little) & 0xFFFFFFFFL);
+			if (offset + count > end){
+				isTruncated = true;
+				return null;
+			}
+			int start = (int) offset;
+			int stringEnd = start;
+			while (stringEnd < start + count && data[stringEnd] != 0)
+				stringEnd++;
+			if (stringEnd == start)
+				return null;
+			char[] chars = new char[stringEnd - start];
+			for (int i = 0; i < chars.length; i++)
+				chars[i] = (char) (data[start + i] & 0xFF);
+			return new String(chars);
+		}
+	}
+
+	/**
+	 * Find where the orientation is stored in a JPEG.
+	 * @param data The JPEG data, only the header needs to be present
+	 * @param length The number of valid bytes in data
+	 * @return The location. If the data is not a JPEG, or has no EXIF, app1Offset is -1. If the EXIF has no orientation tag, valueOffset is -1.
+	 */
+	public static OrientationLocation findOrientation(byte[] data, int length){
+		OrientationLocation out = new OrientationLocation();
+
+		// must start with SOI
+		if (length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != MARKER_SOI)
+			return out;
+
+		// walk the markers until we find EXIF or the image data
+		int pos = 2;
+		while (pos + 4 <= length){
+			if ((data[pos] & 0xFF) != 0xFF)
+				return out;
+			int marker = data[pos+1] & 0xFF;
+
+			// fill bytes
+			if (marker == 0xFF){
+				pos++;
+				continue;
+			}
+			if (marker == MARKER_SOS || marker == MARKER_EOI)
+				return out;
+			int segmentLength = readShort(data, pos+2, false);
+			if (segmentLength < 2)
+				return out;
+
+			// APP1 with the Exif header
+			if (marker == MARKER_APP1 && pos + 10 <= length
+					&& data[pos+4] == 'E' && data[pos+5] == 'x' && data[pos+6] == 'i' && data[pos+7] == 'f'
+					&& data[pos+8] == 0 && data[pos+9] == 0){
+				out.app1Offset = pos;
+				int tiff = pos + 10;
+				int end = Math.min(length, pos + 2 + segmentLength);
+				findOrientationInTiff(data, tiff, end, out);
+				return out;
+			}
+
+			pos += 2 + segmentLength;
+		}
+		return out;
+	}
+
+	/**
+	 * Write a JPEG to a stream with the given orientation tag, without a second pass over the file. <br>
+	 * If the JPEG already has an orientation tag, its value is replaced as the bytes are written. If it has no EXIF,
+	 * a minimal EXIF segment with only the orientation is inserted after the start of image marker.
+	 * If it has EXIF without an orientation tag, nothing is written and false is returned,
+	 * so the caller can write the data and use {@link ExifInterface} instead.
+	 * @param out The stream to write to. It is not closed.
+	 * @param data The JPEG data
+	 * @param orientation The orientation, for example ExifInterface.ORIENTATION_ROTATE_90
+	 * @return true if the data was written, false if nothing was written
+	 * @throws IOException if the write fails
+	 */
+	public static boolean writeJpegWithOrientation(OutputStream out, byte[] data, int orientation)
+	throws IOException{
+		OrientationLocation location = findOrientation(data, data.length);
+
+		// patch the existing value as we go
+		if (location.valueOffset >= 0){
+			byte[] value = new byte[2];
+			writeShort(value, 0, orientation, location.isLittleEndian);
+			out.write(data, 0, location.valueOffset);
+			out.write(value);
+			out.write(data, location.valueOffset + 2, data.length - location.valueOffset - 2);
+			return true;
+		}
+
+		// no exif at all, add our own after SOI
+		if (location.app1Offset < 0 && data.length >= 2
+				&& (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == MARKER_SOI){
+			out.write(data, 0, 2);
+			out.write(buildOrientationSegment(orientation));
+			out.write(data, 2, data.length - 2);
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Build an APP1 EXIF segment that only contains an orientation tag
+	 * @param orientation The orientation, for example ExifInterface.ORIENTATION_ROTATE_90
+	 * @return The segment, starting with the 0xFFE1 marker
+	 */
+	public static byte[] buildOrientationSegment(int orientation){
+		byte[] seg = new byte[36];
+		int pos = 0;
+
+		// marker and length (everything after the marker)
+		seg[pos++] = (byte) 0xFF;
+		seg[pos++] = (byte) MARKER_APP1;
+		writeShort(seg, pos, seg.length - 2, false);
+		pos += 2;
+
+		// Exif\0\0
+		seg[pos++] = 'E';
+		seg[pos++] = 'x';
+		seg[pos++] = 'i';
+		seg[pos++] = 'f';
+		seg[pos++] = 0;
+		seg[pos++] = 0;
+
+		// big endian TIFF header, IFD0 right after it
+		seg[pos++] = 'M';
+		seg[pos++] = 'M';
+		writeShort(seg, pos, 42, false);
+		pos += 2;
+		writeInt(seg, pos, 8, false);
+		pos += 4;
+
+		// IFD0 with one entry
+		writeShort(seg, pos, 1, false);
+		pos += 2;
+		writeShort(seg, pos, TAG_ORIENTATION, false);
+		writeShort(seg, pos+2, TYPE_SHORT, false);
+		writeInt(seg, pos+4, 1, false);
+		writeShort(seg, pos+8, orientation, false);
+		pos += 12;
+
+		// no next IFD
+		writeInt(seg, pos, 0, false);
+		return seg;
+	}
+
+	/**
+	 * Convert an EXIF orientation value to the clockwise angle the raw image must be rotated to look correct
+	 * @param orientation The orientation, for example ExifInterface.ORIENTATION_ROTATE_90
+	 * @return 0, 90, 180, or 270. 0 for anything that is not a plain rotation.
+	 */
+	public static float orientationToAngle(int orientation){
+		switch (orientation){
+		case ExifInterface.ORIENTATION_ROTATE_90:
+			return 90;
+		case ExifInterface.ORIENTATION_ROTATE_180:
+			return 180;
+		case ExifInterface.ORIENTATION_ROTATE_270:
+			return 270;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Convert a clockwise rotation angle to the EXIF orientation value
+	 * @param angle 0, 90, 180, or 270. Other values are rounded to the nearest of these.
+	 * @return The orientation, for example ExifInterface.ORIENTATION_ROTATE_90
+	 */
+	public static int angleToOrientation(float angle){
+		int a = Math.round(angle/90f)*90;
+		a = ((a % 360) + 360) % 360;
+		switch (a){
+		case 90:
+			return ExifInterface.ORIENTATION_ROTATE_90;
+		case 180:
+			return ExifInterface.ORIENTATION_ROTATE_180;
+		case 270:
+			return ExifInterface.ORIENTATION_ROTATE_270;
+		default:
+			return ExifInterface.ORIENTATION_NORMAL;
+		}
+	}
+
+	/**
+	 * Look for the orientation in IFD0 of the TIFF header starting at tiff
+	 */
+	private static void findOrientationInTiff(byte[] data, int tiff, int end, OrientationLocation out){
+		if (tiff + 8 > end)
+			return;
+
+		// byte order
+		boolean little;
+		if (data[tiff] == 'I' && data[tiff+1] == 'I')
+			little = true;
+		else if (data[tiff] == 'M' && data[tiff+1] == 'M')
+			little = false;
+		else
+			return;
+		out.isLittleEndian = little;
+		if (readShort(data, tiff+2, little) != 42)
+			return;
+
+		// IFD0
+		long ifdOffset = readInt(data, tiff+4, little) & 0xFFFFFFFFL;
+		if (ifdOffset < 8 || tiff + ifdOffset + 2 > end)
+			return;
+		int ifd = (int) (tiff + ifdOffset);
+		int count = readShort(data, ifd, little);
+		for (int i = 0; i < count; i++){
+			int entry = ifd + 2 + 12*i;
+			if (entry + 12 > end)
+				return;
+			if (readShort(data, entry, little) == TAG_ORIENTATION){
+				if (readShort(data, entry+2, little) != TYPE_SHORT)
+					return;
+				out.valueOffset = entry + 8;
+				out.orientation = readShort(data, entry+8, little);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Read an unsigned 16 bit value
+	 */
+	static int readShort(byte[] data, int pos, boolean little){
+		if (little)
+			return (data[pos] & 0xFF) | ((data[pos+1] & 0xFF) << 8);
+		else
+			return ((data[pos] & 0xFF) << 8) | (data[pos+1] & 0xFF);
+	}
+
+	/**
+	 * Read a 32 bit value
+	 */
+	static int readInt(byte[] data, int pos, boolean little){
+		if (little)
+			return (data[pos] & 0xFF) | ((data[pos+1] & 0xFF) << 8) | ((data[pos+2] & 0xFF) << 16) | ((data[pos+3] & 0xFF) << 24);
+		else
+			return ((data[pos] & 0xFF) << 24) | ((data[pos+1] & 0xFF) << 16) | ((data[pos+2] & 0xFF) << 8) | (data[pos+3] & 0xFF);
+	}
+
+	/**
+	 * Write a 16 bit value
+	 */
+	static void writeShort(byte[] data, int pos, int value, boolean little){
+		if (little){
+			data[pos] = (byte) value;
+			data[pos+1] = (byte) (value >>> 8);
+		}else{
+			data[pos] = (byte) (value >>> 8);
+			data[pos+1] = (byte) value;
+		}
+	}
+
+	/**
+	 * Write a 32 bit value
+	 */
+	static void writeInt(byte[] data, int pos, int value, boolean little){
+		if (little){
+			writeShort(data, pos, value, true);
+			writeShort(data, pos+2, value >>> 16, true);
+		}else{
+			writeShort(data, pos, value >>> 16, false);
+			writeShort(data, pos+2, value, false);
+		}
+	}
+}
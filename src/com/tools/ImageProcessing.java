@@ -8,6 +8,12 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.annotation.TargetApi;
 import android.content.ContentValues;
@@ -15,10 +21,10 @@ import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory.Options;
 import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
+import android.graphics.Rect;
 import android.media.ExifInterface;
 import android.media.MediaScannerConnection;
 import android.net.Uri;
@@ -40,89 +46,29 @@ public class ImageProcessing {
 	 * @return The bitmap with the center extracted, or null if null was entered
 	 */
 	public static Bitmap bitmapExtractCenter(Bitmap bitmap, int nullColor){
+		return bitmapExtractCenter(bitmap, nullColor, null, 1);
+	}
+
+	/**
+	 * Remove the edges of bitmap by extracting the center region that do not match the given nullColor.
+	 * The edges are found a strip of rows at a time, see {@link BitmapBorderScanner}.
+	 * @param bitmap the source bitmap
+	 * @param nullColor the color that is considered void and we will chopped. For example, for black simply enter: Color.argb(0, 0, 0, 0); 
+	 * @param executor The executor to scan on. If null, the calling thread does all the work.
+	 * @param nTasks How many tasks to split the scan into, usually the number of cores
+	 * @return The bitmap with the center extracted, or null if null was entered or the whole bitmap is nullColor
+	 */
+	public static Bitmap bitmapExtractCenter(Bitmap bitmap, int nullColor, ExecutorService executor, int nTasks){
 
 		// null
 		if (bitmap == null)
 			return null;
 
-		// measure size
-		final int width = bitmap.getWidth();
-		final int height = bitmap.getHeight();
-
-		// grab pixel data
-		int[] pixels = new int[width*height];
-		bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
-
-		// which row will we start and end and cols as well
-		int rowStart = 0;
-		int rowEnd = height-1;
-		int colStart = 0;
-		int colEnd = width-1;
-
-		// find the top that we can crop
-		boolean outerBreak = false;
-		for (int i = 0; i <height; i++){
-			int ii = i*width;
-			for (int j = 0; j < width; j++){				
-				if (pixels[ii + j] != nullColor){
-					outerBreak = true;
-					break;				
-				}
-			}
-			if (outerBreak)
-				break;
-			rowStart++;
-		}
-
-		// find the bottom that we can crop
-		outerBreak = false;
-		for (int i = height-1; i >= 0; i--){
-			int ii = i*width;
-			for (int j = 0; j < width; j++){
-				if (pixels[ii + j] != nullColor){
-					outerBreak = true;
-					break;				
-				}
-			}
-			if (outerBreak)
-				break;
-			rowEnd--;
-		}
-
-		// find the left we can crop
-		outerBreak = false;
-		for (int j = 0; j < width; j++){
-			for (int i = 0; i <height; i++){	
-				if (pixels[i*width + j] != nullColor){
-					outerBreak = true;
-					break;				
-				}
-			}
-			if (outerBreak)
-				break;
-			colStart++;
-		}
-
-		// find the right that we can crop
-		outerBreak = false;
-		for (int j = width-1; j >= 0; j--){
-			for (int i = 0; i <height; i++){	
-				if (pixels[i*width + j] != nullColor){
-					outerBreak = true;
-					break;				
-				}
-			}
-			if (outerBreak)
-				break;
-			colEnd--;
-		}
-
-		// sub index of matrix
-		int newWidth = colEnd-colStart+1;
-		int newHeight = rowEnd-rowStart+1;
-		if (newWidth <= 0 || newHeight <= 0)
+		// find the edges
+		Rect bounds = BitmapBorderScanner.findContentBounds(bitmap, nullColor, executor, nTasks);
+		if (bounds == null)
 			return null;
-		return Bitmap.createBitmap(bitmap, colStart, rowStart, newWidth, newHeight);	
+		return Bitmap.createBitmap(bitmap, bounds.left, bounds.top, bounds.width(), bounds.height());	
 	}
 
 	/** Take input of original size image that must fit within fitSize 
@@ -229,24 +175,24 @@ public class ImageProcessing {
 	private static class RotateExifInBackgroundClass <ACTIVITY_TYPE extends CustomActivity>
 	extends CustomAsyncTask<ACTIVITY_TYPE, Void, IOException>{
 
-		private String filename;
+		private List<String> filenames;
 		private int direction;
 		
 		/**
 		 * Rotate exif data in the background
 		 * @param act Calling activity
-		 * @param filename the filename to rotate
+		 * @param filenames the filenames to rotate
 		 * @param direction The direction to rotate positive = clockwise, negative = ccw
 		 * @param callback Callback to call when finished, can be null
 		 */
 		public RotateExifInBackgroundClass(
 				ACTIVITY_TYPE act,
-				String filename,
+				List<String> filenames,
 				int direction,
 				CustomAsyncTask.FinishedCallback<ACTIVITY_TYPE, IOException> callback) {
 			super(act, -1, true, false,
 					null);
-			this.filename = filename;
+			this.filenames = filenames;
 			this.direction = direction;
 			
 			this.setFinishedCallback(callback);
@@ -258,13 +204,10 @@ public class ImageProcessing {
 		
 		@Override
 		protected IOException doInBackground(Void... params) {
-			IOException e2 = null;
-			try {
-				rotateExif(filename, direction);
-			} catch (IOException e) {
-				e2 = e;
-			}
-			return e2;
+			for (IOException e : rotateExif(filenames, direction, null))
+				if (e != null)
+					return e;
+			return null;
 		}
 		@Override
 		protected void onProgressUpdate(Void... progress) {
@@ -284,16 +227,13 @@ public class ImageProcessing {
 	 * Read the exif orientation angle from a given file
 	 * @param file The file. 
 	 * @return The orientation angle stored in the file. The angle we need to rotate cw in order to have a correct image.
-	 * @throws IOException if we cannot get an exifInterface from the file
+	 * @throws IOException if we cannot read the file
 	 */
 	public static float getExifOrientationAngle(String file)
 	throws IOException{
 
-		// read exif data
-		ExifInterface exif = new ExifInterface(file);
-
-		// grab the angle from exif data
-		return getExifOrientationAngle(exif);
+		// only the header is read, and unchanged files are cached
+		return ExifHeader.orientationToAngle(ExifHeader.readInfo(file).orientation);
 	}
 	
 	/**
@@ -366,16 +306,13 @@ public class ImageProcessing {
 		decodable.setData(fullImagePath);
 		
 		// read orientation
-		ExifInterface exif;
+		int orientation;
 		try {
-			exif = new ExifInterface(fullImagePath);
+			orientation = ExifHeader.readInfo(fullImagePath).orientation;
 		} catch (IOException e) {
 			Log.e(LOG_TAG, Log.getStackTraceString(e));
 			return null;
 		}
-		int orientation = exif.getAttributeInt(
-				ExifInterface.TAG_ORIENTATION, 
-				ExifInterface.ORIENTATION_NORMAL);
 		
 		// make the thumbnail
 		return makeThumbnailHelper(decodable, orientation, maxThumbnailDimension, forceBase2);
@@ -385,7 +322,8 @@ public class ImageProcessing {
 	 * Resize a byte array keeping aspect ratio. Will either
 	 * crop the data, fill extra data with black bars, or resize the image 
 	 * to as close to newWidthHeight, but not guaranteed. <br>
-	 * *** NOTE: we can get a memory crash for large images. ***
+	 * The image is decoded with inSampleSize, and for CROP only the visible region is decoded, then it is scaled and rotated
+	 * in a single draw. See {@link BitmapResizer} for the peak memory used.
 	 * @param input Byte array input data
 	 * @param cropFlag "crop", "blackBars", "resizeLarge", "resizeSmall" options for what 
 	 * to do with image that doesn't fit new size. 
@@ -400,117 +338,7 @@ public class ImageProcessing {
 			ResizeType cropFlag, 
 			Context ctx, 
 			float orientationAngle){
-
-		// create bitmap from data
-		BitmapFactory.Options opt = new BitmapFactory.Options();
-		opt.inDither = true;
-		opt.inPreferredConfig = Config.RGB_565;
-		Bitmap bitmapOrg = BitmapFactory.decodeByteArray(input, 0, input.length, opt);
-
-		// grab width and height from bitmap
-		int width = bitmapOrg.getWidth();
-		int height = bitmapOrg.getHeight();
-
-		// check rotation to see if we need to switch width and height
-		if ((int) Math.round(orientationAngle) % (int) 180 == 90){
-			int tmp = width;
-			width = height;
-			height = tmp;
-		}
-
-		// check if no resizing required
-		if (width == newWidthHeight.width &&
-				height == newWidthHeight.height && 
-				orientationAngle == 0)
-			return bitmapOrg;
-
-		// find new width and height for temporary bitmap object
-		WidthHeight tmpWidthHeight = null;
-		WidthHeight tmp2 = new WidthHeight(width, height);
-		switch(cropFlag){
-		case BLACK_BARS:
-			tmpWidthHeight = com.tools.ImageProcessing.fitNoCrop(tmp2, newWidthHeight);
-			break;
-		case RESIZE_SMALL:
-			tmpWidthHeight = com.tools.ImageProcessing.fitNoCrop(tmp2, newWidthHeight);
-			break;
-		case RESIZE_LARGE:
-			tmpWidthHeight = com.tools.ImageProcessing.fitCrop(tmp2, newWidthHeight);
-			break;
-		case CROP:
-			tmpWidthHeight = com.tools.ImageProcessing.fitCrop(tmp2, newWidthHeight);
-			break;
-		default:
-			throw new IllegalArgumentException("unkown ResizeType");
-		}
-
-		// grab new height and width
-		int newWidth = tmpWidthHeight.width;
-		int newHeight = tmpWidthHeight.height;
-
-		// calculate the scale
-		float scaleWidth = ((float) newWidth) / width;
-		float scaleHeight = ((float) newHeight) / height;
-
-		// create a matrix for the manipulation
-		Matrix matrix = new Matrix();
-
-		// resize the bit map
-		matrix.postScale(scaleWidth, scaleHeight);
-
-		// set rotation angle based on exif data
-		if (orientationAngle != 0)
-			matrix.postRotate(orientationAngle);
-
-		// check rotation to see if we need to switch back to original width and height
-		if ((int) Math.round(orientationAngle) % (int) 180 == 90){
-			int tmp = width;
-			width = height;
-			height = tmp;
-		}
-
-		// recreate the new Bitmap
-		Bitmap tmpResizedBitmap = Bitmap.createBitmap(bitmapOrg, 0, 0,
-				width, height, matrix, true);
-
-		Bitmap resizedBitmap = null;
-
-		// if resizeSmall or resizeLarge, then tmpResizedBitmap is the same as final.
-		// Also if the desired output is the same as the tmpSize then, also just copy over
-		if (cropFlag == ResizeType.RESIZE_SMALL ||
-				cropFlag == ResizeType.RESIZE_LARGE ||
-				(tmpResizedBitmap.getWidth() == newWidthHeight.width && 
-						tmpResizedBitmap.getHeight() == newWidthHeight.height))
-			resizedBitmap = tmpResizedBitmap;
-
-		// crop option, we will grab a subset of the tmpBitmap
-		else if (cropFlag == ResizeType.CROP){
-			resizedBitmap = Bitmap.createBitmap
-			(newWidthHeight.width, newWidthHeight.height, Bitmap.Config.RGB_565);
-			int[] pixels = new int[resizedBitmap.getWidth()*resizedBitmap.getHeight()];
-			int x = (int) Math.round((tmpResizedBitmap.getWidth() - resizedBitmap.getWidth())/2.0);
-			int y = (int) Math.round((tmpResizedBitmap.getHeight() - resizedBitmap.getHeight())/2.0);
-			tmpResizedBitmap.getPixels(pixels, 0, resizedBitmap.getWidth(), x, y, 
-					resizedBitmap.getWidth(), resizedBitmap.getHeight());
-			resizedBitmap.setPixels(pixels, 0, resizedBitmap.getWidth(), 0, 0, 
-					resizedBitmap.getWidth(), resizedBitmap.getHeight());
-		}
-
-		// the blackBars option, we create a new bitmap that is larger and fill with tmpBitmap
-		else {
-			resizedBitmap = Bitmap.createBitmap
-			(newWidthHeight.width, newWidthHeight.height, Bitmap.Config.RGB_565);
-			int[] pixels = new int[resizedBitmap.getWidth()*resizedBitmap.getHeight()];
-			int x = (int) -Math.round((tmpResizedBitmap.getWidth() - resizedBitmap.getWidth())/2.0);
-			int y = (int) -Math.round((tmpResizedBitmap.getHeight() - resizedBitmap.getHeight())/2.0);
-			tmpResizedBitmap.getPixels(pixels, 0, tmpResizedBitmap.getWidth(), 0, 0, 
-					tmpResizedBitmap.getWidth(), tmpResizedBitmap.getHeight());
-			resizedBitmap.setPixels(pixels, 0, tmpResizedBitmap.getWidth(), x, y, 
-					tmpResizedBitmap.getWidth(), tmpResizedBitmap.getHeight());
-		}
-
-		// turn back into byte array
-		return resizedBitmap;	
+		return BitmapResizer.resize(input, newWidthHeight, cropFlag, orientationAngle, null);
 	}
 
 	/** Rotate a byte array keeping aspect ratio. 
@@ -571,7 +399,8 @@ public class ImageProcessing {
 	}
 
 	/**
-	 * Rotate the exif data in a picture by 90 degrees.
+	 * Rotate the exif data in a picture by 90 degrees. <br>
+	 * The orientation tag is overwritten in place when the file has one, only files without the tag are rewritten.
 	 * @param filePath The path of the file
 	 * @param direction any negative number for ccw, any positive for cw, and 0 does nothing
 	 * @throws IOException 
@@ -583,14 +412,13 @@ public class ImageProcessing {
 		if (direction == 0)
 			return;
 
-		// open the exif data
-		ExifInterface EI = new ExifInterface(fileName);
+		// check the file
 		File file = new File(fileName);
 		if (!file.exists() || !file.canRead() || !file.canWrite() || !file.isFile())
 			throw new IOException("File can't be read");
 
 		// get the angle
-		float angle = ImageProcessing.getExifOrientationAngle(EI);
+		float angle = getExifOrientationAngle(fileName);
 
 		// rotate the angle
 		if (direction < 0)
@@ -598,31 +426,91 @@ public class ImageProcessing {
 		else
 			angle = angle + 90;
 
-		// modulate by 360
-		while (angle < 0)
-			angle += 360;
-		angle = angle % 360;
-
 		// determine the rotation angle
-		int exifOrientation = ExifInterface.ORIENTATION_UNDEFINED;
-		switch ((int)angle){
-		case 0:
-			exifOrientation = ExifInterface.ORIENTATION_NORMAL;
-			break;
-		case 90:
-			exifOrientation = ExifInterface.ORIENTATION_ROTATE_90;
-			break;
-		case 180:
-			exifOrientation = ExifInterface.ORIENTATION_ROTATE_180;
-			break;
-		case 270:
-			exifOrientation = ExifInterface.ORIENTATION_ROTATE_270;
-			break;
-		}
+		int exifOrientation = ExifHeader.angleToOrientation(angle);
+
+		// patch the 2 bytes of the tag in place
+		if (ExifHeader.patchOrientation(fileName, exifOrientation))
+			return;
 
-		// save the data
+		// no tag to patch, so save the data the slow way
+		ExifInterface EI = new ExifInterface(fileName);
 		EI.setAttribute(ExifInterface.TAG_ORIENTATION, ""+exifOrientation);
 		EI.saveAttributes();
+		ExifHeader.forgetInfo(fileName);
+	}
+
+	/**
+	 * Rotate the exif data of several pictures by 90 degrees, in parallel. See {@link #rotateExif(String, int)}. <br>
+	 * The calling thread does work too, so this can be called from a thread of the executor. Slow, don't call on the ui thread.
+	 * @param fileNames The paths of the files
+	 * @param direction any negative number for ccw, any positive for cw, and 0 does nothing
+	 * @param executor The executor to run on, null to use the TaskScheduler disk lane
+	 * @return One entry per file, in the same order, null if it was rotated, or the exception if not. Unexpected errors on one file
+	 * are returned as an IOException for that file, they never abort the batch
+	 */
+	public static ArrayList<IOException> rotateExif(
+			final List<String> fileNames,
+			final int direction,
+			ExecutorService executor){
+
+		final int nFiles = fileNames.size();
+		final IOException[] errors = new IOException[nFiles];
+		final AtomicInteger next = new AtomicInteger();
+
+		// each worker takes the next file until there are none left
+		Runnable worker = new Runnable() {
+			@Override
+			public void run() {
+				int i;
+				while ((i = next.getAndIncrement()) < nFiles){
+					try{
+						rotateExif(fileNames.get(i), direction);
+					}catch(IOException e){
+						errors[i] = e;
+					}catch(RuntimeException e){
+						// a bad file only fails itself, not the rest of the batch
+						Log.e(LOG_TAG, Log.getStackTraceString(e));
+						errors[i] = new IOException("Could not rotate " + fileNames.get(i) + ": " + e);
+					}
+				}
+			}
+		};
+
+		// helpers on the executor, plus this thread
+		if (executor == null)
+			executor = TaskScheduler.getInstance().getExecutor(TaskScheduler.Lane.DISK);
+		int nHelpers = Math.min(nFiles - 1, Runtime.getRuntime().availableProcessors());
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>(Math.max(0, nHelpers));
+		for (int i = 0; i < nHelpers; i++)
+			futures.add(executor.submit(worker));
+		worker.run();
+
+		// helpers that never started have nothing left to do, wait for the ones that did
+		boolean isInterrupted = false;
+		for (Future<?> future : futures){
+			if (future.cancel(false))
+				continue;
+			while (true){
+				try{
+					future.get();
+					break;
+				}catch(InterruptedException e){
+					// keep waiting, the files being rotated right now still need their result
+					isInterrupted = true;
+				}catch(ExecutionException e){
+					Log.e(LOG_TAG, Log.getStackTraceString(e.getCause()));
+					break;
+				}
+			}
+		}
+		if (isInterrupted)
+			Thread.currentThread().interrupt();
+
+		ArrayList<IOException> out = new ArrayList<IOException>(nFiles);
+		for (IOException e : errors)
+			out.add(e);
+		return out;
 	}
 	
 	/**
@@ -638,7 +526,23 @@ public class ImageProcessing {
 			String filename,
 			int direction,
 			CustomAsyncTask.FinishedCallback<ACTIVITY_TYPE, IOException> callback){
-		(new RotateExifInBackgroundClass<ACTIVITY_TYPE>(act, filename, direction, callback)).execute();
+		rotateExifBackground(act, Collections.singletonList(filename), direction, callback);
+	}
+
+	/**
+	 * Rotate exif orientation of several images in the background, in parallel on the TaskScheduler disk lane
+	 * @param <ACTIVITY_TYPE> The type of activity to return in callback (what activity called this)
+	 * @param act the activity calling this
+	 * @param filenames The filenames to rotate 
+	 * @param direction positive for 90 deg rotation clocwise and negative for ccw
+	 * @param callback The callback called when finished, IOException is the first error, null if all files were rotated
+	 */
+	public static <ACTIVITY_TYPE extends CustomActivity> void rotateExifBackground(
+			ACTIVITY_TYPE act,
+			List<String> filenames,
+			int direction,
+			CustomAsyncTask.FinishedCallback<ACTIVITY_TYPE, IOException> callback){
+		(new RotateExifInBackgroundClass<ACTIVITY_TYPE>(act, filenames, direction, callback)).execute();
 	}
 
 	/** attempts to save byte data from camera to the next default location on the SDcard. 
@@ -700,13 +604,19 @@ public class ImageProcessing {
 					imageFileOS = new FileOutputStream(fileNameInput);
 				}
 
-				// write the file
-				imageFileOS.write(data);
+				// write the file, with the orientation patched in as we go if we can
+				boolean isOrientationWritten = false;
+				if (exifOrientation != null)
+					isOrientationWritten = ExifHeader.writeJpegWithOrientation(imageFileOS, data, exifOrientation);
+				else
+					imageFileOS.write(data);
+				if (exifOrientation != null && !isOrientationWritten)
+					imageFileOS.write(data);
 				imageFileOS.flush();
 				imageFileOS.close();
 
-				// write orientaiton and/or gps to file
-				if (exifOrientation != null){
+				// write orientaiton and/or gps to file, only needed when the exif didn't already have an orientation tag
+				if (exifOrientation != null && !isOrientationWritten){
 					ExifInterface EI = new ExifInterface(fileName);
 					EI.setAttribute(ExifInterface.TAG_ORIENTATION, ""+exifOrientation);
 					//EI.setAttribute(ExifInterface.TAG_GPS_LATITUDE, Tools.convertAngletoString(15.42));
@@ -1,7 +1,6 @@
 package com.tools;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
 
 /**
@@ -10,36 +9,26 @@ import java.util.Iterator;
  *
  */
 public class MathTools {
-	/** number to add to an ascii chart to make it the correct int value */
-	private static final int CONVERT_CHAR_TO_INT = -48;
-	
 	/** Take in a number and return the list of divisors of that number
 	 * @param number The number which we want to find the divisors
 	 * @return An ArrayList <Long> of the divisors of the number
+	 * @see PrimeSieve#divisors(long)
 	 */
 	public static ArrayList <Long> divisors(long number){
 
-		// the array to return
-		ArrayList <Long> result = new ArrayList<Long>();
-
-		// determine if even
-		int step;
-		if (!isEven(number))
-			step = 2;
-		else
-			step  =1;
-
-		// add 1 to result
-		result.add((long) 1);
-
-		// start looping up to 1/2 of the number
-		for (long i = 1+step; i <= number/2; i+=step)
-			if (number % i == 0)
-				result.add(i);
-
-		// add number to list
-		if (number != 1)
+		// non-positive numbers have no real divisor list, keep the old output of {1, number}
+		if (number < 1){
+			ArrayList <Long> result = new ArrayList<Long>(2);
+			result.add((long) 1);
 			result.add(number);
+			return result;
+		}
+
+		// build from the prime factors
+		long[] divisors = PrimeSieve.divisors(number);
+		ArrayList <Long> result = new ArrayList<Long>(divisors.length);
+		for (int i = 0; i < divisors.length; i++)
+			result.add(divisors[i]);
 
 		return result;
 	}
@@ -141,41 +130,19 @@ public class MathTools {
 
 	/**
 	 * Generate list of prime numbers <= number
-	 * Taken from matlab primes code
 	 * @param number the upper bound
 	 * @return the list of primes
+	 * @see PrimeSieve#primesUpTo(int) to get the primes as an int[] without boxing
 	 */
 	public static ArrayList <Integer> primes(int number){
 
-		// initialize array
-		ArrayList <Integer> result = new ArrayList<Integer>();
-
-		// check if less than 2, then no numbers
-		if (number < 2)
-			return result;
-
-		// fill array with a large list of number
-		result = new ArrayList<Integer>(number/2+1);
-		result.add(2);
-		for (int i=3; i <= number; i+=2)
-			result.add(i);
-
-		// length of array
-		int q = result.size();
-
-		//  loop performing some method
-		for (int k = 3; k<=Math.sqrt(number); k+=2){
-			if (result.get((k+1)/2-1) != 0)
-				for (int kk = ((k*k+1)/2); kk <= q; kk+=k)
-					result.set(kk-1, 0);
-		}
+		// sieve
+		int[] primes = PrimeSieve.primesUpTo(number);
 
-		// only keep elements that are > 0
-		Iterator<Integer> itr = result.iterator();
-		while (itr.hasNext()){
-			if (itr.next() <= 0)
-				itr.remove();
-		}
+		// copy to list
+		ArrayList <Integer> result = new ArrayList<Integer>(primes.length);
+		for (int i = 0; i < primes.length; i++)
+			result.add(primes[i]);
 
 		return result;
 	}
@@ -184,6 +151,7 @@ public class MathTools {
 	 * returns a vector containing the prime factors of N. Taken from Matlab code factor
 	 * @param number the number to factor
 	 * @return the prime factors
+	 * @see PrimeSieve#factor(long)
 	 */
 	public static ArrayList <Integer> factor(int number){
 
@@ -202,50 +170,12 @@ public class MathTools {
 			return result;
 		}
 
-		// initialize result
-		ArrayList<Integer> result = new ArrayList<Integer>();
-
-		// list of primes <= number
-		ArrayList<Integer> primesList = primes((int) Math.sqrt(number));
-
-		int n = number;
-		while (n > 1){
-
-			// find index where there is no remainder, basically the primes are a divisor
-			ArrayList <Integer> indexNoRem = new ArrayList<Integer>(); 
-			for (int i = 0; i<primesList.size(); i++)
-				if (n % primesList.get(i) == 0)
-					indexNoRem.add(i);
-
-			// no index to break out
-			if (indexNoRem.size() == 0){
-				result.add(n);
-				break;
-			}
-
-			// grab only the primesList at index
-			@SuppressWarnings("unchecked")
-			ArrayList <Integer> tmpPrimesList = (ArrayList<Integer>) primesList.clone();
-			primesList.clear();
-			primesList.ensureCapacity(indexNoRem.size());
-			Iterator<Integer> itr = indexNoRem.iterator();
-			int prod=1;
-			int value;
-			while (itr.hasNext()){
-				value = tmpPrimesList.get(itr.next());
-				prod *= value;
-				primesList.add(value);
-			}
-
-			// append new primesList to result
-			result.addAll(primesList);
+		// trial divide with the cached primes
+		long[] factors = PrimeSieve.factor(number);
+		ArrayList<Integer> result = new ArrayList<Integer>(factors.length);
+		for (int i = 0; i < factors.length; i++)
+			result.add((int) factors[i]);
 
-			// reset n
-			n = n/prod;
-		}
-
-		// sort the results
-		Collections.sort(result);
 		return result;
 	}
 
@@ -315,130 +245,33 @@ public class MathTools {
 	 * @param number1
 	 * @param number2
 	 * @return the sum
+	 * @see DecimalBigInteger
 	 */
 	public static String addAsString(String number1, String number2){
-
-		// initialize string
-		String result = "";
-
-		int i1 = number1.length()-1;
-		int i2 = number2.length()-1;
-		int carryover = 0;
-		int currentNumber;
-
-		// loop across digits starting from the right
-		while (i1 >= 0 || i2 >= 0){
-			currentNumber = carryover;
-			if (i1 >= 0)
-				currentNumber += number1.charAt(i1)+CONVERT_CHAR_TO_INT;
-			if (i2 >= 0)
-				currentNumber += number2.charAt(i2)+CONVERT_CHAR_TO_INT;
-			i1--;
-			i2--;
-			if (currentNumber >= 10)
-				carryover = (int) Math.floor(currentNumber/10);
-			else
-				carryover = 0;
-
-			result += (currentNumber - carryover*10);	
-		}
-
-		// add caryover
-		if (carryover > 0)
-			result += carryover;
-
-		// flip the result
-		String result2 = "";
-		for (int i = result.length()-1; i >= 0; i--)
-			result2 += result.substring(i, i+1);
-
-		return result2;
+		return DecimalBigInteger.parse(number1).add(DecimalBigInteger.parse(number2)).toString();
 	}
 
 	/**
-	 * Multiply two strings together as if they were integers using elementary school method.
+	 * Multiply two strings together as if they were integers. Karatsuba is used for very large numbers.
 	 * number1*number2 = result
 	 * @param number1
 	 * @param number2
 	 * @return
+	 * @see DecimalBigInteger
 	 */
 	public static String multiplyAsString(String number1, String number2){
-
-		// initialize string and array
-		String result = "";
-		String[] rows = new String[number2.length()];
-
-		int carryover = 0;
-		int currentNumber;
-		int ii=0;
-		String defaultResult = "";
-
-		// loop across digits starting from the right for smaller number
-		for (int i2 = number2.length()-1; i2 >= 0; i2--){
-
-			// initalize numbers
-			carryover = 0;
-			result = defaultResult;
-
-			// loop across bigger nunber
-			for (int i1 = number1.length()-1; i1>= 0; i1--){
-
-				// multiply together and add remainder
-				currentNumber = carryover + 
-				(number1.charAt(i1)+CONVERT_CHAR_TO_INT) * 
-				(number2.charAt(i2)+CONVERT_CHAR_TO_INT);
-
-				// set carryover number
-				if (currentNumber >= 10)
-					carryover = (int) Math.floor(currentNumber/10);
-				else
-					carryover = 0;
-
-				// append new string to old result
-				result += (currentNumber - carryover*10);	
-			}
-
-			// add carryover
-			if (carryover > 0)
-				result += carryover;
-
-			// flip the result
-			String result2 = "";
-			for (int i = result.length()-1; i >= 0; i--)
-				result2 += result.substring(i, i+1);
-
-			// store the result in string array
-			rows[ii] = result2;
-			ii++;
-
-			// add a zero to defaultResult
-			defaultResult += "0";
-		}
-
-		// now add all the rows
-		String finalResult = rows[0];
-		for (int i = 1; i<rows.length; i++){
-			finalResult = addAsString(finalResult, rows[i]);
-		}
-
-		return finalResult;
+		return DecimalBigInteger.parse(number1).multiply(DecimalBigInteger.parse(number2)).toString();
 	}
 
 	/**
 	 * Calculate the factorial of an integer and return the exact number as a string. No real limit on the 
-	 * size of the answer, because it is performed as a string and multipled out as in elementary school.
+	 * size of the answer, because it is performed with arbitrary precision integers as a product tree.
 	 * @param factorialNumber
 	 * @return
+	 * @see DecimalBigInteger#factorial(int, java.util.concurrent.ExecutorService, int) to split the work across threads
 	 */
 	public static String factorialAsString(int factorialNumber){
-
-		// we are going to perform each multiply in string form using old elementary school method
-		String currentNumber = "1";
-		for (int i = 2; i<=factorialNumber; i++){
-			currentNumber = multiplyAsString(currentNumber, String.valueOf(i));
-		}
-
-		return currentNumber;
+		return DecimalBigInteger.factorial(factorialNumber).toString();
 	}
 
 	/**
@@ -466,6 +299,7 @@ public class MathTools {
 	 * @param m1
 	 * @param m2
 	 * @return
+	 * @see Matrix#multiplyInto(Matrix, Matrix, Matrix) to multiply without allocating
 	 */
 	public static double[][] matrixMultiply(double[][] m1, double[][] m2){
 		
@@ -482,11 +316,17 @@ public class MathTools {
 		// initialize result
 		double[][] result = new double[m1rows][m2cols];
 
-		// multiply
-		for (int i=0; i<m1rows; i++)
-			for (int j=0; j<m2cols; j++)
-				for (int k=0; k<m1cols; k++)
-					result[i][j] += m1[i][k] * m2[k][j];
+		// multiply in i-k-j order, so the inner loop walks along rows instead of down columns
+		for (int i=0; i<m1rows; i++){
+			double[] resultRow = result[i];
+			double[] m1Row = m1[i];
+			for (int k=0; k<m1cols; k++){
+				double m1ik = m1Row[k];
+				double[] m2Row = m2[k];
+				for (int j=0; j<m2cols; j++)
+					resultRow[j] += m1ik * m2Row[j];
+			}
+		}
 
 		return result;
 	}
@@ -523,6 +363,7 @@ public class MathTools {
 	 * Transpose a double matrix
 	 * @param in
 	 * @return
+	 * @see Matrix#transposeInto(Matrix, Matrix) to transpose without allocating
 	 */
 	public static double[][] transposeMatrix(double[][] in){
 		// find sizes of arrays
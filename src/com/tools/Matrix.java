@@ -0,0 +1,297 @@
+package com.tools;
+
+import java.util.Arrays;
+
+/**
+ * A dense matrix of doubles stored flat in row-major order. <br>
+ * Unlike {@link MathTools#matrixMultiply(double[][], double[][])} the multiply and transpose methods here write into a
+ * result the caller passes in, so they can be used in a loop without allocating. Large multiplies are cache blocked,
+ * and there are static 3x3 methods on plain double[9] arrays for rotations, see {@link #multiply3x3Into(double[], double[], double[])}.
+ * @author Kyle
+ *
+ */
+public class Matrix {
+
+	// constants
+	private static final int BLOCK = 64; 			// block size used for cache blocking
+
+	// private variables
+	private final int rows; 						// number of rows
+	private final int cols; 						// number of columns
+	private final double[] data; 					// the values, element (i, j) is at i*cols + j
+
+	/**
+	 * Create a matrix of zeros
+	 * @param rows number of rows
+	 * @param cols number of columns
+	 */
+	public Matrix(int rows, int cols){
+		if (rows <= 0 || cols <= 0)
+			throw new IllegalArgumentException("rows and cols must be > 0");
+		this.rows = rows;
+		this.cols = cols;
+		data = new double[rows*cols];
+	}
+
+	/**
+	 * Create a matrix with a copy of the values of a 2d array
+	 * @param values The values, indexed as [row][col]. All rows must be the same length.
+	 */
+	public Matrix(double[][] values){
+		this(values.length, values[0].length);
+		for (int i = 0; i < rows; i++){
+			if (values[i].length != cols)
+				throw new IllegalArgumentException("all rows must have the same length");
+			System.arraycopy(values[i], 0, data, i*cols, cols);
+		}
+	}
+
+	/**
+	 * Number of rows
+	 * @return rows
+	 */
+	public int getRows(){
+		return rows;
+	}
+
+	/**
+	 * Number of columns
+	 * @return columns
+	 */
+	public int getCols(){
+		return cols;
+	}
+
+	/**
+	 * The backing array, in row-major order. Changes to it change the matrix.
+	 * @return the data
+	 */
+	public double[] getData(){
+		return data;
+	}
+
+	/**
+	 * Get the value at row i, col j
+	 * @param i row
+	 * @param j col
+	 * @return the value
+	 */
+	public double get(int i, int j){
+		return data[i*cols + j];
+	}
+
+	/**
+	 * Set the value at row i, col j
+	 * @param i row
+	 * @param j col
+	 * @param value the value to set
+	 */
+	public void set(int i, int j, double value){
+		data[i*cols + j] = value;
+	}
+
+	/**
+	 * Copy into a new 2d array, indexed as [row][col]
+	 * @return the values
+	 */
+	public double[][] toArray(){
+		double[][] out = new double[rows][cols];
+		for (int i = 0; i < rows; i++)
+			System.arraycopy(data, i*cols, out[i], 0, cols);
+		return out;
+	}
+
+	/**
+	 * dst = a * b. The loops are blocked so that a block of b stays in cache while it is used across a block of rows of a.
+	 * @param dst The output, must be a.rows x b.cols and not be a or b
+	 * @param a left matrix
+	 * @param b right matrix
+	 * @return dst
+	 */
+	public static Matrix multiplyInto(Matrix dst, Matrix a, Matrix b){
+		if (a.cols != b.rows)
+			throw new IllegalArgumentException("matrices don't match: " + a.cols + " != " + b.rows);
+		checkOutput(dst, a.rows, b.cols, a, b);
+
+		int n = a.rows;
+		int m = b.cols;
+		int p = a.cols;
+		double[] A = a.data;
+		double[] B = b.data;
+		double[] C = dst.data;
+		Arrays.fill(C, 0);
+
+		// i-k-j order, so the inner loop walks rows of b and dst
+		for (int kk = 0; kk < p; kk += BLOCK){
+			int kEnd = Math.min(kk + BLOCK, p);
+			for (int jj = 0; jj < m; jj += BLOCK){
+				int jEnd = Math.min(jj + BLOCK, m);
+				for (int i = 0; i < n; i++){
+					int aRow = i*p;
+					int cRow = i*m;
+					for (int k = kk; k < kEnd; k++){
+						// no shortcut for aik == 0, it would drop 0*Inf and 0*NaN terms
+						double aik = A[aRow + k];
+						int bRow = k*m;
+						for (int j = jj; j < jEnd; j++)
+							C[cRow + j] += aik*B[bRow + j];
+					}
+				}
+			}
+		}
+		return dst;
+	}
+
+	/**
+	 * dst = a * transpose(bT). Each output value is the dot product of a row of a and a row of bT, so both are read
+	 * sequentially. Use this when b is already available transposed, or b is reused across many multiplies.
+	 * @param dst The output, must be a.rows x bT.rows and not be a or bT
+	 * @param a left matrix
+	 * @param bT the transpose of the right matrix
+	 * @return dst
+	 */
+	public static Matrix multiplyTransposedInto(Matrix dst, Matrix a, Matrix bT){
+		if (a.cols != bT.cols)
+			throw new IllegalArgumentException("matrices don't match: " + a.cols + " != " + bT.cols);
+		checkOutput(dst, a.rows, bT.rows, a, bT);
+
+		int n = a.rows;
+		int m = bT.rows;
+		int p = a.cols;
+		double[] A = a.data;
+		double[] B = bT.data;
+		double[] C = dst.data;
+
+		for (int ii = 0; ii < n; ii += BLOCK){
+			int iEnd = Math.min(ii + BLOCK, n);
+			for (int jj = 0; jj < m; jj += BLOCK){
+				int jEnd = Math.min(jj + BLOCK, m);
+				for (int i = ii; i < iEnd; i++){
+					int aRow = i*p;
+					for (int j = jj; j < jEnd; j++){
+						int bRow = j*p;
+						double sum = 0;
+						for (int k = 0; k < p; k++)
+							sum += A[aRow + k]*B[bRow + k];
+						C[i*m + j] = sum;
+					}
+				}
+			}
+		}
+		return dst;
+	}
+
+	/**
+	 * dst = a * x, where x is a column vector
+	 * @param dst The output, length a.rows, and not x
+	 * @param a the matrix
+	 * @param x the vector, length a.cols
+	 * @return dst
+	 */
+	public static double[] multiplyInto(double[] dst, Matrix a, double[] x){
+		if (x.length != a.cols)
+			throw new IllegalArgumentException("matrices don't match: " + a.cols + " != " + x.length);
+		if (dst.length != a.rows || dst == x)
+			throw new IllegalArgumentException("dst must be length " + a.rows + " and not be the input");
+
+		double[] A = a.data;
+		int p = a.cols;
+		for (int i = 0; i < a.rows; i++){
+			int aRow = i*p;
+			double sum = 0;
+			for (int k = 0; k < p; k++)
+				sum += A[aRow + k]*x[k];
+			dst[i] = sum;
+		}
+		return dst;
+	}
+
+	/**
+	 * dst = transpose(a), done in blocks so both reads and writes stay in cache
+	 * @param dst The output, must be a.cols x a.rows and not a
+	 * @param a The matrix to transpose
+	 * @return dst
+	 */
+	public static Matrix transposeInto(Matrix dst, Matrix a){
+		checkOutput(dst, a.cols, a.rows, a, null);
+
+		int n = a.rows;
+		int m = a.cols;
+		double[] A = a.data;
+		double[] T = dst.data;
+		for (int ii = 0; ii < n; ii += BLOCK){
+			int iEnd = Math.min(ii + BLOCK, n);
+			for (int jj = 0; jj < m; jj += BLOCK){
+				int jEnd = Math.min(jj + BLOCK, m);
+				for (int i = ii; i < iEnd; i++)
+					for (int j = jj; j < jEnd; j++)
+						T[j*n + i] = A[i*m + j];
+			}
+		}
+		return dst;
+	}
+
+	/**
+	 * dst = a * b for 3x3 matrices stored row-major in double[9]. Fully unrolled.
+	 * @param dst output, length 9 and not a or b
+	 * @param a left matrix
+	 * @param b right matrix
+	 * @return dst
+	 */
+	public static double[] multiply3x3Into(double[] dst, double[] a, double[] b){
+		if (dst == a || dst == b)
+			throw new IllegalArgumentException("dst must not be an input");
+		double b0 = b[0], b1 = b[1], b2 = b[2], b3 = b[3], b4 = b[4], b5 = b[5], b6 = b[6], b7 = b[7], b8 = b[8];
+		dst[0] = a[0]*b0 + a[1]*b3 + a[2]*b6;
+		dst[1] = a[0]*b1 + a[1]*b4 + a[2]*b7;
+		dst[2] = a[0]*b2 + a[1]*b5 + a[2]*b8;
+		dst[3] = a[3]*b0 + a[4]*b3 + a[5]*b6;
+		dst[4] = a[3]*b1 + a[4]*b4 + a[5]*b7;
+		dst[5] = a[3]*b2 + a[4]*b5 + a[5]*b8;
+		dst[6] = a[6]*b0 + a[7]*b3 + a[8]*b6;
+		dst[7] = a[6]*b1 + a[7]*b4 + a[8]*b7;
+		dst[8] = a[6]*b2 + a[7]*b5 + a[8]*b8;
+		return dst;
+	}
+
+	/**
+	 * dst = a * x for a 3x3 matrix stored row-major in double[9]
+	 * @param dst output, length 3. May be x.
+	 * @param a the matrix
+	 * @param x the vector, length 3
+	 * @return dst
+	 */
+	public static double[] multiplyVector3x3Into(double[] dst, double[] a, double[] x){
+		double x0 = x[0], x1 = x[1], x2 = x[2];
+		dst[0] = a[0]*x0 + a[1]*x1 + a[2]*x2;
+		dst[1] = a[3]*x0 + a[4]*x1 + a[5]*x2;
+		dst[2] = a[6]*x0 + a[7]*x1 + a[8]*x2;
+		return dst;
+	}
+
+	/**
+	 * dst = transpose(a) * x for a 3x3 matrix stored row-major in double[9], without forming the transpose.
+	 * For a rotation matrix this is the inverse rotation.
+	 * @param dst output, length 3. May be x.
+	 * @param a the matrix
+	 * @param x the vector, length 3
+	 * @return dst
+	 */
+	public static double[] multiplyTransposeVector3x3Into(double[] dst, double[] a, double[] x){
+		double x0 = x[0], x1 = x[1], x2 = x[2];
+		dst[0] = a[0]*x0 + a[3]*x1 + a[6]*x2;
+		dst[1] = a[1]*x0 + a[4]*x1 + a[7]*x2;
+		dst[2] = a[2]*x0 + a[5]*x1 + a[8]*x2;
+		return dst;
+	}
+
+	/**
+	 * Make sure dst is the correct size and is not one of the inputs
+	 */
+	private static void checkOutput(Matrix dst, int rows, int cols, Matrix in1, Matrix in2){
+		if (dst.rows != rows || dst.cols != cols)
+			throw new IllegalArgumentException("dst must be " + rows + "x" + cols + ", not " + dst.rows + "x" + dst.cols);
+		if (dst == in1 || dst == in2)
+			throw new IllegalArgumentException("dst must not be an input");
+	}
+}
@@ -0,0 +1,395 @@
+package com.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Segmented sieve of Eratosthenes over a primitive bitset, and the factoring tools built on top of it. <br>
+ * Only odd numbers are stored, one bit each, in a long[] segment of {@link #SEGMENT_BYTES} bytes, which is sized to stay
+ * in cache. So the memory used while sieving does not grow with the upper bound, only the output array does. <br>
+ * Segments are independent once the base primes up to sqrt(n) are known, so they can be spread across an ExecutorService.
+ * @author Kyle
+ *
+ */
+public class PrimeSieve {
+
+	// constants
+	/** Size in bytes of the bitset used for each segment */
+	public static final int SEGMENT_BYTES = 32*1024;
+	private static final int SEGMENT_WORDS = SEGMENT_BYTES/8; 		// longs per segment
+	private static final int SEGMENT_BITS = SEGMENT_WORDS*64; 		// odd numbers per segment
+	private static final int SMALL_PRIME_LIMIT = 65536; 			// the cached primes, enough to factor any int
+	/** The max upper bound of {@link #forEachPrime(long, long, PrimeCallback)}, 2^48. The base primes up to its square root take about 4MB */
+	public static final long MAX_STREAM_BOUND = (1L << 48) - 1;
+
+	// private variables
+	private static int[] smallPrimes = null; 						// cached primes < SMALL_PRIME_LIMIT
+
+	/**
+	 * Callback used to stream primes out of the sieve
+	 */
+	public interface PrimeCallback{
+		/**
+		 * Called for each prime in ascending order
+		 * @param prime The prime
+		 * @return true to keep going, false to stop the sieve
+		 */
+		public boolean onPrime(long prime);
+	}
+
+	/**
+	 * All the primes < 65536. These are sieved once and then cached.
+	 * @return The primes, do not modify this array
+	 */
+	public static synchronized int[] getSmallPrimes(){
+		if (smallPrimes == null)
+			smallPrimes = simpleSieve(SMALL_PRIME_LIMIT - 1);
+		return smallPrimes;
+	}
+
+	/**
+	 * Generate all primes <= number, on the calling thread
+	 * @param number the upper bound
+	 * @return the primes in ascending order
+	 */
+	public static int[] primesUpTo(int number){
+		return primesUpTo(number, null, 1);
+	}
+
+	/**
+	 * Generate all primes <= number, with the segments spread across an executor.
+	 * @param number the upper bound
+	 * @param executor The executor to run the segments on. If null, then the calling thread does all the work.
+	 * @param nTasks How many tasks to split the segments into, usually the number of cores.
+	 * @return the primes in ascending order
+	 */
+	public static int[] primesUpTo(int number, ExecutorService executor, int nTasks){
+
+		// special cases
+		if (number < 2)
+			return new int[0];
+		if (number < SMALL_PRIME_LIMIT){
+			int[] small = getSmallPrimes();
+			int n = Arrays.binarySearch(small, number);
+			n = (n >= 0) ? n+1 : -(n+1);
+			return Arrays.copyOf(small, n);
+		}
+
+		// the base primes used to cross off
+		final int[] basePrimes = getSmallPrimes();
+
+		// the odd numbers from 3 to number are split into segments
+		final long last = number;
+		final int nSegments = (int) (((last - 3)/2)/SEGMENT_BITS + 1);
+		final int[][] results = new int[nSegments][];
+		if (nTasks < 1)
+			nTasks = 1;
+		nTasks = Math.min(nTasks, nSegments);
+
+		// run the segments, each task takes every nTasks'th segment, so they stay balanced
+		if (executor == null || nTasks == 1){
+			sieveSegments(0, 1, nSegments, last, basePrimes, results);
+		}else{
+			ArrayList<Future<?>> futures = new ArrayList<Future<?>>(nTasks);
+			for (int i = 0; i < nTasks; i++){
+				final int first = i;
+				final int stride = nTasks;
+				futures.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						sieveSegments(first, stride, nSegments, last, basePrimes, results);
+					}
+				}));
+			}
+			for (Future<?> future : futures){
+				try{
+					future.get();
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(e);
+				}catch(ExecutionException e){
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		}
+
+		// join the segments in order
+		int total = 1;
+		for (int[] segment : results)
+			total += segment.length;
+		int[] output = new int[total];
+		output[0] = 2;
+		int pos = 1;
+		for (int[] segment : results){
+			System.arraycopy(segment, 0, output, pos, segment.length);
+			pos += segment.length;
+		}
+		return output;
+	}
+
+	/**
+	 * Stream every prime in [low, high] to the callback in ascending order. Only one segment is held in memory at a time.
+	 * @param low The lower bound, inclusive
+	 * @param high The upper bound, inclusive. Must be <= {@link #MAX_STREAM_BOUND}, so the base primes up to sqrt(high) fit in a small int array
+	 * @param callback The callback for each prime
+	 */
+	public static void forEachPrime(long low, long high, PrimeCallback callback){
+		if (high > MAX_STREAM_BOUND)
+			throw new IllegalArgumentException("high must be <= " + MAX_STREAM_BOUND);
+		if (low < 2)
+			low = 2;
+		if (high < low)
+			return;
+
+		// 2 is the only even prime
+		if (low == 2){
+			if (!callback.onPrime(2))
+				return;
+			low = 3;
+		}
+		if ((low & 1) == 0)
+			low++;
+		if (low > high)
+			return;
+
+		// base primes up to sqrt(high)
+		long sqrt = (long) Math.sqrt((double) high) + 1;
+		int[] basePrimes;
+		if (sqrt < SMALL_PRIME_LIMIT)
+			basePrimes = getSmallPrimes();
+		else
+			basePrimes = primesUpTo((int) sqrt);
+
+		// one segment at a time
+		long[] bits = new long[SEGMENT_WORDS];
+		for (long segLow = low; segLow <= high; segLow += 2L*SEGMENT_BITS){
+			int nBits = (int) Math.min(SEGMENT_BITS, (high - segLow)/2 + 1);
+			sieveSegment(segLow, nBits, basePrimes, bits);
+			int nWords = (nBits + 63) >>> 6;
+			for (int w = 0; w < nWords; w++){
+				long x = ~bits[w];
+				if (w == nWords-1 && (nBits & 63) != 0)
+					x &= (1L << (nBits & 63)) - 1;
+				while (x != 0){
+					int t = Long.numberOfTrailingZeros(x);
+					x &= x - 1;
+					if (!callback.onPrime(segLow + 2L*((w << 6) + t)))
+						return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return the prime factors of number, including repeats. For example 12 returns {2, 2, 3}.
+	 * Trial division uses the cached small primes, so factoring any int needs no sieving after the first call.
+	 * @param number the number to factor, the sign is ignored
+	 * @return the prime factors in ascending order. Empty if |number| < 2
+	 */
+	public static long[] factor(long number){
+		if (number < 0){
+			if (number == Long.MIN_VALUE){
+				long[] out = new long[63];
+				Arrays.fill(out, 2);
+				return out;
+			}
+			number = -number;
+		}
+		if (number < 2)
+			return new long[0];
+
+		long[] result = new long[64];
+		int n = 0;
+
+		// divide out the small primes
+		int[] primes = getSmallPrimes();
+		for (int i = 0; i < primes.length; i++){
+			long p = primes[i];
+			if (p*p > number)
+				break;
+			while (number % p == 0){
+				result[n++] = p;
+				number /= p;
+			}
+		}
+
+		// continue with odd numbers past the cache for very large longs
+		for (long d = SMALL_PRIME_LIMIT + 1; d <= number/d; d += 2){
+			while (number % d == 0){
+				result[n++] = d;
+				number /= d;
+			}
+		}
+
+		// what is left is prime
+		if (number > 1)
+			result[n++] = number;
+
+		return Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * Return all divisors of number, built from its prime factorization
+	 * @param number The number, must be >= 1
+	 * @return The divisors in ascending order, including 1 and number
+	 */
+	public static long[] divisors(long number){
+		if (number < 1)
+			throw new IllegalArgumentException("number must be >= 1");
+
+		long[] factors = factor(number);
+
+		// count the divisors
+		int count = 1;
+		for (int i = 0; i < factors.length;){
+			int j = i;
+			while (j < factors.length && factors[j] == factors[i])
+				j++;
+			count *= (j - i + 1);
+			i = j;
+		}
+
+		// multiply out each prime power against the divisors found so far
+		long[] result = new long[count];
+		result[0] = 1;
+		int n = 1;
+		for (int i = 0; i < factors.length;){
+			int j = i;
+			while (j < factors.length && factors[j] == factors[i])
+				j++;
+			int prev = n;
+			long power = 1;
+			for (int e = 0; e < j - i; e++){
+				power *= factors[i];
+				for (int k = 0; k < prev; k++)
+					result[n++] = result[k]*power;
+			}
+			i = j;
+		}
+
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * Sieve segments first, first+stride, ... and store the primes of each into results
+	 */
+	private static void sieveSegments(
+			int first,
+			int stride,
+			int nSegments,
+			long last,
+			int[] basePrimes,
+			int[][] results){
+
+		// one bitset per task, reused across its segments
+		long[] bits = new long[SEGMENT_WORDS];
+		for (int seg = first; seg < nSegments; seg += stride){
+			long segLow = 3 + 2L*SEGMENT_BITS*seg;
+			int nBits = (int) Math.min(SEGMENT_BITS, (last - segLow)/2 + 1);
+			sieveSegment(segLow, nBits, basePrimes, bits);
+			results[seg] = collect(segLow, nBits, bits);
+		}
+	}
+
+	/**
+	 * Cross off the composites of the odd numbers low, low+2, ... low+2*(nBits-1).
+	 * A set bit means composite.
+	 * @param low The first number, must be odd
+	 * @param nBits How many odd numbers
+	 * @param basePrimes The primes up to at least sqrt of the last number
+	 * @param bits The bitset to fill, at least (nBits+63)/64 long
+	 */
+	private static void sieveSegment(long low, int nBits, int[] basePrimes, long[] bits){
+		Arrays.fill(bits, 0, (nBits + 63) >>> 6, 0L);
+		long high = low + 2L*(nBits - 1);
+
+		// 1 is not prime
+		if (low == 1)
+			bits[0] |= 1L;
+
+		for (int i = 0; i < basePrimes.length; i++){
+			long p = basePrimes[i];
+			if (p == 2)
+				continue;
+			long start = p*p;
+			if (start > high)
+				break;
+
+			// first odd multiple of p in the segment
+			if (start < low){
+				long r = low % p;
+				start = (r == 0) ? low : low + (p - r);
+				if ((start & 1) == 0)
+					start += p;
+			}
+
+			long j = (start - low) >>> 1;
+			if (j >= nBits)
+				continue;
+			int step = (int) p;
+			for (int k = (int) j; k < nBits; k += step)
+				bits[k >>> 6] |= 1L << k;
+		}
+	}
+
+	/**
+	 * Read the primes out of a sieved segment
+	 */
+	private static int[] collect(long low, int nBits, long[] bits){
+		int nWords = (nBits + 63) >>> 6;
+		long lastMask = ((nBits & 63) == 0) ? -1L : (1L << (nBits & 63)) - 1;
+
+		// count first so the output is exact
+		int count = 0;
+		for (int w = 0; w < nWords; w++){
+			long x = ~bits[w];
+			if (w == nWords-1)
+				x &= lastMask;
+			count += Long.bitCount(x);
+		}
+
+		int[] out = new int[count];
+		int n = 0;
+		for (int w = 0; w < nWords; w++){
+			long x = ~bits[w];
+			if (w == nWords-1)
+				x &= lastMask;
+			while (x != 0){
+				int t = Long.numberOfTrailingZeros(x);
+				x &= x - 1;
+				out[n++] = (int) (low + 2L*((w << 6) + t));
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Plain odd only sieve, used for the small primes
+	 * @param number the upper bound
+	 * @return the primes <= number
+	 */
+	private static int[] simpleSieve(int number){
+		if (number < 2)
+			return new int[0];
+		int nBits = (number - 1)/2; 		// odd numbers 3, 5, ... number
+		long[] bits = new long[(nBits + 63) >>> 6];
+		for (int i = 0; ; i++){
+			long p = 2*i + 3;
+			if (p*p > number)
+				break;
+			if ((bits[i >>> 6] & (1L << i)) != 0)
+				continue;
+			for (int k = (int) ((p*p - 3)/2); k < nBits; k += (int) p)
+				bits[k >>> 6] |= 1L << k;
+		}
+		int[] odd = collect(3, nBits, bits);
+		int[] out = new int[odd.length + 1];
+		out[0] = 2;
+		System.arraycopy(odd, 0, out, 1, odd.length);
+		return out;
+	}
+}
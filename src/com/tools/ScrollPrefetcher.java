@@ -0,0 +1,238 @@
+package com.tools;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads the rows just past the visible ones in the direction of scroll, so they are usually cached by the time they are shown. <br>
+ * Prefetches run one at a time on their own low priority thread, so they never take a thread from on-screen work,
+ * and all queued prefetches are dropped when the scroll direction changes. <br>
+ * Used by ImageLoader and ViewLoader, see their prefetch methods. Call {@link #onDisplayed(Object, boolean)} each time
+ * an id is shown to keep track of the hit rate.
+ * @author Kyle
+ *
+ * @param <ID_TYPE> The type that identifies a row
+ * @param <LOOKUP_TYPE> The lookup that is required to load the data for a row
+ */
+public class ScrollPrefetcher<ID_TYPE, LOOKUP_TYPE>{
+
+	// constants
+	/** The default max number of rows to prefetch ahead */
+	public static final int DEFAULT_MAX_AHEAD = 10;
+	private static final int MIN_AHEAD = 2; 										// always prefetch at least this many rows
+	private static final float LOOKAHEAD_SECONDS = 0.5f; 							// prefetch enough rows to cover this much scrolling
+	private static final int MAX_TRACKED_IDS = 256; 								// how many prefetched ids to remember for the hit rate
+
+	// private variables
+	private final PrefetchTarget<ID_TYPE, LOOKUP_TYPE> target; 						// does the actual loading
+	private final int maxAhead; 													// max rows to prefetch ahead
+	private ExecutorService executor; 												// the single low priority thread
+	private final AtomicInteger generation = new AtomicInteger(); 					// bumped to cancel queued prefetches
+	private int direction = 0; 														// last scroll direction, 1 down, -1 up
+	private int queuedUntil = -1; 													// furthest position queued in this direction
+	private final Map<ID_TYPE, Boolean> prefetchedIds = Collections.synchronizedMap(
+			new LinkedHashMap<ID_TYPE, Boolean>(){
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<ID_TYPE, Boolean> eldest) {
+					return size() > MAX_TRACKED_IDS;
+				}
+			}); 																	// ids loaded by prefetch and not yet shown
+	private final AtomicLong prefetchCount = new AtomicLong(); 						// number of prefetch loads completed
+	private final AtomicLong hitCount = new AtomicLong(); 							// number of prefetched ids later shown from cache
+
+	/**
+	 * Supplies the rows to prefetch. Called on the ui thread, from the prefetch call.
+	 * @param <ID_TYPE> The type that identifies a row
+	 * @param <LOOKUP_TYPE> The lookup that is required to load the data for a row
+	 */
+	public interface PrefetchProvider <ID_TYPE, LOOKUP_TYPE>{
+		/**
+		 * @return The number of rows, usually the adapter count
+		 */
+		public int getCount();
+		/**
+		 * @param position The adapter position
+		 * @return The id of the row at this position
+		 */
+		public ID_TYPE getId(int position);
+		/**
+		 * @param position The adapter position
+		 * @return The lookup needed to load the data at this position
+		 */
+		public LOOKUP_TYPE getLookup(int position);
+	}
+
+	/**
+	 * What the loader does for each prefetched row
+	 * @param <ID_TYPE> The type that identifies a row
+	 * @param <LOOKUP_TYPE> The lookup that is required to load the data for a row
+	 */
+	public interface PrefetchTarget <ID_TYPE, LOOKUP_TYPE>{
+		/**
+		 * Is this id already cached or being loaded, in which case nothing is queued. Called on the ui thread.
+		 * @param id The id of the row
+		 * @return true to skip this row
+		 */
+		public boolean isLoadedOrLoading(ID_TYPE id);
+		/**
+		 * Load the data into the cache without showing it. Called on the prefetch thread.
+		 * @param id The id of the row
+		 * @param lookup The lookup needed to load the row
+		 * @return true if the data was loaded, or queued to be loaded
+		 */
+		public boolean prefetch(ID_TYPE id, LOOKUP_TYPE lookup);
+	}
+
+	/**
+	 * Create a prefetcher
+	 * @param maxAhead The max number of rows to prefetch ahead of the visible ones
+	 * @param target What to do for each row
+	 */
+	public ScrollPrefetcher(int maxAhead, PrefetchTarget<ID_TYPE, LOOKUP_TYPE> target){
+		this.maxAhead = Math.max(1, maxAhead);
+		this.target = target;
+	}
+
+	/**
+	 * Queue prefetches for the rows past position in the direction of scroll. Call on the ui thread, usually from onScroll.
+	 * @param position The last visible position when scrolling down, or the first visible position when scrolling up
+	 * @param velocity The scroll speed in rows per second, positive when scrolling down. 0 does nothing.
+	 * @param provider Supplies the ids and lookups for each position
+	 */
+	public void prefetch(int position, float velocity, PrefetchProvider<ID_TYPE, LOOKUP_TYPE> provider){
+		if (velocity == 0 || provider == null)
+			return;
+		int newDirection = velocity > 0 ? 1 : -1;
+
+		// direction changed, drop what is queued
+		if (newDirection != direction){
+			cancel();
+			direction = newDirection;
+		}
+
+		// how far to look ahead, scaled by speed
+		int ahead = (int) Math.ceil(Math.abs(velocity)*LOOKAHEAD_SECONDS);
+		ahead = Math.max(MIN_AHEAD, Math.min(maxAhead, ahead));
+		int count = provider.getCount();
+		if (count <= 0)
+			return;
+		int end = position + direction*ahead;
+		end = Math.max(0, Math.min(count - 1, end));
+
+		// only queue positions past what is already queued
+		int start = position + direction;
+		if (queuedUntil >= 0 && (queuedUntil - start)*direction >= 0)
+			start = queuedUntil + direction;
+		if ((end - start)*direction < 0)
+			return;
+
+		ExecutorService exec = getExecutor();
+		final int gen = generation.get();
+		for (int i = start; i != end + direction; i += direction){
+			final ID_TYPE id = provider.getId(i);
+			if (id == null || target.isLoadedOrLoading(id))
+				continue;
+			final LOOKUP_TYPE lookup = provider.getLookup(i);
+			exec.submit(new Runnable() {
+				@Override
+				public void run() {
+					if (gen != generation.get())
+						return;
+					if (target.prefetch(id, lookup)){
+						prefetchCount.incrementAndGet();
+						prefetchedIds.put(id, Boolean.TRUE);
+					}
+				}
+			});
+		}
+		queuedUntil = end;
+	}
+
+	/**
+	 * Drop all prefetches that have not started yet
+	 */
+	public void cancel(){
+		generation.incrementAndGet();
+		queuedUntil = -1;
+	}
+
+	/**
+	 * Record that an id is being shown, to keep track of the hit rate. Called by the loaders.
+	 * @param id The id being shown
+	 * @param wasCached Was the data already in the cache
+	 */
+	public void onDisplayed(ID_TYPE id, boolean wasCached){
+		if (prefetchedIds.remove(id) != null && wasCached)
+			hitCount.incrementAndGet();
+	}
+
+	/**
+	 * @return The fraction of prefetched rows that were later shown straight from the cache, 0 if nothing was prefetched.
+	 * Rows that are never shown count against it, so a low rate means prefetching too far ahead.
+	 */
+	public float getHitRate(){
+		long count = prefetchCount.get();
+		if (count == 0)
+			return 0;
+		return (float) hitCount.get()/count;
+	}
+
+	/**
+	 * @return The number of rows loaded by prefetching
+	 */
+	public long getPrefetchCount(){
+		return prefetchCount.get();
+	}
+
+	/**
+	 * @return The number of prefetched rows that were shown from the cache
+	 */
+	public long getHitCount(){
+		return hitCount.get();
+	}
+
+	/**
+	 * Reset the hit rate counters
+	 */
+	public void resetStats(){
+		prefetchCount.set(0);
+		hitCount.set(0);
+		prefetchedIds.clear();
+	}
+
+	/**
+	 * Cancel queued prefetches and stop the thread. It is restarted on the next prefetch call.
+	 */
+	public void stop(){
+		cancel();
+		direction = 0;
+		if (executor != null)
+			executor.shutdown();
+		executor = null;
+	}
+
+	/**
+	 * Create the prefetch thread if needed
+	 */
+	private ExecutorService getExecutor(){
+		if (executor == null){
+			executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "ScrollPrefetcher");
+					thread.setPriority(Thread.MIN_PRIORITY);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+}
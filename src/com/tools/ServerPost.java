@@ -13,6 +13,7 @@ import java.lang.ref.WeakReference;
 import java.net.UnknownHostException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
@@ -674,7 +675,13 @@ public class ServerPost {
 
 		@Override
 		protected ServerReturn doInBackground(Void... params) {
-			ServerReturn result = post(prog.get());
+			// run the post on the shared network lane, so it counts against its budget
+			ServerReturn result = TaskScheduler.getInstance().runAndWait(TaskScheduler.Lane.NETWORK, new Callable<ServerReturn>() {
+				@Override
+				public ServerReturn call() {
+					return post(prog.get());
+				}
+			});
 			callback.onPostFinished(callingActivity, result);
 			return result;
 		}
@@ -1,5 +1,7 @@
 package com.tools;
 
+import java.util.concurrent.Callable;
+
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
@@ -131,20 +133,26 @@ public class SqlHelper <ACTIVITY_TYPE extends CustomActivity, RESULT>{
 		
 		@Override
 		protected Void doInBackground(Void... params) {
-			try{
-				switch (inputType){
-				case MANY_INPUTS:
-					cursor = database.query(table, columns, selection, selectionArgs, groupBy, having, orderBy, limit);
-					break;
-				case RAW_QUERY:
-					cursor = database.rawQuery(sqlCommand, selectionArgs);
-					break;
+			// run the query on the shared db lane, so it counts against its budget
+			return TaskScheduler.getInstance().runAndWait(TaskScheduler.Lane.DB, new Callable<Void>() {
+				@Override
+				public Void call() {
+					try{
+						switch (inputType){
+						case MANY_INPUTS:
+							cursor = database.query(table, columns, selection, selectionArgs, groupBy, having, orderBy, limit);
+							break;
+						case RAW_QUERY:
+							cursor = database.rawQuery(sqlCommand, selectionArgs);
+							break;
+						}
+					}catch(SQLException exception2){
+						exception = exception2;
+					}
+					result = callback.onQueryFinishedBackgroundThread(callingActivity, cursor, exception);
+					return null;
 				}
-			}catch(SQLException exception2){
-				exception = exception2;
-			}
-			result = callback.onQueryFinishedBackgroundThread(callingActivity, cursor, exception);
-			return null;
+			});
 		}
 		@Override
 		protected void onPostExectueOverride(Void tmp) {
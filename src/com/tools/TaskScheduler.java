@@ -0,0 +1,252 @@
+package com.tools;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One set of background threads shared by the whole app, split into lanes by the kind of work, so that several
+ * loaders on one screen don't each spawn their own pool. <br>
+ * Each lane has a thread budget based on the number of cores, and idle threads exit after {@link #KEEP_ALIVE_SECONDS}.
+ * The lanes are never shut down, so callers just stop submitting work when they are done. <br>
+ * Per lane stats: queue depth, active count, completed count, and average and max wait and run times.
+ * @author Kyle
+ *
+ */
+public class TaskScheduler {
+
+	/**
+	 * The kinds of work, each with its own threads
+	 */
+	public enum Lane {
+		/** Bitmap decoding and other cpu bound work. One thread per core */
+		CPU,
+		/** Local file reads and writes */
+		DISK,
+		/** Http requests and downloads */
+		NETWORK,
+		/** Database queries */
+		DB
+	}
+
+	// constants
+	/** How long an idle lane thread waits for work before exiting */
+	public static final long KEEP_ALIVE_SECONDS = 30;
+
+	// private variables
+	private static TaskScheduler instance; 											// the shared scheduler
+	private final LaneExecutor[] executors = new LaneExecutor[Lane.values().length]; // one executor per lane
+	private static final ThreadLocal<LaneExecutor> currentExecutor = 
+		new ThreadLocal<LaneExecutor>(); 											// the lane the current thread is running a task for
+
+	/**
+	 * The shared scheduler
+	 * @return
+	 */
+	public static synchronized TaskScheduler getInstance(){
+		if (instance == null)
+			instance = new TaskScheduler();
+		return instance;
+	}
+
+	private TaskScheduler(){
+		int cores = Math.max(1, Runtime.getRuntime().availableProcessors());
+		for (Lane lane : Lane.values())
+			executors[lane.ordinal()] = new LaneExecutor(lane, getBudget(lane, cores));
+	}
+
+	/**
+	 * The number of threads given to each lane
+	 * @param lane The lane
+	 * @param cores The number of cores
+	 * @return The thread budget
+	 */
+	private static int getBudget(Lane lane, int cores){
+		switch (lane){
+		case CPU:
+			return cores;
+		case DISK:
+			return Math.max(2, Math.min(4, cores));
+		case NETWORK:
+			return Math.max(4, Math.min(8, 2*cores));
+		case DB:
+			return Math.max(2, Math.min(4, cores));
+		default:
+			return cores;
+		}
+	}
+
+	/**
+	 * The executor for this lane. Do not shut it down, it is shared.
+	 * @param lane The lane
+	 * @return
+	 */
+	public ExecutorService getExecutor(Lane lane){
+		return executors[lane.ordinal()];
+	}
+
+	/**
+	 * Run the task on this lane and wait for the result. Used by code that is already on a background thread it does not
+	 * control, such as AsyncTask.doInBackground, so the work still counts against the lane budget. If the calling
+	 * thread already belongs to this lane, the task is run directly.
+	 * @param lane The lane to run on
+	 * @param task The work
+	 * @return The result of the task
+	 * @throws RuntimeException If the task throws, unchecked exceptions are rethrown as is, checked ones wrapped.
+	 * Also thrown if interrupted while waiting, with the interrupt flag set again.
+	 */
+	public <T> T runAndWait(Lane lane, Callable<T> task){
+		LaneExecutor executor = executors[lane.ordinal()];
+		try{
+			if (currentExecutor.get() == executor)
+				return task.call();
+			Future<T> future = executor.submit(task);
+			try{
+				return future.get();
+			}catch(InterruptedException e){
+				future.cancel(true);
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+		}catch(ExecutionException e){
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}catch(RuntimeException e){
+			throw e;
+		}catch(Exception e){
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @param lane
+	 * @return The number of tasks waiting for a thread
+	 */
+	public int getQueueDepth(Lane lane){
+		return executors[lane.ordinal()].getQueue().size();
+	}
+
+	/**
+	 * @param lane
+	 * @return The number of tasks running right now
+	 */
+	public int getActiveCount(Lane lane){
+		return executors[lane.ordinal()].running.get();
+	}
+
+	/**
+	 * @param lane
+	 * @return The thread budget of the lane
+	 */
+	public int getBudget(Lane lane){
+		return executors[lane.ordinal()].getMaximumPoolSize();
+	}
+
+	/**
+	 * @param lane
+	 * @return The number of tasks finished
+	 */
+	public long getCompletedCount(Lane lane){
+		return executors[lane.ordinal()].completed.get();
+	}
+
+	/**
+	 * @param lane
+	 * @return The average time from submit to start, in milliseconds
+	 */
+	public double getAverageWaitMillis(Lane lane){
+		LaneExecutor executor = executors[lane.ordinal()];
+		long started = executor.started.get();
+		if (started == 0)
+			return 0;
+		return executor.totalWaitNanos.get()/1e6/started;
+	}
+
+	/**
+	 * @param lane
+	 * @return The longest time from submit to start, in milliseconds
+	 */
+	public double getMaxWaitMillis(Lane lane){
+		return executors[lane.ordinal()].maxWaitNanos.get()/1e6;
+	}
+
+	/**
+	 * @param lane
+	 * @return The average time a task runs, in milliseconds
+	 */
+	public double getAverageRunMillis(Lane lane){
+		LaneExecutor executor = executors[lane.ordinal()];
+		long completed = executor.completed.get();
+		if (completed == 0)
+			return 0;
+		return executor.totalRunNanos.get()/1e6/completed;
+	}
+
+	/**
+	 * A fixed size pool whose idle threads exit, and that times every task
+	 */
+	private static class LaneExecutor
+	extends ThreadPoolExecutor{
+
+		private final AtomicInteger running = new AtomicInteger(); 					// tasks running now
+		private final AtomicLong started = new AtomicLong(); 						// tasks started
+		private final AtomicLong completed = new AtomicLong(); 						// tasks finished
+		private final AtomicLong totalWaitNanos = new AtomicLong(); 				// sum of queue times
+		private final AtomicLong maxWaitNanos = new AtomicLong(); 					// longest queue time
+		private final AtomicLong totalRunNanos = new AtomicLong(); 					// sum of run times
+
+		LaneExecutor(final Lane lane, int budget){
+			super(budget, budget, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+			final AtomicInteger count = new AtomicInteger();
+			setThreadFactory(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "TaskScheduler-" + lane.name() + "-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					if (lane != Lane.CPU)
+						thread.setPriority(Thread.NORM_PRIORITY - 1);
+					return thread;
+				}
+			});
+			allowCoreThreadTimeOut(true);
+		}
+
+		@Override
+		public void execute(final Runnable command) {
+			final long queued = System.nanoTime();
+			super.execute(new Runnable() {
+				@Override
+				public void run() {
+					long start = System.nanoTime();
+					long wait = start - queued;
+					started.incrementAndGet();
+					totalWaitNanos.addAndGet(wait);
+					long max;
+					while (wait > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, wait));
+					running.incrementAndGet();
+					LaneExecutor previous = currentExecutor.get();
+					currentExecutor.set(LaneExecutor.this);
+					try{
+						command.run();
+					}finally{
+						currentExecutor.set(previous);
+						running.decrementAndGet();
+						totalRunNanos.addAndGet(System.nanoTime() - start);
+						completed.incrementAndGet();
+					}
+				}
+			});
+		}
+	}
+}
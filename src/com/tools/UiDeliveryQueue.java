@@ -0,0 +1,216 @@
+package com.tools;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Collects results from background threads and hands them to the ui thread in one batch per frame. <br>
+ * Instead of posting one message per result, the first result of a frame posts a single callback, and every result
+ * that arrives before it runs is delivered by that same callback. Results are keyed, usually by view, so a newer
+ * result for the same view replaces an older one that has not been shown yet. Results that are stale by the time
+ * they are delivered, for example because the view was recycled, are dropped. <br>
+ * If one drain takes longer than {@link #MAX_DRAIN_NANOS}, the rest waits for the next frame so the ui thread is never
+ * blocked for long. See the get*Count and get*Nanos methods for stats.
+ * @author Kyle
+ *
+ */
+public class UiDeliveryQueue {
+
+	// constants
+	/** Time between drains in milliseconds, about one frame */
+	public static final long FRAME_INTERVAL_MS = 16;
+	/** Max time to spend delivering in one drain, the rest is left for the next frame */
+	public static final long MAX_DRAIN_NANOS = 8000000;
+
+	// private variables
+	private final Handler handler = new Handler(Looper.getMainLooper()); 			// posts the drain
+	private LinkedHashMap<Object, Delivery> pending = new LinkedHashMap<Object, Delivery>(); // results waiting for the next drain, guarded by this
+	private boolean isDrainScheduled = false; 										// is a drain already posted
+	private volatile long lastDrainTime; 											// uptime of the last drain
+
+	// stats, only written on the ui thread
+	private volatile int lastFrameCount; 											// results delivered in the last drain
+	private volatile int maxFrameCount; 											// most results delivered in one drain
+	private volatile long lastDrainNanos; 											// main thread time of the last drain
+	private volatile long maxDrainNanos; 											// longest drain
+	private volatile long totalDrainNanos; 											// main thread time of all drains
+	private volatile long deliveredCount; 											// results delivered
+	private long droppedCount; 														// stale or replaced results dropped, guarded by this
+	private volatile long frameCount; 												// number of drains
+
+	/**
+	 * A result to show on the ui thread
+	 */
+	public interface Delivery{
+		/**
+		 * Is this result no longer wanted, for example because its view was recycled. Called on the ui thread.
+		 * @return true to drop it
+		 */
+		public boolean isStale();
+		/**
+		 * Show the result. Called on the ui thread.
+		 */
+		public void deliver();
+	}
+
+	/**
+	 * Queue a result to be delivered on the next frame. Can be called from any thread.
+	 * @param key Identifies what the result is for, usually the view. A later result with the same key replaces this one.
+	 * @param delivery The result
+	 */
+	public void post(Object key, Delivery delivery){
+		synchronized (this) {
+			if (pending.put(key, delivery) != null)
+				droppedCount++;
+			if (isDrainScheduled)
+				return;
+			isDrainScheduled = true;
+		}
+		long delay = lastDrainTime + FRAME_INTERVAL_MS - SystemClock.uptimeMillis();
+		if (delay > 0)
+			handler.postDelayed(drainer, delay);
+		else
+			handler.post(drainer);
+	}
+
+	/**
+	 * Drop everything not yet delivered
+	 */
+	public void clear(){
+		synchronized (this) {
+			pending.clear();
+		}
+	}
+
+	/**
+	 * Delivers the pending results
+	 */
+	private final Runnable drainer = new Runnable() {
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			lastDrainTime = SystemClock.uptimeMillis();
+
+			// take what is pending right now, anything new waits for the next frame
+			LinkedHashMap<Object, Delivery> batch;
+			synchronized (UiDeliveryQueue.this) {
+				batch = pending;
+				pending = new LinkedHashMap<Object, Delivery>();
+				isDrainScheduled = false;
+			}
+
+			int delivered = 0;
+			int dropped = 0;
+			Iterator<Delivery> iterator = batch.values().iterator();
+			while (iterator.hasNext()){
+				Delivery delivery = iterator.next();
+				iterator.remove();
+				if (delivery.isStale()){
+					dropped++;
+				}else{
+					delivery.deliver();
+					delivered++;
+				}
+
+				// out of time, put the rest back in front of anything newer
+				if (iterator.hasNext() && System.nanoTime() - start > MAX_DRAIN_NANOS){
+					requeue(batch);
+					break;
+				}
+			}
+
+			// stats
+			long time = System.nanoTime() - start;
+			lastFrameCount = delivered;
+			if (delivered > maxFrameCount)
+				maxFrameCount = delivered;
+			lastDrainNanos = time;
+			if (time > maxDrainNanos)
+				maxDrainNanos = time;
+			totalDrainNanos += time;
+			deliveredCount += delivered;
+			frameCount++;
+			synchronized (UiDeliveryQueue.this) {
+				droppedCount += dropped;
+			}
+		}
+	};
+
+	/**
+	 * Put undelivered results back ahead of the ones that arrived during the drain, and schedule another drain
+	 * @param leftover The results that were not delivered
+	 */
+	private void requeue(LinkedHashMap<Object, Delivery> leftover){
+		synchronized (this) {
+			for (Object key : pending.keySet())
+				if (leftover.remove(key) != null)
+					droppedCount++;
+			leftover.putAll(pending);
+			pending = leftover;
+			if (isDrainScheduled)
+				return;
+			isDrainScheduled = true;
+		}
+		handler.postDelayed(drainer, FRAME_INTERVAL_MS);
+	}
+
+	/**
+	 * @return The number of results delivered in the last drain
+	 */
+	public int getLastFrameCount(){
+		return lastFrameCount;
+	}
+
+	/**
+	 * @return The most results delivered in a single drain
+	 */
+	public int getMaxFrameCount(){
+		return maxFrameCount;
+	}
+
+	/**
+	 * @return The main thread time of the last drain in nanoseconds
+	 */
+	public long getLastDrainNanos(){
+		return lastDrainNanos;
+	}
+
+	/**
+	 * @return The longest drain in nanoseconds
+	 */
+	public long getMaxDrainNanos(){
+		return maxDrainNanos;
+	}
+
+	/**
+	 * @return The total main thread time spent delivering, in nanoseconds
+	 */
+	public long getTotalDrainNanos(){
+		return totalDrainNanos;
+	}
+
+	/**
+	 * @return The number of results delivered
+	 */
+	public long getDeliveredCount(){
+		return deliveredCount;
+	}
+
+	/**
+	 * @return The number of results dropped, because they were stale or replaced by a newer result
+	 */
+	public synchronized long getDroppedCount(){
+		return droppedCount;
+	}
+
+	/**
+	 * @return The number of drains, each one a single message on the ui thread
+	 */
+	public long getFrameCount(){
+		return frameCount;
+	}
+}
@@ -1,14 +1,18 @@
 package com.tools;
 
 import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.View;
 
 /**
@@ -30,17 +34,32 @@ public class ViewLoader<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE extends View
 	private Map<VIEW_TYPE, ID_TYPE> views =
 		Collections.synchronizedMap(new WeakHashMap<VIEW_TYPE, ID_TYPE>()); 	// keeps track of links between views and data	
 	private ExecutorService executorService;  									// run the threads
+	private final TaskScheduler.Lane lane; 										// the shared lane to run on, null if using our own pool
+	private final int maxThreads; 												// size of our own pool, when not using a lane
 	private final VALUE_TYPE defaultValue;	 									// The default data to show while there is none
 	private LoadData<LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE> loadDataCallback;		// callback to load data
-	private HashMap<ID_TYPE, Object> dataLoadingLocks = 
-		new HashMap<ID_TYPE, Object>();											// locks to be used when loading data, so we don't load the same data twice
+	private final HashMap<ID_TYPE, ArrayList<DataToLoad<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE>>> pendingLoads = 
+		new HashMap<ID_TYPE, ArrayList<DataToLoad<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE>>>(); // views waiting on each id being loaded, so we don't load the same data twice
+
+	private final Handler mainHandler = new Handler(Looper.getMainLooper()); 	// used to time batch windows
+	private LinkedHashMap<ID_TYPE, LOOKUP_TYPE> batchQueue = 
+		new LinkedHashMap<ID_TYPE, LOOKUP_TYPE>(); 								// ids collected for the next batch, guarded by pendingLoads
+	private boolean isBatchFlushScheduled = false; 								// is the batch window already running
+	private long batchWindowMs = DEFAULT_BATCH_WINDOW_MS; 						// how long to collect keys before a batch is sent
+	private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE; 							// send the batch early once it holds this many keys
+	private final UiDeliveryQueue deliveryQueue = new UiDeliveryQueue(); 		// hands loaded data to the ui thread once per frame
+	private ScrollPrefetcher<ID_TYPE, LOOKUP_TYPE> prefetcher; 					// loads rows ahead of scrolling, created on first use
+	private int prefetchMaxAhead = ScrollPrefetcher.DEFAULT_MAX_AHEAD; 			// max rows to prefetch ahead
 
 	// constants
-	private static final int MAX_THREADS = 15; 									// max threads to spawn
+	private static final int MAX_THREADS = 15; 									// threads of our own pool with the default constructor
+	private static final long DEFAULT_BATCH_WINDOW_MS = 20; 					// default time to collect keys for a batch
+	private static final int DEFAULT_MAX_BATCH_SIZE = 50; 						// default max keys in one batch
 	private static final long REQUIRED_BYTES = 1000000; 						// we must have this many bytes or we will clear the cache
 
 	/**
-	 * Create a view loader that asynchonously loads data and assigns to views. <br>
+	 * Create a view loader that asynchonously loads data and assigns to views, with its own pool of 15 threads. <br>
+	 * Prefer the constructor that takes a TaskScheduler lane, so loaders share threads. <br>
 	 * See stopThreads and restartThreads
 	 * @param defaultValue The default value to use when there is no data yet available
 	 * @param callback Callback used to load the data and to bind to views
@@ -48,17 +67,34 @@ public class ViewLoader<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE extends View
 	public ViewLoader(
 			VALUE_TYPE defaultValue,
 			LoadData<LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE> callback){
+		this(defaultValue, MAX_THREADS, callback);
+	}
 
-		executorService = Executors.newFixedThreadPool(MAX_THREADS);
+	/**
+	 * Create a view loader that asynchonously loads data and assigns to views, on a shared TaskScheduler lane. <br>
+	 * See stopThreads and restartThreads
+	 * @param defaultValue The default value to use when there is no data yet available
+	 * @param lane The lane that matches the work done in onGetData, for example DB for local queries and NETWORK for http lookups
+	 * @param callback Callback used to load the data and to bind to views
+	 */
+	public ViewLoader(
+			VALUE_TYPE defaultValue,
+			TaskScheduler.Lane lane,
+			LoadData<LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE> callback){
+
+		this.lane = lane;
+		this.maxThreads = 0;
+		executorService = TaskScheduler.getInstance().getExecutor(lane);
 		this.defaultValue = defaultValue;
 		this.loadDataCallback = callback;
 	}
 	
 	/**
-	 * Create a view loader that asynchonously loads data and assigns to views. <br>
+	 * Create a view loader that asynchonously loads data and assigns to views, with its own pool of threads
+	 * instead of a shared lane. <br>
 	 * See stopThreads and restartThreads
 	 * @param defaultValue The default value to use when there is no data yet available
-	 * @param maxThreads maximum threads to use. 15 is the default
+	 * @param maxThreads maximum threads to use.
 	 * @param callback Callback used to load the data and to bind to views
 	 */
 	public ViewLoader(
@@ -66,6 +102,8 @@ public class ViewLoader<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE extends View
 			int maxThreads,
 			LoadData<LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE> callback){
 
+		this.lane = null;
+		this.maxThreads = maxThreads;
 		executorService = Executors.newFixedThreadPool(maxThreads);
 		this.defaultValue = defaultValue;
 		this.loadDataCallback = callback;
@@ -110,6 +148,8 @@ public class ViewLoader<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE extends View
 
 		// attempt to access cached data
 		VALUE_TYPE valueToBind = memoryCache.getData(dataId);
+		if (prefetcher != null)
+			prefetcher.onDisplayed(dataId, valueToBind != null);
 
 		// no data picture, so queue the loader
 		if (valueToBind == null)
@@ -125,6 +165,93 @@ public class ViewLoader<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE extends View
 
 	}
 
+	/**
+	 * Load the data for the rows just past the visible ones in the direction of scroll into the cache, so they are
+	 * ready when shown. Runs on a single low priority thread, and never delays on-screen loads. With a {@link LoadDataBatch}
+	 * callback the prefetched ids join the next batch instead. Call from the ui thread, usually in onScroll.
+	 * @param position The last visible position when scrolling down, or the first visible position when scrolling up
+	 * @param velocity The scroll speed in rows per second, positive when scrolling down
+	 * @param provider Supplies the id and lookup for each position
+	 */
+	public void prefetch(
+			int position,
+			float velocity,
+			ScrollPrefetcher.PrefetchProvider<ID_TYPE, LOOKUP_TYPE> provider){
+		if (executorService == null)
+			return;
+		getPrefetcher().prefetch(position, velocity, provider);
+	}
+
+	/**
+	 * Set the max number of rows to prefetch ahead. Default is ScrollPrefetcher.DEFAULT_MAX_AHEAD. Resets the prefetch stats.
+	 * @param maxAhead
+	 */
+	public void setPrefetchMaxAhead(int maxAhead){
+		prefetchMaxAhead = maxAhead;
+		if (prefetcher != null)
+			prefetcher.stop();
+		prefetcher = null;
+	}
+
+	/**
+	 * The prefetcher, to read its hit rate
+	 * @return
+	 */
+	public ScrollPrefetcher<ID_TYPE, LOOKUP_TYPE> getPrefetcher(){
+		if (prefetcher == null){
+			prefetcher = new ScrollPrefetcher<ID_TYPE, LOOKUP_TYPE>(prefetchMaxAhead,
+					new ScrollPrefetcher.PrefetchTarget<ID_TYPE, LOOKUP_TYPE>() {
+
+				@Override
+				public boolean isLoadedOrLoading(ID_TYPE id) {
+					if (memoryCache.getData(id) != null)
+						return true;
+					synchronized (pendingLoads) {
+						return pendingLoads.containsKey(id);
+					}
+				}
+
+				@Override
+				public boolean prefetch(ID_TYPE id, LOOKUP_TYPE lookup) {
+					ExecutorService executor = executorService;
+					if (executor == null || memoryCache.getData(id) != null)
+						return false;
+
+					// register with no waiters, so views shown meanwhile join this load instead of starting another
+					synchronized (pendingLoads) {
+						if (pendingLoads.containsKey(id))
+							return false;
+						pendingLoads.put(id, new ArrayList<DataToLoad<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE>>(0));
+						if (loadDataCallback instanceof LoadDataBatch){
+							addToBatch(id, lookup, executor);
+							return true;
+						}
+					}
+
+					// load on the prefetch thread, and hand it to any views that joined
+					VALUE_TYPE data = null;
+					try{
+						data = loadDataCallback.onGetData(lookup);
+						if (data != null)
+							memoryCache.putData(id, data);
+					}finally{
+						deliverToWaiters(id, data);
+					}
+					return data != null;
+				}
+			});
+		}
+		return prefetcher;
+	}
+
+	/**
+	 * The queue that hands loaded data to the ui thread, to read its per frame stats
+	 * @return
+	 */
+	public UiDeliveryQueue getDeliveryQueue(){
+		return deliveryQueue;
+	}
+
 	/**
 	 * Return the memory cache.<br>
 	 * **** This should only be used when storing this memory cache to be passed into again useing restoreMemoryCache
@@ -140,8 +267,12 @@ public class ViewLoader<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE extends View
 	 * If threads already running, null operation.
 	 */
 	public void restartThreads(){
-		if (executorService == null)
-			executorService=Executors.newFixedThreadPool(MAX_THREADS);
+		if (executorService == null){
+			if (lane != null)
+				executorService = TaskScheduler.getInstance().getExecutor(lane);
+			else
+				executorService = Executors.newFixedThreadPool(maxThreads);
+		}
 	}
 
 	/**
@@ -159,19 +290,151 @@ public class ViewLoader<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE extends View
 	 * Stop background threads, usually call this on activity onPause
 	 */
 	public void stopThreads(){
-		if (executorService != null)
+		if (prefetcher != null)
+			prefetcher.stop();
+		// the shared lanes are never shut down, we just stop submitting to them
+		if (executorService != null && lane == null)
 			executorService.shutdown();
 		executorService = null;
 	}
 
 	/**
-	 * Add this data to the load queue
+	 * Set how batches are collected. Only used when the callback implements {@link LoadDataBatch}.
+	 * @param windowMs How long to collect keys after the first one arrives before sending the batch. Default 20ms
+	 * @param maxBatchSize Send the batch right away once it holds this many keys. Default 50
+	 */
+	public void setBatchParameters(long windowMs, int maxBatchSize){
+		if (windowMs < 0 || maxBatchSize < 1)
+			throw new IllegalArgumentException("windowMs must be >= 0 and maxBatchSize >= 1");
+		synchronized (pendingLoads) {
+			this.batchWindowMs = windowMs;
+			this.maxBatchSize = maxBatchSize;
+		}
+	}
+
+	/**
+	 * The number of ids that are currently queued or loading. Views waiting on the same id count once.
+	 * @return
+	 */
+	public int getPendingLoadCount(){
+		synchronized (pendingLoads) {
+			return pendingLoads.size();
+		}
+	}
+
+	/**
+	 * Add this data to the load queue. If this id is already queued or loading, the view is simply added
+	 * to the list of waiters for that id, and no new task is submitted.
 	 * @param data The data to queue up
 	 */
 	private void queueData(DataToLoad<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE> data)
 	{
-		if (executorService != null)
-			executorService.submit(new DataLoader(data));
+		ExecutorService executor = executorService;
+		if (executor == null)
+			return;
+
+		synchronized (pendingLoads) {
+			ArrayList<DataToLoad<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE>> waiters = pendingLoads.get(data.dataId);
+			if (waiters != null){
+				waiters.add(data);
+				return;
+			}
+			waiters = new ArrayList<DataToLoad<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE>>(1);
+			waiters.add(data);
+			pendingLoads.put(data.dataId, waiters);
+
+			// batch loaders collect the key for the next batch instead
+			if (loadDataCallback instanceof LoadDataBatch){
+				addToBatch(data.dataId, data.lookupData, executor);
+				return;
+			}
+		}
+		executor.submit(new DataLoader(data.dataId, data.lookupData));
+	}
+
+	/**
+	 * Add a key to the next batch, and send it if full or start the batch window. Must be called while holding pendingLoads.
+	 * @param dataId The id to load
+	 * @param lookupData The lookup for it
+	 * @param executor The executor to run the batch on
+	 */
+	private void addToBatch(ID_TYPE dataId, LOOKUP_TYPE lookupData, ExecutorService executor){
+		batchQueue.put(dataId, lookupData);
+		if (batchQueue.size() >= maxBatchSize){
+			submitBatch(executor);
+		}else if (!isBatchFlushScheduled){
+			isBatchFlushScheduled = true;
+			mainHandler.postDelayed(batchFlusher, batchWindowMs);
+		}
+	}
+
+	/**
+	 * Sends the batch collected so far when the batch window ends
+	 */
+	private final Runnable batchFlusher = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (pendingLoads) {
+				isBatchFlushScheduled = false;
+				ExecutorService executor = executorService;
+				if (executor != null){
+					submitBatch(executor);
+
+				// threads were stopped, so forget these ids so they can be requested again later
+				}else{
+					for (ID_TYPE dataId : batchQueue.keySet())
+						pendingLoads.remove(dataId);
+					batchQueue.clear();
+				}
+			}
+		}
+	};
+
+	/**
+	 * Submit all the collected keys as one batch. Must be called while holding pendingLoads.
+	 * @param executor The executor to run the batch on
+	 */
+	private void submitBatch(ExecutorService executor){
+		if (batchQueue.isEmpty())
+			return;
+		LinkedHashMap<ID_TYPE, LOOKUP_TYPE> batch = batchQueue;
+		batchQueue = new LinkedHashMap<ID_TYPE, LOOKUP_TYPE>();
+		executor.submit(new BatchLoader(batch));
+	}
+
+	/**
+	 * Remove the waiters for this id, so the next request for it starts a new load
+	 * @param dataId The id that finished loading
+	 * @return The views that were waiting, never null
+	 */
+	private ArrayList<DataToLoad<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE>> removeWaiters(ID_TYPE dataId){
+		synchronized (pendingLoads) {
+			ArrayList<DataToLoad<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE>> waiters = pendingLoads.remove(dataId);
+			if (waiters == null)
+				waiters = new ArrayList<DataToLoad<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE>>(0);
+			return waiters;
+		}
+	}
+
+	/**
+	 * Check if every view waiting on this id has been re-used, in which case there is no need to load it.
+	 * If so, the id is removed from the pending loads. A prefetch has no views waiting, and is always loaded.
+	 * @param dataId
+	 * @return true if nobody needs this data anymore
+	 */
+	private boolean removeIfAllReused(ID_TYPE dataId){
+		synchronized (pendingLoads) {
+			ArrayList<DataToLoad<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE>> waiters = pendingLoads.get(dataId);
+			if (waiters != null && waiters.isEmpty())
+				return false;
+			if (waiters != null){
+				for (DataToLoad<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE> waiter : waiters)
+					if (!viewReused(waiter))
+						return false;
+			}
+			pendingLoads.remove(dataId);
+			return true;
+		}
 	}
 
 	/**
@@ -213,9 +476,29 @@ public class ViewLoader<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE extends View
 		public void onBindView(VALUE_TYPE data, VIEW_TYPE view);
 	}
 
+	/**
+	 * Optional extension of LoadData that loads many keys in one call, for example one query or one http request.
+	 * If the callback passed to ViewLoader implements this, keys are collected for a short window
+	 * (see setBatchParameters) and onGetDataBatch is called instead of onGetData.
+	 * @author Kyle
+	 *
+	 * @param <KEY_TYPE> what identifies what data element we are on
+	 * @param <VALUE_TYPE> What type of data we will return
+	 * @param <VIEW_TYPE> The type of view we will be assigning data to
+	 */
+	public interface LoadDataBatch <KEY_TYPE, VALUE_TYPE, VIEW_TYPE>
+	extends LoadData<KEY_TYPE, VALUE_TYPE, VIEW_TYPE>{
+		/**
+		 * Load in the data for many keys at once. Called on a background thread.
+		 * @param keys The keys needed to get the data
+		 * @return A map from each key to its data. Missing keys are treated as unsuccessful.
+		 */
+		public Map<KEY_TYPE, VALUE_TYPE> onGetDataBatch(Collection<KEY_TYPE> keys);
+	}
+
 	//Used to display bitmap in the UI thread
 	private class DataDisplayer
-	implements Runnable
+	implements UiDeliveryQueue.Delivery
 	{
 		VALUE_TYPE value;
 		DataToLoad<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE> dataToLoad;
@@ -227,10 +510,13 @@ public class ViewLoader<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE extends View
 			value = data;
 			this.dataToLoad = dataToLoad;
 		}
-		public void run()
+		@Override
+		public boolean isStale(){
+			return viewReused(dataToLoad);
+		}
+		@Override
+		public void deliver()
 		{
-			if(viewReused(dataToLoad))
-				return;
 			VIEW_TYPE view = dataToLoad.viewSoftReference.get();
 			if (view == null)
 				return;
@@ -243,52 +529,107 @@ public class ViewLoader<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE extends View
 
 	private class DataLoader
 	implements Runnable {
-		DataToLoad<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE> dataToLoad;
+		ID_TYPE dataId;
+		LOOKUP_TYPE lookupData;
 
 		DataLoader(
-				DataToLoad<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE> dataToLoad){
-			this.dataToLoad = dataToLoad;
+				ID_TYPE dataId,
+				LOOKUP_TYPE lookupData){
+			this.dataId = dataId;
+			this.lookupData = lookupData;
 		}
 
 		@Override
 		public void run() {
-			// this is a recycle view, so don't do anything
-			if(viewReused(dataToLoad))
+			// all the views were recycled, so don't do anything
+			if(removeIfAllReused(dataId))
 				return;
 
-			// create a lock to control access to this thread for this object
-			synchronized (ViewLoader.this) {
-				if (dataLoadingLocks.get(dataToLoad.dataId) == null)
-					dataLoadingLocks.put(dataToLoad.dataId, new Object());
+			// load the data first from memory
+			VALUE_TYPE data = null;
+			try{
+				data = memoryCache.getData(dataId);
+				if (data == null)
+					data = loadDataCallback.onGetData(lookupData);
+				if (data != null)
+					memoryCache.putData(dataId, data);
+			}finally{
+				// always remove the waiters, even on failure
+				deliverToWaiters(dataId, data);
 			}
+		}
+	}
+
+	private class BatchLoader
+	implements Runnable {
+		LinkedHashMap<ID_TYPE, LOOKUP_TYPE> batch;
 
-			// synchronize access to only allow for each picture single access to this block, so as not to allow mutliple grabs of the same file
-			synchronized (dataLoadingLocks.get(dataToLoad.dataId)) {
+		BatchLoader(LinkedHashMap<ID_TYPE, LOOKUP_TYPE> batch){
+			this.batch = batch;
+		}
 
-				// load the data first from memory
-				VALUE_TYPE data = memoryCache.getData(dataToLoad.dataId);
-				if (data == null)
-					data = loadDataCallback.onGetData(dataToLoad.lookupData);
-				if (data != null)
-					memoryCache.putData(dataToLoad.dataId, data);
-
-				// recycled view
-				if(viewReused(dataToLoad))
-					return;
-
-				// load the data on the ui thread
-				if (data != null){
-					DataDisplayer bd = new DataDisplayer(data, dataToLoad);
-					View view = dataToLoad.viewSoftReference.get();
-					if (view != null){
-						Activity a=(Activity)view.getContext();
-						a.runOnUiThread(bd);
+		@Override
+		public void run() {
+			HashMap<ID_TYPE, VALUE_TYPE> values = new HashMap<ID_TYPE, VALUE_TYPE>(batch.size()*2);
+			try{
+				// skip ids nobody needs anymore, and ids that are already in memory
+				ArrayList<LOOKUP_TYPE> keys = new ArrayList<LOOKUP_TYPE>(batch.size());
+				for (Map.Entry<ID_TYPE, LOOKUP_TYPE> entry : batch.entrySet()){
+					if (removeIfAllReused(entry.getKey()))
+						continue;
+					VALUE_TYPE data = memoryCache.getData(entry.getKey());
+					if (data != null)
+						values.put(entry.getKey(), data);
+					else
+						keys.add(entry.getValue());
+				}
+
+				// one call for everything else
+				if (keys.size() > 0){
+					@SuppressWarnings("unchecked")
+					LoadDataBatch<LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE> batchCallback =
+						(LoadDataBatch<LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE>) loadDataCallback;
+					Map<LOOKUP_TYPE, VALUE_TYPE> result = batchCallback.onGetDataBatch(keys);
+					if (result != null){
+						for (Map.Entry<ID_TYPE, LOOKUP_TYPE> entry : batch.entrySet()){
+							VALUE_TYPE data = result.get(entry.getValue());
+							if (data != null && !values.containsKey(entry.getKey())){
+								memoryCache.putData(entry.getKey(), data);
+								values.put(entry.getKey(), data);
+							}
+						}
 					}
 				}
+			}finally{
+				// fan the results back out, and remove the waiters of every id, even on failure
+				for (ID_TYPE dataId : batch.keySet())
+					deliverToWaiters(dataId, values.get(dataId));
 			}
 		}
 	}
 
+	/**
+	 * Remove the views waiting on this id and post the data to each one that has not been recycled
+	 * @param dataId The id that finished loading
+	 * @param data The data, or null if it could not be loaded
+	 */
+	private void deliverToWaiters(ID_TYPE dataId, VALUE_TYPE data){
+		ArrayList<DataToLoad<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE>> waiters = removeWaiters(dataId);
+		if (data == null)
+			return;
+		for (DataToLoad<ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE> dataToLoad : waiters){
+
+			// recycled view
+			if(viewReused(dataToLoad))
+				continue;
+
+			// load the data on the ui thread, with everything else that finished this frame
+			View view = dataToLoad.viewSoftReference.get();
+			if (view != null)
+				deliveryQueue.post(view, new DataDisplayer(data, dataToLoad));
+		}
+	}
+
 	//Task for the queue
 	private static class DataToLoad <ID_TYPE, LOOKUP_TYPE, VALUE_TYPE, VIEW_TYPE>
 	{
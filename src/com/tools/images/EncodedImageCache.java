@@ -0,0 +1,324 @@
+package com.tools.images;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.tools.ExifHeader;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+/**
+ * A second, in memory cache tier that holds images still encoded (jpeg, webp, png), between MemoryCache and disk / web. <br>
+ * Encoded bytes are usually 5-10x smaller than the decoded bitmap, so many more images fit in the same memory, and a miss in
+ * MemoryCache only costs a decode from ram instead of a file read or download. Evicted least recently used, by a byte budget. <br>
+ * Thumbnails and full size pictures have separate budgets, so a few large pictures can't push out many thumbnails, and data
+ * larger than {@link #MAX_ENTRY_FRACTION} of its budget is not kept at all. Hit rate and decode latency are tracked, see the
+ * get* stats methods. Used by ImageLoader when its callback implements {@link ImageLoader.LoadImageBytes}. <br>
+ * Loaders share one default budget through {@link #createSharedView()}, each with its own ids, instead of each taking its own.
+ * @author Kyle
+ *
+ * @param <ID_TYPE> The type that identifies the picture
+ */
+public class EncodedImageCache <ID_TYPE>{
+
+	// constants
+	/** Default budget, 1/16 of the max heap, split evenly between thumbnails and full size pictures */
+	public static final int DEFAULT_MAX_BYTES = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory()/16);
+	/** Data larger than this fraction of its budget is not stored, it would push out everything else and then itself */
+	public static final float MAX_ENTRY_FRACTION = 0.25f;
+	private static final String LOG_TAG = "com.tools";
+
+	// private variables
+	private static LruCache<Key, byte[]> sharedThumbnails; 						// the default thumbnail budget, shared by all views
+	private static LruCache<Key, byte[]> sharedFullPictures; 					// the default full picture budget, shared by all views
+	private final LruCache<Key, byte[]> thumbnails; 							// the encoded thumbnails
+	private final LruCache<Key, byte[]> fullPictures; 							// the encoded full size pictures
+	private final Object owner = new Object(); 									// keeps the ids of this cache apart from others sharing the budget
+	private final AtomicLong hitCount = new AtomicLong(); 						// gets that found data
+	private final AtomicLong missCount = new AtomicLong(); 						// gets that found nothing
+	private final AtomicLong decodeCount = new AtomicLong(); 					// decodes from this tier
+	private final AtomicLong totalDecodeNanos = new AtomicLong(); 				// time spent decoding from this tier
+
+	/**
+	 * A cache on the default budget that is shared by every cache made this way. Ids of one cache don't collide
+	 * with the same ids of another, only the memory is shared.
+	 * @return A new cache on the shared budget
+	 */
+	public static <ID_TYPE> EncodedImageCache<ID_TYPE> createSharedView(){
+		synchronized (EncodedImageCache.class) {
+			if (sharedThumbnails == null){
+				sharedThumbnails = newLruCache(DEFAULT_MAX_BYTES/2);
+				sharedFullPictures = newLruCache(DEFAULT_MAX_BYTES/2);
+			}
+		}
+		return new EncodedImageCache<ID_TYPE>(sharedThumbnails, sharedFullPictures);
+	}
+
+	/**
+	 * Create a cache with its own budget, split evenly between thumbnails and full size pictures
+	 * @param maxBytes The max number of encoded bytes to hold
+	 */
+	public EncodedImageCache(int maxBytes){
+		this(maxBytes/2, maxBytes/2);
+	}
+
+	/**
+	 * Create a cache with its own budgets
+	 * @param maxThumbnailBytes The max number of encoded thumbnail bytes to hold
+	 * @param maxFullPictureBytes The max number of encoded full size bytes to hold
+	 */
+	public EncodedImageCache(int maxThumbnailBytes, int maxFullPictureBytes){
+		this(newLruCache(maxThumbnailBytes), newLruCache(maxFullPictureBytes));
+	}
+
+	private EncodedImageCache(LruCache<Key, byte[]> thumbnails, LruCache<Key, byte[]> fullPictures){
+		this.thumbnails = thumbnails;
+		this.fullPictures = fullPictures;
+	}
+
+	/**
+	 * A cache sized by the length of the data
+	 */
+	private static LruCache<Key, byte[]> newLruCache(int maxBytes){
+		return new LruCache<Key, byte[]>(Math.max(1, maxBytes)){
+			@Override
+			protected int sizeOf(Key key, byte[] value) {
+				return value.length;
+			}
+		};
+	}
+
+	/**
+	 * Store the encoded thumbnail
+	 * @param id The picture id
+	 * @param data The encoded bytes, not copied, so don't change them after
+	 */
+	public void putThumbnail(ID_TYPE id, byte[] data){
+		put(thumbnails, id, data);
+	}
+
+	/**
+	 * Store the encoded full size picture
+	 * @param id The picture id
+	 * @param data The encoded bytes, not copied, so don't change them after
+	 */
+	public void putFullPicture(ID_TYPE id, byte[] data){
+		put(fullPictures, id, data);
+	}
+
+	/**
+	 * @param id The picture id
+	 * @return The encoded thumbnail, or null if not in this tier
+	 */
+	public byte[] getThumbnail(ID_TYPE id){
+		return get(thumbnails, id);
+	}
+
+	/**
+	 * @param id The picture id
+	 * @return The encoded full size picture, or null if not in this tier
+	 */
+	public byte[] getFullPicture(ID_TYPE id){
+		return get(fullPictures, id);
+	}
+
+	/**
+	 * Decode the thumbnail from this tier, rotated by its exif orientation if it has one. Slow, don't call on the ui thread.
+	 * @param id The picture id
+	 * @return The bitmap, or null if not in this tier or it can't be decoded
+	 */
+	public Bitmap decodeThumbnail(ID_TYPE id){
+		return decodeThumbnail(getThumbnail(id));
+	}
+
+	/**
+	 * Decode encoded thumbnail data, rotated by its exif orientation if it has one, and count it in the decode stats.
+	 * Slow, don't call on the ui thread.
+	 * @param data The encoded bytes, can be null
+	 * @return The bitmap, or null if it can't be decoded
+	 */
+	public Bitmap decodeThumbnail(byte[] data){
+		if (data == null)
+			return null;
+		long start = System.nanoTime();
+		Bitmap bitmap = null;
+		try{
+			float angle = ExifHeader.orientationToAngle(ExifHeader.findOrientation(data, data.length).orientation);
+			if (angle == 0)
+				bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
+			else
+				bitmap = ImageLoader.getFullImage(data, angle, Integer.MAX_VALUE, Integer.MAX_VALUE);
+		}catch(OutOfMemoryError e){
+			Log.e(LOG_TAG, "out of memory decoding cached thumbnail");
+		}
+		recordDecode(start);
+		return bitmap;
+	}
+
+	/**
+	 * Decode the full size picture from this tier, scaled down to fit and rotated by its exif orientation.
+	 * Slow, don't call on the ui thread.
+	 * @param id The picture id
+	 * @param desiredWidth The max width
+	 * @param desiredHeight The max height
+	 * @return The bitmap, or null if not in this tier or it can't be decoded
+	 */
+	public Bitmap decodeFullPicture(ID_TYPE id, int desiredWidth, int desiredHeight){
+		return decodeFullPicture(getFullPicture(id), desiredWidth, desiredHeight);
+	}
+
+	/**
+	 * Decode encoded full size data, scaled down to fit and rotated by its exif orientation, and count it in the decode stats.
+	 * Slow, don't call on the ui thread.
+	 * @param data The encoded bytes, can be null
+	 * @param desiredWidth The max width
+	 * @param desiredHeight The max height
+	 * @return The bitmap, or null if it can't be decoded
+	 */
+	public Bitmap decodeFullPicture(byte[] data, int desiredWidth, int desiredHeight){
+		if (data == null)
+			return null;
+		long start = System.nanoTime();
+		float angle = ExifHeader.orientationToAngle(ExifHeader.findOrientation(data, data.length).orientation);
+		Bitmap bitmap = ImageLoader.getFullImage(data, angle, desiredWidth, desiredHeight);
+		recordDecode(start);
+		return bitmap;
+	}
+
+	/**
+	 * Remove both the thumbnail and full size picture of this id
+	 * @param id
+	 */
+	public void remove(ID_TYPE id){
+		thumbnails.remove(new Key(owner, id));
+		fullPictures.remove(new Key(owner, id));
+	}
+
+	/**
+	 * Empty the cache. On a shared budget, only the data of this cache is removed.
+	 */
+	public void clear(){
+		clear(thumbnails);
+		clear(fullPictures);
+	}
+
+	/**
+	 * @return The number of encoded bytes held, by every cache sharing the budget
+	 */
+	public int getSizeBytes(){
+		return thumbnails.size() + fullPictures.size();
+	}
+
+	/**
+	 * @return The max number of encoded bytes held, thumbnails plus full size pictures
+	 */
+	public int getMaxBytes(){
+		return thumbnails.maxSize() + fullPictures.maxSize();
+	}
+
+	/**
+	 * @return The fraction of gets that found data, 0 if none yet
+	 */
+	public float getHitRate(){
+		long hits = hitCount.get();
+		long total = hits + missCount.get();
+		if (total == 0)
+			return 0;
+		return (float) hits/total;
+	}
+
+	/**
+	 * @return The number of gets that found data
+	 */
+	public long getHitCount(){
+		return hitCount.get();
+	}
+
+	/**
+	 * @return The number of gets that found nothing
+	 */
+	public long getMissCount(){
+		return missCount.get();
+	}
+
+	/**
+	 * @return The average time to decode from this tier, in milliseconds, 0 if none yet
+	 */
+	public double getAverageDecodeMillis(){
+		long count = decodeCount.get();
+		if (count == 0)
+			return 0;
+		return totalDecodeNanos.get()/1e6/count;
+	}
+
+	/**
+	 * Store the data, unless it is too large for the budget
+	 */
+	private void put(LruCache<Key, byte[]> cache, ID_TYPE id, byte[] data){
+		if (data == null || data.length == 0)
+			return;
+		Key key = new Key(owner, id);
+		if (data.length > cache.maxSize()*MAX_ENTRY_FRACTION){
+			cache.remove(key);
+			return;
+		}
+		cache.put(key, data);
+	}
+
+	/**
+	 * Remove the data of this cache only
+	 */
+	private void clear(LruCache<Key, byte[]> cache){
+		for (Key key : cache.snapshot().keySet())
+			if (key.owner == owner)
+				cache.remove(key);
+	}
+
+	/**
+	 * Get and count hits and misses
+	 */
+	private byte[] get(LruCache<Key, byte[]> cache, ID_TYPE id){
+		byte[] data = cache.get(new Key(owner, id));
+		if (data == null)
+			missCount.incrementAndGet();
+		else
+			hitCount.incrementAndGet();
+		return data;
+	}
+
+	/**
+	 * Add the time since start to the decode stats
+	 */
+	private void recordDecode(long start){
+		totalDecodeNanos.addAndGet(System.nanoTime() - start);
+		decodeCount.incrementAndGet();
+	}
+
+	/**
+	 * The id plus the cache it belongs to
+	 */
+	private static class Key{
+		final Object owner;
+		final Object id;
+
+		Key(Object owner, Object id){
+			this.owner = owner;
+			this.id = id;
+		}
+
+		@Override
+		public int hashCode() {
+			return (id == null ? 0 : id.hashCode())*31 + System.identityHashCode(owner);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return owner == other.owner && (id == null ? other.id == null : id.equals(other.id));
+		}
+	}
+}
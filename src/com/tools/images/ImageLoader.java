@@ -8,19 +8,22 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
+import com.tools.ExifHeader;
 import com.tools.ImageProcessing;
+import com.tools.ScrollPrefetcher;
 import com.tools.SuccessReason;
+import com.tools.TaskScheduler;
+import com.tools.UiDeliveryQueue;
 
-import android.app.Activity;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
@@ -35,7 +38,7 @@ public class ImageLoader<ID_TYPE, THUMBNAIL_TYPE, FULL_IMAGE_TYPE>{
 	private MemoryCache<ID_TYPE> memoryCache = new MemoryCache<ID_TYPE>(); 	// This stores the bitmaps in memory
 	private Map<ImageView, ID_TYPE> imageViews =
 			Collections.synchronizedMap(new WeakHashMap<ImageView, ID_TYPE>()); // keeps track of links between views and pictures	
-	private ExecutorService executorService;  								// run the threads
+	private ExecutorService executorService;  								// the CPU lane, where each load starts, null when stopped
 	private final int stub_id;	 											// The resource id of the default image
 
 	private final int desiredWidth; 										// The desired width of full size image
@@ -44,15 +47,25 @@ public class ImageLoader<ID_TYPE, THUMBNAIL_TYPE, FULL_IMAGE_TYPE>{
 	private LoadImage<THUMBNAIL_TYPE, FULL_IMAGE_TYPE> loadImageCallback;	// callback to load images
 	private Map<ID_TYPE, Object> thumbnailsLoadingLocks = Collections.synchronizedMap(new HashMap<ID_TYPE, Object>());
 	private Map<ID_TYPE, Object> fullSizeLoadingLocks = Collections.synchronizedMap(new HashMap<ID_TYPE, Object>());
+	private EncodedImageCache<ID_TYPE> encodedCache; 						// encoded bytes, only used with LoadImageBytes callbacks
+	private final UiDeliveryQueue deliveryQueue = new UiDeliveryQueue(); 	// hands loaded bitmaps to the ui thread once per frame
+	private ScrollPrefetcher<ID_TYPE, THUMBNAIL_TYPE> prefetcher; 			// loads thumbnails ahead of scrolling, created on first use
+	private int prefetchMaxAhead = ScrollPrefetcher.DEFAULT_MAX_AHEAD; 		// max rows to prefetch ahead
+	private final HashMap<ID_TYPE, ArrayList<PhotosLoader>> loadingThumbnails =
+			new HashMap<ID_TYPE, ArrayList<PhotosLoader>>(); 				// ids whose thumbnail a loader or prefetch is loading, with the loaders waiting on it
 
 	// constants
-	private static final int MAX_THREADS = 15; 								// max threads to spawn
 	private static final long REQUIRED_BYTES = 4000000; 					// we must have this many bytes or we will clear the cache
 	private static final long DOWNLOAD_TIMEOUT = 30000; 					// time in milliseconds to wait for image to download
 	private static final String LOG_TAG = "com.tools";
+	private static final int STEP_MEMORY = 0; 								// PhotosLoader steps, see PhotosLoader
+	private static final int STEP_LOCAL = 1;
+	private static final int STEP_WEB = 2;
 
 	/**
 	 * Create an image loader that asynchonously loads images both from file and the webs. <br>
+	 * Loads run on the shared TaskScheduler lanes, a step at a time: the memory and encoded caches on CPU, the local
+	 * callbacks on DISK, and the web callbacks on NETWORK, so a slow download never holds a disk thread. <br>
 	 * See stopThreads and restartThreads
 	 * @param defaultImageId The resource id of the default image to display when no data is available
 	 * @param desiredWidth The max desired width of the full size image on screen
@@ -67,12 +80,14 @@ public class ImageLoader<ID_TYPE, THUMBNAIL_TYPE, FULL_IMAGE_TYPE>{
 			boolean showFullImage,
 			LoadImage<THUMBNAIL_TYPE, FULL_IMAGE_TYPE> loadImage){
 
-		executorService=Executors.newFixedThreadPool(MAX_THREADS);
+		executorService = TaskScheduler.getInstance().getExecutor(TaskScheduler.Lane.CPU);
 		stub_id = defaultImageId;
 		this.desiredHeight = desiredHeight;
 		this.desiredWidth = desiredWidth;
 		this.showFullImage = showFullImage;
 		this.loadImageCallback = loadImage;
+		if (loadImage instanceof LoadImageBytes)
+			encodedCache = EncodedImageCache.createSharedView();
 	}
 
 	/**
@@ -103,22 +118,17 @@ public class ImageLoader<ID_TYPE, THUMBNAIL_TYPE, FULL_IMAGE_TYPE>{
 
 		// read the file data
 		byte[] b = null;
-		ExifInterface exif = null;
 		try{
 			b = new byte[(int)f.length()];
 			f.read(b);
 			f.close();
-
-			// read the orientaion
-			exif = new ExifInterface(fullFile);
 		}catch(IOException e){
 			e.printStackTrace();
 			return false;
 		}
 
-		// grab the rotation
-		int rotation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, 
-				ExifInterface.ORIENTATION_UNDEFINED);
+		// grab the rotation from the header of the data we already have
+		int rotation = ExifHeader.findOrientation(b, b.length).orientation;
 
 		// create the byte array
 		Bitmap thumbnail = ImageProcessing.makeThumbnail(
@@ -365,7 +375,7 @@ public class ImageLoader<ID_TYPE, THUMBNAIL_TYPE, FULL_IMAGE_TYPE>{
 				// attempt to access cached full picture
 				Bitmap bitmap = null;
 				if (showFullImage)
-					bitmap = memoryCache.getFullPicture(pictureRowId);
+					bitmap = memoryCache.getFullPicture(pictureRowId, desiredWidth, desiredHeight);
 
 				// no full picture, so queue the photo loader, and check for thumbnail
 				if (bitmap == null){
@@ -376,6 +386,10 @@ public class ImageLoader<ID_TYPE, THUMBNAIL_TYPE, FULL_IMAGE_TYPE>{
 						queuePhoto(data, false);
 				}
 
+				// keep track of prefetch hits
+				if (prefetcher != null)
+					prefetcher.onDisplayed(pictureRowId, bitmap != null);
+
 				// see if we have a bitmap to access
 				if(bitmap!=null)
 					imageView.setImageBitmap(bitmap);
@@ -385,6 +399,208 @@ public class ImageLoader<ID_TYPE, THUMBNAIL_TYPE, FULL_IMAGE_TYPE>{
 					imageView.setImageResource(stub_id);
 	}
 	
+	/**
+	 * Load the thumbnails for the rows just past the visible ones in the direction of scroll into the cache, so they are
+	 * ready when shown. Runs on a single low priority thread, and never delays on-screen loads. Call from the ui thread,
+	 * usually in onScroll.
+	 * @param position The last visible position when scrolling down, or the first visible position when scrolling up
+	 * @param velocity The scroll speed in rows per second, positive when scrolling down
+	 * @param provider Supplies the picture id and thumbnail data for each position
+	 */
+	public void prefetch(
+			int position,
+			float velocity,
+			ScrollPrefetcher.PrefetchProvider<ID_TYPE, THUMBNAIL_TYPE> provider){
+		if (executorService == null)
+			return;
+		getPrefetcher().prefetch(position, velocity, provider);
+	}
+
+	/**
+	 * Set the max number of rows to prefetch ahead. Default is ScrollPrefetcher.DEFAULT_MAX_AHEAD. Resets the prefetch stats.
+	 * @param maxAhead
+	 */
+	public void setPrefetchMaxAhead(int maxAhead){
+		prefetchMaxAhead = maxAhead;
+		if (prefetcher != null)
+			prefetcher.stop();
+		prefetcher = null;
+	}
+
+	/**
+	 * The prefetcher, to read its hit rate
+	 * @return
+	 */
+	public ScrollPrefetcher<ID_TYPE, THUMBNAIL_TYPE> getPrefetcher(){
+		if (prefetcher == null){
+			prefetcher = new ScrollPrefetcher<ID_TYPE, THUMBNAIL_TYPE>(prefetchMaxAhead,
+					new ScrollPrefetcher.PrefetchTarget<ID_TYPE, THUMBNAIL_TYPE>() {
+
+				@Override
+				public boolean isLoadedOrLoading(ID_TYPE id) {
+					if (memoryCache.getThumbnail(id) != null)
+						return true;
+					synchronized (loadingThumbnails) {
+						return loadingThumbnails.containsKey(id);
+					}
+				}
+
+				@Override
+				public boolean prefetch(ID_TYPE id, THUMBNAIL_TYPE thumbnail) {
+					if (memoryCache.getThumbnail(id) != null || !claimThumbnail(id, null))
+						return false;
+
+					// loaders that reach this id meanwhile wait for this load instead of starting their own
+					Bitmap bmp = null;
+					try{
+						bmp = loadThumbnail(id, thumbnail);
+						if (bmp != null)
+							memoryCache.putThumbnail(id, bmp);
+					}finally{
+						releaseThumbnail(id, bmp);
+					}
+					return bmp != null;
+				}
+			});
+		}
+		return prefetcher;
+	}
+
+	/**
+	 * The encoded image tier, to read its stats or share it with another loader. Null unless the callback implements LoadImageBytes.
+	 * @return
+	 */
+	public EncodedImageCache<ID_TYPE> getEncodedCache(){
+		return encodedCache;
+	}
+
+	/**
+	 * Set the encoded image tier, for example to share one between loaders or to change its budget.
+	 * Only used when the callback implements LoadImageBytes. Null to not use a tier.
+	 * @param cache
+	 */
+	public void setEncodedCache(EncodedImageCache<ID_TYPE> cache){
+		encodedCache = cache;
+	}
+
+	/**
+	 * Mark the thumbnail of this id as being loaded, so it is not loaded twice at the same time
+	 * @param id The picture id
+	 * @param waiter The loader to resume when the load already running finishes, or null to not wait
+	 * @return true if the caller should load it, false if it is already being loaded
+	 */
+	private boolean claimThumbnail(ID_TYPE id, PhotosLoader waiter){
+		synchronized (loadingThumbnails) {
+			ArrayList<PhotosLoader> waiters = loadingThumbnails.get(id);
+			if (waiters != null){
+				if (waiter != null)
+					waiters.add(waiter);
+				return false;
+			}
+			loadingThumbnails.put(id, new ArrayList<PhotosLoader>(0));
+			return true;
+		}
+	}
+
+	/**
+	 * The thumbnail load of this id is done, resume the loaders waiting on it
+	 * @param id The picture id
+	 * @param bmp The thumbnail, or null if it was not found, in which case each waiter looks for it itself
+	 */
+	private void releaseThumbnail(ID_TYPE id, Bitmap bmp){
+		ArrayList<PhotosLoader> waiters;
+		synchronized (loadingThumbnails) {
+			waiters = loadingThumbnails.remove(id);
+		}
+		if (waiters == null)
+			return;
+		for (PhotosLoader waiter : waiters)
+			waiter.resume(bmp);
+	}
+
+	/**
+	 * Load the thumbnail from the encoded tier, then the local and web callbacks. Not from memoryCache.
+	 * @param id The picture id
+	 * @param thumbnail The data needed to load the thumbnail
+	 * @return The bitmap, or null if unsuccessful
+	 */
+	private Bitmap loadThumbnail(ID_TYPE id, THUMBNAIL_TYPE thumbnail){
+		Bitmap bmp = decodeThumbnailFromTier(id);
+		if (bmp == null)
+			bmp = loadThumbnailLocal(id, thumbnail);
+		if (bmp == null)
+			bmp = loadImageCallback.onThumbnailWeb(thumbnail);
+		return bmp;
+	}
+
+	/**
+	 * Decode the thumbnail from bytes already in the encoded tier. Only cpu work.
+	 * @param id The picture id
+	 * @return The bitmap, or null if there is no tier or the bytes are not in it
+	 */
+	private Bitmap decodeThumbnailFromTier(ID_TYPE id){
+		EncodedImageCache<ID_TYPE> encoded = encodedCache;
+		if (encoded == null || !(loadImageCallback instanceof LoadImageBytes))
+			return null;
+		return encoded.decodeThumbnail(id);
+	}
+
+	/**
+	 * Load the thumbnail with the local callbacks, the encoded bytes first if the callback has them
+	 * @param id The picture id
+	 * @param thumbnail The data needed to load the thumbnail
+	 * @return The bitmap, or null if unsuccessful
+	 */
+	@SuppressWarnings("unchecked")
+	private Bitmap loadThumbnailLocal(ID_TYPE id, THUMBNAIL_TYPE thumbnail){
+		Bitmap bmp = null;
+		EncodedImageCache<ID_TYPE> encoded = encodedCache;
+		if (encoded != null && loadImageCallback instanceof LoadImageBytes){
+			byte[] data = ((LoadImageBytes<THUMBNAIL_TYPE, FULL_IMAGE_TYPE>) loadImageCallback).onThumbnailBytes(thumbnail);
+			encoded.putThumbnail(id, data);
+			bmp = encoded.decodeThumbnail(data);
+		}
+		if (bmp == null)
+			bmp = loadImageCallback.onThumbnailLocal(thumbnail);
+		return bmp;
+	}
+
+	/**
+	 * Decode the full picture from bytes already in the encoded tier. Only cpu work.
+	 * @param id The picture id
+	 * @return The bitmap, or null if there is no tier or the bytes are not in it
+	 */
+	private Bitmap decodeFullPictureFromTier(ID_TYPE id){
+		EncodedImageCache<ID_TYPE> encoded = encodedCache;
+		if (encoded == null || !(loadImageCallback instanceof LoadImageBytes))
+			return null;
+		return encoded.decodeFullPicture(id, desiredWidth, desiredHeight);
+	}
+
+	/**
+	 * Load the full picture from the encoded bytes of the callback
+	 * @param id The picture id
+	 * @param fullPicture The data needed to load the full picture
+	 * @return The bitmap, or null if there is no tier or the callback has no bytes
+	 */
+	@SuppressWarnings("unchecked")
+	private Bitmap loadFullPictureFromBytes(ID_TYPE id, FULL_IMAGE_TYPE fullPicture){
+		EncodedImageCache<ID_TYPE> encoded = encodedCache;
+		if (encoded == null || !(loadImageCallback instanceof LoadImageBytes))
+			return null;
+		byte[] data = ((LoadImageBytes<THUMBNAIL_TYPE, FULL_IMAGE_TYPE>) loadImageCallback).onFullSizeBytes(fullPicture);
+		encoded.putFullPicture(id, data);
+		return encoded.decodeFullPicture(data, desiredWidth, desiredHeight);
+	}
+
+	/**
+	 * The queue that hands loaded bitmaps to the ui thread, to read its per frame stats
+	 * @return
+	 */
+	public UiDeliveryQueue getDeliveryQueue(){
+		return deliveryQueue;
+	}
+
 	/**
 	 * Null the reference at a particular picture id.
 	 * @param id The id to null at
@@ -409,7 +625,7 @@ public class ImageLoader<ID_TYPE, THUMBNAIL_TYPE, FULL_IMAGE_TYPE>{
 	 */
 	public void restartThreads(){
 		if (executorService == null)
-			executorService=Executors.newFixedThreadPool(MAX_THREADS);
+			executorService = TaskScheduler.getInstance().getExecutor(TaskScheduler.Lane.CPU);
 	}
 
 	/**
@@ -427,8 +643,9 @@ public class ImageLoader<ID_TYPE, THUMBNAIL_TYPE, FULL_IMAGE_TYPE>{
 	 * Stop background threads, usually call this on activity onPause
 	 */
 	public void stopThreads(){
-		if (executorService != null)
-			executorService.shutdown();
+		if (prefetcher != null)
+			prefetcher.stop();
+		// the shared lanes are never shut down, we just stop submitting to them
 		executorService = null;
 	}
 
@@ -521,9 +738,35 @@ public class ImageLoader<ID_TYPE, THUMBNAIL_TYPE, FULL_IMAGE_TYPE>{
 		public Bitmap onThumbnailWeb(THUMBNAIL_TYPE thumbnailData);
 	}
 
+	/**
+	 * Optional extension of LoadImage for images that are available as encoded bytes, for example from
+	 * getThumbnailAsByteArray or a downloaded body. The bytes are kept in an EncodedImageCache, so a miss in the
+	 * bitmap cache decodes from ram instead of reading the file or downloading again. If these return null,
+	 * the LoadImage methods are used as usual.
+	 * @author Kyle
+	 *
+	 * @param <THUMBNAIL_TYPE>
+	 * @param <FULL_IMAGE_TYPE>
+	 */
+	public interface LoadImageBytes <THUMBNAIL_TYPE, FULL_IMAGE_TYPE>
+	extends LoadImage<THUMBNAIL_TYPE, FULL_IMAGE_TYPE>{
+		/**
+		 * Load the encoded thumbnail
+		 * @param thumbnailData The data needed to get the picture
+		 * @return The encoded bytes, or null to use onThumbnailLocal / onThumbnailWeb
+		 */
+		public byte[] onThumbnailBytes(THUMBNAIL_TYPE thumbnailData);
+		/**
+		 * Load the encoded full size picture. It is scaled down to the desired size and rotated by its exif orientation when decoded.
+		 * @param fullSizeData The data needed to get the picture
+		 * @return The encoded bytes, or null to use onFullSizeLocal / onFullSizeWeb
+		 */
+		public byte[] onFullSizeBytes(FULL_IMAGE_TYPE fullSizeData);
+	}
+
 	//Used to display bitmap in the UI thread
 	private class BitmapDisplayer
-	implements Runnable
+	implements UiDeliveryQueue.Delivery
 	{
 		Bitmap bitmap;
 		PhotoToLoad<ID_TYPE, THUMBNAIL_TYPE, FULL_IMAGE_TYPE> photoToLoad;
@@ -534,10 +777,13 @@ public class ImageLoader<ID_TYPE, THUMBNAIL_TYPE, FULL_IMAGE_TYPE>{
 			bitmap=b;
 			photoToLoad=p;
 		}
-		public void run()
+		@Override
+		public boolean isStale(){
+			return imageViewReused(photoToLoad);
+		}
+		@Override
+		public void deliver()
 		{
-			if(imageViewReused(photoToLoad))
-				return;
 			ImageView image = photoToLoad.imageViewSoftReference.get();
 			if (image == null)
 				return;
@@ -548,91 +794,253 @@ public class ImageLoader<ID_TYPE, THUMBNAIL_TYPE, FULL_IMAGE_TYPE>{
 		}
 	}
 
+	/**
+	 * Loads one picture a step at a time, each step on the lane that matches its work, and only moves on to the next step
+	 * for what is still missing. MEMORY runs on CPU, LOCAL on DISK and WEB on NETWORK. <br>
+	 * Before loading a thumbnail past memory, the loader claims its id. If a prefetch or another loader already has it,
+	 * this one waits and is resumed with the result, see claimThumbnail.
+	 */
 	private class PhotosLoader
 	implements Runnable {
 		PhotoToLoad<ID_TYPE, THUMBNAIL_TYPE, FULL_IMAGE_TYPE> photoToLoad;
-		boolean getThumbnailFirst;
-		boolean showFullImage;
+		boolean getThumbnailFirst; 							// the thumbnail is still wanted for display
+		boolean isThumbnailMissing; 						// the thumbnail has not been found yet, it is made from the full picture if never found
+		boolean showFullImage; 								// the full picture is still wanted
+		int step = STEP_MEMORY; 							// the step to run next
+		boolean isThumbnailOwner; 							// we claimed the thumbnail load of this id
+		boolean hasSharedThumbnail; 						// resumed after waiting on another load of the thumbnail
+		Bitmap sharedThumbnail; 							// the thumbnail that load found, null if none
 		PhotosLoader(
 				PhotoToLoad<ID_TYPE, THUMBNAIL_TYPE, FULL_IMAGE_TYPE> photoToLoad,
 				boolean getThumbnailFirst,
 				boolean showFullImage){
 			this.photoToLoad=photoToLoad;
 			this.getThumbnailFirst = getThumbnailFirst;
+			this.isThumbnailMissing = getThumbnailFirst;
 			this.showFullImage = showFullImage;
 		}
 
 		@Override
 		public void run() {
-			// this is a recycle view, so don't do anything
-			if(imageViewReused(photoToLoad))
+			boolean isContinuing = false;
+			try{
+				// this is a recycle view, so don't do anything
+				if(imageViewReused(photoToLoad))
+					return;
+
+				switch (step){
+				case STEP_MEMORY:
+					isContinuing = runMemory();
+					break;
+				case STEP_LOCAL:
+					isContinuing = runLocal();
+					break;
+				case STEP_WEB:
+					isContinuing = runWeb();
+					break;
+				}
+			}finally{
+				// we are done, even on failure, so let anyone waiting on our thumbnail look for it themselves
+				if (!isContinuing && isThumbnailOwner){
+					isThumbnailOwner = false;
+					releaseThumbnail(photoToLoad.pictureId, null);
+				}
+			}
+		}
+
+		/**
+		 * Continue after waiting on another load of the thumbnail. Runs the local step again, which shows the thumbnail,
+		 * or looks for it itself if it was not found.
+		 * @param bmp The thumbnail, or null if not found
+		 */
+		void resume(Bitmap bmp){
+			sharedThumbnail = bmp;
+			hasSharedThumbnail = true;
+			if (executorService == null)
 				return;
+			TaskScheduler.getInstance().getExecutor(TaskScheduler.Lane.DISK).submit(this);
+		}
 
+		/**
+		 * The memory cache, a downscale of a larger cached variant, and the encoded tier. Only cpu work.
+		 * @return true if the next step was queued
+		 */
+		private boolean runMemory(){
 			// create a lock to control access to this thread for this object
 			if (thumbnailsLoadingLocks.get(photoToLoad.pictureId) == null)
 				thumbnailsLoadingLocks.put(photoToLoad.pictureId, new Object());
 			if (fullSizeLoadingLocks.get(photoToLoad.pictureId) == null)
 				fullSizeLoadingLocks.put(photoToLoad.pictureId, new Object());
 
-			// synchronize access to only allow for each picture single access to this block, so as not to allow mutliple grabs of the same file
-			//synchronized (thumbnailsLoadingLocks.get(photoToLoad.pictureId)) {
-
-			// should we grab the thumbnail first?
-			if (getThumbnailFirst){
+			if (isThumbnailMissing){
 				Bitmap bmp = memoryCache.getThumbnail(photoToLoad.pictureId);
-				if (bmp == null)
-					bmp = loadImageCallback.onThumbnailLocal(photoToLoad.thumbnail);
-				if (bmp == null)
-					bmp = loadImageCallback.onThumbnailWeb(photoToLoad.thumbnail);
-				if (bmp == null)
-					loadImageCallback.createThumbnailFromFull(photoToLoad.thumbnail, photoToLoad.fullPicture);
-				if (bmp != null)
-					memoryCache.putThumbnail(photoToLoad.pictureId, bmp);
+				if (bmp == null){
+					bmp = decodeThumbnailFromTier(photoToLoad.pictureId);
+					if (bmp != null)
+						memoryCache.putThumbnail(photoToLoad.pictureId, bmp);
+				}
+				deliverThumbnail(bmp);
+			}
 
-				// recycled view
-				if(imageViewReused(photoToLoad))
-					return;
+			if (showFullImage){
+				Bitmap fullBmp = memoryCache.getFullPicture(photoToLoad.pictureId, desiredWidth, desiredHeight);
+				clearCacheIfNeeded();
+
+				// shrink a larger cached variant instead of decoding again
+				if (fullBmp == null){
+					Bitmap larger = memoryCache.getLargerFullPicture(photoToLoad.pictureId, desiredWidth, desiredHeight);
+					if (larger != null){
+						try{
+							fullBmp = MemoryCache.downscale(larger, desiredWidth, desiredHeight);
 
-				// load the bitmap on the ui thread
-				if (bmp != null){
-					BitmapDisplayer bd = new BitmapDisplayer(bmp, photoToLoad);
-					ImageView image = photoToLoad.imageViewSoftReference.get();
-					if (image != null){
-						Activity a=(Activity)image.getContext();
-						a.runOnUiThread(bd);
+							// keep it for this size, so the next bind is a plain cache hit instead of another downscale
+							memoryCache.putFullPicture(photoToLoad.pictureId, desiredWidth, desiredHeight, fullBmp);
+						}catch(OutOfMemoryError e){
+							Log.e(LOG_TAG, "out of memory downscaling cached picture");
+						}
 					}
 				}
+				if (fullBmp == null)
+					fullBmp = decodeFullPictureFromTier(photoToLoad.pictureId);
+				deliverFull(fullBmp);
 			}
-			//}
 
-			//synchronized (fullSizeLoadingLocks.get(photoToLoad.pictureId)) {
+			return next(STEP_LOCAL, TaskScheduler.Lane.DISK);
+		}
+
+		/**
+		 * The local callbacks, which read files and decode them
+		 * @return true if the next step was queued, or we are waiting on another load of the thumbnail
+		 */
+		private boolean runLocal(){
+			// the thumbnail from the load we waited on
+			if (hasSharedThumbnail){
+				Bitmap shared = sharedThumbnail;
+				hasSharedThumbnail = false;
+				sharedThumbnail = null;
+				deliverThumbnail(shared);
+			}
+
+			// someone else is loading the thumbnail, so wait to be resumed
+			if (isThumbnailMissing && !isThumbnailOwner){
+				if (!claimThumbnail(photoToLoad.pictureId, this))
+					return true;
+				isThumbnailOwner = true;
+			}
+
+			if (isThumbnailMissing){
+				Bitmap bmp = loadThumbnailLocal(photoToLoad.pictureId, photoToLoad.thumbnail);
+				if (bmp != null)
+					memoryCache.putThumbnail(photoToLoad.pictureId, bmp);
+				deliverThumbnail(bmp);
+			}
 
-			// grab the full picture
 			if (showFullImage){
-				Bitmap fullBmp = memoryCache.getFullPicture(photoToLoad.pictureId);
-				clearCacheIfNeeded();
+				Bitmap fullBmp = loadFullPictureFromBytes(photoToLoad.pictureId, photoToLoad.fullPicture);
 				if (fullBmp == null)
 					fullBmp = loadImageCallback.onFullSizeLocal(photoToLoad.fullPicture, desiredWidth, desiredHeight);
-				if (fullBmp == null)
-					fullBmp = loadImageCallback.onFullSizeWeb(photoToLoad.fullPicture, desiredWidth, desiredHeight, photoToLoad.weakProgress);
 				if (fullBmp != null)
-					memoryCache.putFullPicture(photoToLoad.pictureId, fullBmp);
+					memoryCache.putFullPicture(photoToLoad.pictureId, desiredWidth, desiredHeight, fullBmp);
+				deliverFull(fullBmp);
+			}
 
-				// recycled view
-				if(imageViewReused(photoToLoad))
-					return;
+			// the full picture is already shown, so make the missing thumbnail from it here instead of asking the web
+			if (isThumbnailMissing && !getThumbnailFirst){
+				loadImageCallback.createThumbnailFromFull(photoToLoad.thumbnail, photoToLoad.fullPicture);
+				finishThumbnail(null);
+			}
 
-				// load the bitmap on the ui thread
-				if (fullBmp != null){
-					BitmapDisplayer bd = new BitmapDisplayer(fullBmp, photoToLoad);
-					ImageView image = photoToLoad.imageViewSoftReference.get();
-					if (image != null){
-						Activity a=(Activity)image.getContext();
-						a.runOnUiThread(bd);
-					}
+			return next(STEP_WEB, TaskScheduler.Lane.NETWORK);
+		}
+
+		/**
+		 * The web callbacks, which can block on a download for a long time
+		 * @return false, this is the last step
+		 */
+		private boolean runWeb(){
+			if (getThumbnailFirst){
+				Bitmap bmp = loadImageCallback.onThumbnailWeb(photoToLoad.thumbnail);
+				if (bmp == null){
+					loadImageCallback.createThumbnailFromFull(photoToLoad.thumbnail, photoToLoad.fullPicture);
+					finishThumbnail(null);
 				}
+				if (bmp != null)
+					memoryCache.putThumbnail(photoToLoad.pictureId, bmp);
+				deliverThumbnail(bmp);
 			}
-			//}
+
+			if(imageViewReused(photoToLoad))
+				return false;
+
+			if (showFullImage){
+				Bitmap fullBmp = loadImageCallback.onFullSizeWeb(photoToLoad.fullPicture, desiredWidth, desiredHeight, photoToLoad.weakProgress);
+				if (fullBmp != null)
+					memoryCache.putFullPicture(photoToLoad.pictureId, desiredWidth, desiredHeight, fullBmp);
+				deliverFull(fullBmp);
+			}
+			return false;
+		}
+
+		/**
+		 * Stop looking for the thumbnail if found, and show it unless the full picture is already shown
+		 */
+		private void deliverThumbnail(Bitmap bmp){
+			if (bmp == null)
+				return;
+			finishThumbnail(bmp);
+			if (!getThumbnailFirst)
+				return;
+			getThumbnailFirst = false;
+			post(bmp);
+		}
+
+		/**
+		 * Stop looking for the thumbnail, and hand it to the loaders waiting on our claim
+		 * @param bmp The thumbnail, or null if it was made from the full picture instead of loaded
+		 */
+		private void finishThumbnail(Bitmap bmp){
+			isThumbnailMissing = false;
+			if (isThumbnailOwner){
+				isThumbnailOwner = false;
+				releaseThumbnail(photoToLoad.pictureId, bmp);
+			}
+		}
+
+		/**
+		 * Show the full picture if found, and stop looking for it. The thumbnail would only cover it, so it is no longer
+		 * shown, but a missing one is still looked for locally and made from the full picture.
+		 */
+		private void deliverFull(Bitmap bmp){
+			if (bmp == null)
+				return;
+			showFullImage = false;
+			getThumbnailFirst = false;
+			post(bmp);
+		}
+
+		/**
+		 * Load the bitmap on the ui thread, with everything else that finished this frame
+		 */
+		private void post(Bitmap bmp){
+			if(imageViewReused(photoToLoad))
+				return;
+			ImageView image = photoToLoad.imageViewSoftReference.get();
+			if (image != null)
+				deliveryQueue.post(image, new BitmapDisplayer(bmp, photoToLoad));
+		}
+
+		/**
+		 * Queue the next step on its lane, if anything is still missing and we are still running
+		 * @return true if queued
+		 */
+		private boolean next(int nextStep, TaskScheduler.Lane lane){
+			if (!getThumbnailFirst && !isThumbnailMissing && !showFullImage)
+				return false;
+			if (executorService == null || imageViewReused(photoToLoad))
+				return false;
+			step = nextStep;
+			TaskScheduler.getInstance().getExecutor(lane).submit(this);
+			return true;
 		}
 	}
 
@@ -6,6 +6,7 @@ import java.io.IOException;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
@@ -42,6 +43,7 @@ implements IDisposable {
 	final protected float				MAX_ZOOM				= 8.0f;
 
 	private OnBitmapChangedListener	mListener;
+	protected TiledBitmapLoader			mTileLoader			= null;
 
 	public ImageViewTouchBase( Context context )
 	{
@@ -98,6 +100,45 @@ implements IDisposable {
 		center( true, true);
 	}
 
+	/**
+	 * Show a large image in tiles. The loader's low resolution base layer is shown as the bitmap, and when zoomed in,
+	 * full resolution tiles of the visible region are drawn over it as they are decoded. Setting any other bitmap ends tiled mode.
+	 * @param loader The tile loader, it is closed when a different image is set or on {@link #dispose()}. Null to clear.
+	 * @param reset Reset the zoom and pan
+	 */
+	public void setImageTiledReset( final TiledBitmapLoader loader, final boolean reset )
+	{
+		if ( mTileLoader != null && mTileLoader != loader ) {
+			mTileLoader.close();
+		}
+		mTileLoader = loader;
+		if ( loader == null ) {
+			setImageBitmapReset( null, reset );
+			return;
+		}
+		loader.setOnTileLoadedListener( new TiledBitmapLoader.OnTileLoadedListener() {
+
+			public void onTileLoaded()
+			{
+				invalidate();
+			}
+		} );
+		setImageBitmapReset( loader.getBaseBitmap(), reset );
+	}
+
+	@Override
+	protected void onDraw( Canvas canvas )
+	{
+		super.onDraw( canvas );
+		TiledBitmapLoader loader = mTileLoader;
+		if ( loader != null && mBitmapDisplayed.getBitmap() == loader.getBaseBitmap() ) {
+			canvas.save();
+			canvas.translate( getPaddingLeft(), getPaddingTop() );
+			loader.draw( canvas, getImageViewMatrix(), getWidth(), getHeight() );
+			canvas.restore();
+		}
+	}
+
 	public void setImageRotateBitmapReset( final RotateBitmap bitmap, final boolean reset )
 	{
 		final int viewWidth = getWidth();
@@ -138,6 +179,12 @@ implements IDisposable {
 		float fw = (float)mBitmapDisplayed.getWidth() / (float)mThisWidth;
 		float fh = (float)mBitmapDisplayed.getHeight() / (float)mThisHeight;
 		float max = Math.max( fw, fh ) * 8;
+
+		// in tiled mode allow zooming to twice the full resolution
+		if ( mTileLoader != null && mBitmapDisplayed.getBitmap() == mTileLoader.getBaseBitmap() ) {
+			float full = 2f * Math.max( (float)mTileLoader.getWidth() / mThisWidth, (float)mTileLoader.getHeight() / mThisHeight );
+			max = Math.max( max, full );
+		}
 		return max;
 	}
 
@@ -168,6 +215,10 @@ implements IDisposable {
 	 */
 	protected void setImageBitmap( Bitmap bitmap, int rotation )
 	{
+		if ( mTileLoader != null && bitmap != mTileLoader.getBaseBitmap() ) {
+			mTileLoader.close();
+			mTileLoader = null;
+		}
 		super.setImageBitmap( bitmap );
 		Drawable d = getDrawable();
 		if ( d != null ) {
@@ -408,6 +459,10 @@ implements IDisposable {
 
 	public void dispose()
 	{
+		if ( mTileLoader != null ) {
+			mTileLoader.close();
+			mTileLoader = null;
+		}
 		if ( mBitmapDisplayed.getBitmap() != null ) {
 			if ( !mBitmapDisplayed.getBitmap().isRecycled() ) {
 				mBitmapDisplayed.getBitmap().recycle();
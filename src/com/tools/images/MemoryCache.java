@@ -1,26 +1,48 @@
 package com.tools.images;
 
 import java.lang.ref.SoftReference;
-import java.lang.ref.SoftReference;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Set;
-
-import com.tools.TwoObjects;
 
 import android.graphics.Bitmap;
 
 /**
- * Used to store links between ids and thumbnail / full size combos. It is used in ImageLoader
+ * Used to store links between ids and thumbnail / full size combos. It is used in ImageLoader <br>
+ * Each id can hold several full size variants, one per size bucket (see {@link #getSizeBucket(int, int)}), so loaders
+ * with different desired sizes don't overwrite each other. A variant that is missing can be made by downscaling a larger
+ * one, see {@link #getLargerFullPicture(Object, int, int)}. A variant is only handed out for a desired size it can serve,
+ * since the bucket alone says nothing about the aspect ratio.
+ * All variants of an id live in one entry, so they are cleared together.
  * @author Kyle
  *
  */
 public class MemoryCache <ID_TYPE> {
-	
+
+	// constants
+	private static final int MIN_BUCKET = 64; 										// smallest size bucket
+	private static final int MIN_PRUNE_SIZE = 64; 									// don't look for empty entries below this many
+
 	// private variables
-    private HashMap<ID_TYPE, TwoObjects<SoftReference<Bitmap>, SoftReference<Bitmap>>> cache = 
-    	new HashMap<ID_TYPE, TwoObjects<SoftReference<Bitmap>, SoftReference<Bitmap>>>(); 			// Hashmap holding thumbnail and full image bmp
-    
+    private HashMap<ID_TYPE, CacheEntry> cache =
+    	new HashMap<ID_TYPE, CacheEntry>(); 										// Hashmap holding thumbnail and full image variants
+    private int pruneAtSize = MIN_PRUNE_SIZE; 										// look for empty entries when the cache reaches this size
+
+    /**
+     * The size bucket for a desired size, the smallest power of 2 that is at least the largest dimension. <br>
+     * Any bitmap decoded to fit in width x height is stored in this bucket.
+     * @param desiredWidth
+     * @param desiredHeight
+     * @return The bucket
+     */
+    public static int getSizeBucket(int desiredWidth, int desiredHeight){
+    	int max = Math.max(desiredWidth, desiredHeight);
+    	int bucket = MIN_BUCKET;
+    	while (bucket < max && bucket < (1 << 30))
+    		bucket <<= 1;
+    	return bucket;
+    }
+
     /**
      * store the thumbnail in this memory cache
      * @param pictureRowId The picture rowId this is linked to
@@ -29,49 +51,35 @@ public class MemoryCache <ID_TYPE> {
     public synchronized void putThumbnail(ID_TYPE pictureRowId, Bitmap bitmap){
     	if (bitmap == null)
     		return;
-    	// get the map object
-    	TwoObjects<SoftReference<Bitmap>, SoftReference<Bitmap>> data = cache.get(pictureRowId);
-    	
-    	// null data
-    	if (data == null){
-    		data = new  TwoObjects<SoftReference<Bitmap>, SoftReference<Bitmap>>
-    		(new SoftReference<Bitmap>(bitmap), null);
-    	}else{
-    		// put the thumbnail in the correct spot
-    		data.mObject1 = new SoftReference<Bitmap>(bitmap);
-    	}
-    	
-    	// store in cache
-        cache.put(pictureRowId, data);
+    	getOrCreateEntry(pictureRowId).thumbnail = new SoftReference<Bitmap>(bitmap);
     }
-    
+
     /**
-     * store the full picture in this memory cache
+     * store the full picture in this memory cache, in the bucket of its own size
      * @param pictureRowId The picture rowId this is linked to
      * @param bitmap The full picture bitmap
      */
     public synchronized void putFullPicture(ID_TYPE pictureRowId, Bitmap bitmap){
     	if (bitmap == null)
     		return;
-    	
-    	// get the map object
-    	TwoObjects<SoftReference<Bitmap>, SoftReference<Bitmap>> data = cache.get(pictureRowId);
-    	
-    	// null data
-    	if (data == null){
-    		data = new  TwoObjects<SoftReference<Bitmap>, SoftReference<Bitmap>>
-    		(null, new SoftReference<Bitmap>(bitmap));
-    	}else{
-    		// put the full picture in the correct spot
-    		data.mObject2 = new SoftReference<Bitmap>(bitmap);
-    	}
-    	
-    	// store in cache
-        cache.put(pictureRowId, data);
+    	putFullPicture(pictureRowId, bitmap.getWidth(), bitmap.getHeight(), bitmap);
+    }
+
+    /**
+     * store the full picture in this memory cache, for the given desired size
+     * @param pictureRowId The picture rowId this is linked to
+     * @param desiredWidth The width it was loaded to fit in
+     * @param desiredHeight The height it was loaded to fit in
+     * @param bitmap The full picture bitmap
+     */
+    public synchronized void putFullPicture(ID_TYPE pictureRowId, int desiredWidth, int desiredHeight, Bitmap bitmap){
+    	if (bitmap == null)
+    		return;
+    	getOrCreateEntry(pictureRowId).putVariant(desiredWidth, desiredHeight, bitmap);
     }
-    
+
     /**
-     * Clear the bitmaps at the given key
+     * Clear the bitmaps at the given key, thumbnail and all full size variants
      * @param pictureRowId
      */
     protected synchronized void clearCacheAt(ID_TYPE pictureRowId){
@@ -81,76 +89,229 @@ public class MemoryCache <ID_TYPE> {
     /**
      * Clear the cache
      */
-    public void clear() {
-    	
+    public synchronized void clear() {
+
         cache.clear();
     }
-    
+
     /**
      * Recycle all bitmaps in cache and clear the cache.
      * This should only be used when it's known the bitmaps will no longer be used
      */
-    public void recycleBitmapsAndClearCache(){
-    	Set<ID_TYPE> keys = cache.keySet();
-    	Iterator<ID_TYPE> it = keys.iterator();
-    	while(it.hasNext()){
-    		ID_TYPE id = it.next();
-    		Bitmap full = getFullPicture(id);
-    		if (full != null)
-    			full.recycle();
-    		Bitmap thumb = getThumbnail(id);
+    public synchronized void recycleBitmapsAndClearCache(){
+    	for (CacheEntry entry : cache.values()){
+    		Bitmap thumb = get(entry.thumbnail);
     		if (thumb != null)
     			thumb.recycle();
+    		for (Variant variant : entry.variants){
+    			Bitmap full = get(variant.bitmap);
+    			if (full != null)
+    				full.recycle();
+    		}
     	}
     	cache.clear();
     }
-    
+
     /**
      * Get the thumbnail at the picture rowId
      * @param pictureRowId the picture rowId
      * @return the thumbnail bitmap stored in this location, or null if none
      */
     public synchronized Bitmap getThumbnail(ID_TYPE pictureRowId){
-    	// if no key, then just return null
-    	if (!cache.containsKey(pictureRowId))
+    	CacheEntry entry = cache.get(pictureRowId);
+    	if (entry == null)
     		return null;
-    	
-    	// get the map object
-    	TwoObjects<SoftReference<Bitmap>, SoftReference<Bitmap>> data = cache.get(pictureRowId);
-    	
-    	// now return the actual bitmap
-    	if (data != null && data.mObject1 != null){
-    		Bitmap bmp = data.mObject1.get();
-    		if (bmp!= null && bmp.isRecycled())
-    			return null;
-    		else
-    			return bmp;
-    	}else
-    		return null;   	
+    	return get(entry.thumbnail);
     }
-    
+
     /**
-     * Get the full picture at the picture rowId
+     * Get the largest full picture at the picture rowId
      * @param pictureRowId the picture rowId
      * @return the full picture bitmap stored in this location, or null if none
      */
     public synchronized Bitmap getFullPicture(ID_TYPE pictureRowId){
-    	// if no key, then just return null
-    	if (!cache.containsKey(pictureRowId))
+    	CacheEntry entry = cache.get(pictureRowId);
+    	if (entry == null)
     		return null;
-    	
-    	// get the map object
-    	TwoObjects<SoftReference<Bitmap>, SoftReference<Bitmap>> data = cache.get(pictureRowId);
-    	
-    	// now return the actual bitmap
-    	if (data != null && data.mObject2 != null){
-    		Bitmap bmp = data.mObject2.get();
-    		if (bmp!= null && bmp.isRecycled())
-    			return null;
-    		else
-    			return bmp;
-    	}else
+    	Bitmap best = null;
+    	int bestBucket = 0;
+    	for (Variant variant : entry.variants){
+    		Bitmap bmp = get(variant.bitmap);
+    		if (bmp != null && variant.bucket > bestBucket){
+    			best = bmp;
+    			bestBucket = variant.bucket;
+    		}
+    	}
+    	return best;
+    }
+
+    /**
+     * Get the full picture at the picture rowId that was loaded for this desired size bucket
+     * @param pictureRowId the picture rowId
+     * @param desiredWidth The width to fit in
+     * @param desiredHeight The height to fit in
+     * @return the full picture bitmap, or null if there is none in this bucket that can serve this size
+     */
+    public synchronized Bitmap getFullPicture(ID_TYPE pictureRowId, int desiredWidth, int desiredHeight){
+    	CacheEntry entry = cache.get(pictureRowId);
+    	if (entry == null)
+    		return null;
+    	Variant variant = entry.getVariant(getSizeBucket(desiredWidth, desiredHeight));
+    	if (variant == null)
+    		return null;
+    	Bitmap bmp = get(variant.bitmap);
+    	if (bmp == null || !canServe(variant, bmp, desiredWidth, desiredHeight))
+    		return null;
+    	return bmp;
+    }
+
+    /**
+     * Get the smallest full picture at the picture rowId from a bucket larger than this desired size.
+     * It can be downscaled instead of decoding again.
+     * @param pictureRowId the picture rowId
+     * @param desiredWidth The width to fit in
+     * @param desiredHeight The height to fit in
+     * @return the larger bitmap, or null if there is none
+     */
+    public synchronized Bitmap getLargerFullPicture(ID_TYPE pictureRowId, int desiredWidth, int desiredHeight){
+    	CacheEntry entry = cache.get(pictureRowId);
+    	if (entry == null)
+    		return null;
+    	int bucket = getSizeBucket(desiredWidth, desiredHeight);
+    	Bitmap best = null;
+    	int bestBucket = Integer.MAX_VALUE;
+    	for (Variant variant : entry.variants){
+    		if (variant.bucket <= bucket || variant.bucket >= bestBucket)
+    			continue;
+    		Bitmap bmp = get(variant.bitmap);
+    		if (bmp != null && canServe(variant, bmp, desiredWidth, desiredHeight)){
+    			best = bmp;
+    			bestBucket = variant.bucket;
+    		}
+    	}
+    	return best;
+    }
+
+    /**
+     * Can this variant be shown for the desired size, as is or downscaled. True if it was loaded to fit in a box at
+     * least as large, as loading again would give nothing better, or if the bitmap covers the size it would be fitted to. <br>
+     * For example a square picture loaded to fit in 2000x100 is 100x100 and sits in bucket 2048, but can't serve 600x600.
+     * @param variant The variant
+     * @param bmp Its bitmap
+     * @param desiredWidth The width to fit in
+     * @param desiredHeight The height to fit in
+     * @return true if it is good enough
+     */
+    private static boolean canServe(Variant variant, Bitmap bmp, int desiredWidth, int desiredHeight){
+    	if (variant.desiredWidth >= desiredWidth && variant.desiredHeight >= desiredHeight)
+    		return true;
+    	double scale = Math.min((double)desiredWidth/bmp.getWidth(), (double)desiredHeight/bmp.getHeight());
+    	return Math.round(bmp.getWidth()*scale) <= bmp.getWidth() && Math.round(bmp.getHeight()*scale) <= bmp.getHeight();
+    }
+
+    /**
+     * Downscale a bitmap to fit in the desired size, keeping the aspect ratio. Slow, don't call on the ui thread.
+     * @param bitmap The larger bitmap
+     * @param desiredWidth The width to fit in
+     * @param desiredHeight The height to fit in
+     * @return The scaled bitmap, or the input if it already fits
+     */
+    public static Bitmap downscale(Bitmap bitmap, int desiredWidth, int desiredHeight){
+    	double scale = Math.min((double)desiredWidth/bitmap.getWidth(), (double)desiredHeight/bitmap.getHeight());
+    	if (scale >= 1)
+    		return bitmap;
+    	int width = Math.max(1, (int) Math.round(bitmap.getWidth()*scale));
+    	int height = Math.max(1, (int) Math.round(bitmap.getHeight()*scale));
+    	return Bitmap.createScaledBitmap(bitmap, width, height, true);
+    }
+
+    /**
+     * Get the entry for this id, creating it if needed. Entries whose bitmaps have all been collected are removed first.
+     */
+    private CacheEntry getOrCreateEntry(ID_TYPE pictureRowId){
+    	CacheEntry entry = cache.get(pictureRowId);
+    	if (entry == null){
+    		if (cache.size() >= pruneAtSize){
+    			pruneEmptyEntries();
+    			pruneAtSize = Math.max(MIN_PRUNE_SIZE, 2*cache.size());
+    		}
+    		entry = new CacheEntry();
+    		cache.put(pictureRowId, entry);
+    	}
+    	return entry;
+    }
+
+    /**
+     * Remove entries whose bitmaps have all been garbage collected
+     */
+    private void pruneEmptyEntries(){
+    	Iterator<CacheEntry> it = cache.values().iterator();
+    	while (it.hasNext()){
+    		if (it.next().isEmpty())
+    			it.remove();
+    	}
+    }
+
+    /**
+     * Get the bitmap from a reference, null if collected or recycled
+     */
+    private static Bitmap get(SoftReference<Bitmap> ref){
+    	if (ref == null)
+    		return null;
+    	Bitmap bmp = ref.get();
+    	if (bmp != null && bmp.isRecycled())
     		return null;
-    	
+    	return bmp;
+    }
+
+    /**
+     * A full size bitmap and the size it was loaded to fit in
+     */
+    private static class Variant{
+    	final int bucket;
+    	int desiredWidth;
+    	int desiredHeight;
+    	SoftReference<Bitmap> bitmap;
+    	Variant(int desiredWidth, int desiredHeight, Bitmap bitmap){
+    		this.bucket = getSizeBucket(desiredWidth, desiredHeight);
+    		set(desiredWidth, desiredHeight, bitmap);
+    	}
+    	void set(int desiredWidth, int desiredHeight, Bitmap bitmap){
+    		this.desiredWidth = desiredWidth;
+    		this.desiredHeight = desiredHeight;
+    		this.bitmap = new SoftReference<Bitmap>(bitmap);
+    	}
+    }
+
+    /**
+     * The thumbnail and full size variants of one id
+     */
+    private static class CacheEntry{
+    	SoftReference<Bitmap> thumbnail;
+    	final ArrayList<Variant> variants = new ArrayList<Variant>(2);
+
+    	Variant getVariant(int bucket){
+    		for (Variant variant : variants)
+    			if (variant.bucket == bucket)
+    				return variant;
+    		return null;
+    	}
+
+    	void putVariant(int desiredWidth, int desiredHeight, Bitmap bitmap){
+    		Variant variant = getVariant(getSizeBucket(desiredWidth, desiredHeight));
+    		if (variant == null)
+    			variants.add(new Variant(desiredWidth, desiredHeight, bitmap));
+    		else
+    			variant.set(desiredWidth, desiredHeight, bitmap);
+    	}
+
+    	boolean isEmpty(){
+    		if (get(thumbnail) != null)
+    			return false;
+    		for (Variant variant : variants)
+    			if (get(variant.bitmap) != null)
+    				return false;
+    		return true;
+    	}
     }
-}
\ No newline at end of file
+}
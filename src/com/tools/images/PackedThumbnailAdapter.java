@@ -0,0 +1,79 @@
+package com.tools.images;
+
+import java.io.IOException;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+/**
+ * A LoadImage callback whose thumbnails come from a {@link PackedThumbnailStore} instead of one file per thumbnail. <br>
+ * The thumbnail data passed to ImageLoader is the store key, usually the path of the full picture. onThumbnailLocal
+ * decodes straight from the mapped store, and createThumbnailFromFull makes a missing thumbnail and appends it.
+ * Subclasses still load the full size pictures, and say where the full file is for a given full size data.
+ * @author Kyle
+ *
+ * @param <FULL_IMAGE_TYPE> The data needed to load the full size picture
+ */
+public abstract class PackedThumbnailAdapter <FULL_IMAGE_TYPE>
+implements ImageLoader.LoadImage<String, FULL_IMAGE_TYPE>{
+
+	// constants
+	private static final String LOG_TAG = "com.tools";
+
+	// private variables
+	private final PackedThumbnailStore store; 								// where the thumbnails are
+	private final int maxPixelSize; 										// max thumbnail dimension when creating
+	private final int imageQuality; 										// jpeg quality when creating
+
+	/**
+	 * Create the adapter
+	 * @param store The store to read and write thumbnails
+	 * @param maxPixelSize The max size in pixels of either dimension of created thumbnails
+	 * @param imageQuality 0-100 jpeg quality of created thumbnails (90 is usually a good compromise of size and quality)
+	 */
+	public PackedThumbnailAdapter(PackedThumbnailStore store, int maxPixelSize, int imageQuality){
+		this.store = store;
+		this.maxPixelSize = maxPixelSize;
+		this.imageQuality = imageQuality;
+	}
+
+	/**
+	 * The path of the full picture file, used to create a missing thumbnail
+	 * @param fullSizeData The data needed to get the full picture
+	 * @return The path, or null if there is no local file
+	 */
+	public abstract String getFullImagePath(FULL_IMAGE_TYPE fullSizeData);
+
+	/**
+	 * @return The store the thumbnails are read from
+	 */
+	public PackedThumbnailStore getStore(){
+		return store;
+	}
+
+	@Override
+	public Bitmap onThumbnailLocal(String thumbnailData) {
+		if (thumbnailData == null)
+			return null;
+		return store.decode(thumbnailData, null);
+	}
+
+	@Override
+	public Bitmap onThumbnailWeb(String thumbnailData) {
+		return null;
+	}
+
+	@Override
+	public void createThumbnailFromFull(String thumbnailData, FULL_IMAGE_TYPE fullSizeData) {
+		if (thumbnailData == null)
+			return;
+		String fullPath = getFullImagePath(fullSizeData);
+		if (fullPath == null || fullPath.length() == 0)
+			return;
+		try{
+			store.putFromFullFile(thumbnailData, fullPath, maxPixelSize, imageQuality);
+		}catch(IOException e){
+			Log.e(LOG_TAG, Log.getStackTraceString(e));
+		}
+	}
+}
@@ -0,0 +1,591 @@
+package com.tools.images;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.tools.ImageProcessing;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+/**
+ * Stores many thumbnails in one file instead of one file each, so a cold gallery start maps two files instead of opening,
+ * stat-ing and reading thousands. <br>
+ * The data file is append only. Each record is the key, then the encoded thumbnail. The index file is a sorted table of
+ * (key hash, offset, length), and is binary searched in place through a MappedByteBuffer, so opening the store does not
+ * parse anything. New thumbnails go into a small in memory table until {@link #flush()} merges them into the index.
+ * Replacing or removing a key leaves its old record behind, {@link #compact()} rewrites the data file without them. <br>
+ * The index header names the data file in use, so a compact writes a new data file, then renames the new index into
+ * place as the single commit point. A crash at any step leaves either the old or the new pair whole. Records appended
+ * after the last flush are not in the index, and are dropped on the next open. <br>
+ * Thumbnails are decoded straight from the mapped data file. See {@link PackedThumbnailAdapter} to use it with ImageLoader.
+ * Thread safe.
+ * @author Kyle
+ *
+ */
+public class PackedThumbnailStore {
+
+	// constants
+	private static final int DATA_MAGIC = 0x50544844; 						// "PTHD"
+	private static final int INDEX_MAGIC = 0x50544849; 						// "PTHI"
+	private static final int VERSION = 2;
+	private static final int DATA_HEADER_SIZE = 8; 							// magic, version
+	private static final int INDEX_HEADER_SIZE = 32; 						// magic, version, count, generation, dead bytes, data length
+	private static final int INDEX_ENTRY_SIZE = 20; 						// hash, offset, length
+	private static final String DATA_EXTENSION = ".dat";
+	private static final String INDEX_EXTENSION = ".idx";
+	private static final String TEMP_EXTENSION = ".tmp";
+	private static final String LOG_TAG = "com.tools";
+	private static final String CHARSET = "UTF-8";
+
+	// private variables
+	private final File directory; 											// where the files are kept
+	private final String name; 												// the base name of the files
+	private final File indexFile; 											// the sorted index
+	private File dataFile; 													// the thumbnails, for the current generation
+	private int generation; 												// bumped by every compact, names the data file
+	private RandomAccessFile dataAccess; 									// used to append
+	private MappedByteBuffer dataMap; 										// read only view of the data file
+	private MappedByteBuffer indexMap; 										// read only view of the index file
+	private int indexCount; 												// entries in indexMap
+	private final HashMap<Long, long[]> pending = new HashMap<Long, long[]>(); // entries not yet in the index, {offset, length}, length -1 for removed
+	private long deadBytes; 												// bytes of records that were replaced or removed
+
+	/**
+	 * Open or create a store
+	 * @param directory The folder to keep the files in
+	 * @param name The base name of the files
+	 * @throws IOException If the files can't be created or read, or are not a store
+	 */
+	public PackedThumbnailStore(File directory, String name)
+	throws IOException{
+		if (!directory.exists())
+			directory.mkdirs();
+		this.directory = directory;
+		this.name = name;
+		indexFile = new File(directory, name + INDEX_EXTENSION);
+		open();
+	}
+
+	/**
+	 * The data file of a generation
+	 */
+	private File getDataFile(int generation){
+		return new File(directory, name + "." + generation + DATA_EXTENSION);
+	}
+
+	/**
+	 * Open the files, creating empty ones if needed
+	 */
+	private void open()
+	throws IOException{
+		// the index, created empty if missing. It names the data file to use
+		if (!indexFile.exists() || indexFile.length() < INDEX_HEADER_SIZE)
+			writeIndex(indexFile, new long[0][], 0, 0, DATA_HEADER_SIZE);
+		mapIndex();
+		if (indexMap.getInt(0) != INDEX_MAGIC || indexMap.getInt(4) != VERSION)
+			throw new IOException("not a thumbnail index: " + indexFile);
+		indexCount = indexMap.getInt(8);
+		generation = indexMap.getInt(12);
+		deadBytes = indexMap.getLong(16);
+		long dataLength = indexMap.getLong(24);
+		if (indexCount < 0 || INDEX_HEADER_SIZE + (long) indexCount*INDEX_ENTRY_SIZE > indexMap.capacity())
+			throw new IOException("truncated thumbnail index: " + indexFile);
+
+		// the data file
+		dataFile = getDataFile(generation);
+		dataAccess = new RandomAccessFile(dataFile, "rw");
+		if (dataAccess.length() == 0){
+			dataAccess.writeInt(DATA_MAGIC);
+			dataAccess.writeInt(VERSION);
+		}else{
+			dataAccess.seek(0);
+			if (dataAccess.readInt() != DATA_MAGIC || dataAccess.readInt() != VERSION){
+				dataAccess.close();
+				throw new IOException("not a thumbnail store: " + dataFile);
+			}
+		}
+
+		// records appended after the last flush are not indexed, so drop them
+		if (dataAccess.length() < dataLength){
+			dataAccess.close();
+			throw new IOException("truncated thumbnail store: " + dataFile);
+		}
+		if (dataAccess.length() > dataLength)
+			dataAccess.setLength(dataLength);
+		mapData();
+		deleteStaleFiles();
+	}
+
+	/**
+	 * Delete the data files of other generations, and temp files, left by a compact or flush that did not finish
+	 */
+	private void deleteStaleFiles(){
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		String indexTemp = indexFile.getName() + TEMP_EXTENSION;
+		for (File file : files){
+			String fileName = file.getName();
+			if (fileName.equals(indexTemp)){
+				file.delete();
+				continue;
+			}
+
+			// name.<generation>.dat, but not ours
+			if (!fileName.startsWith(name + ".") || !fileName.endsWith(DATA_EXTENSION) || file.equals(dataFile))
+				continue;
+			String middle = fileName.substring(name.length() + 1, fileName.length() - DATA_EXTENSION.length());
+			if (middle.length() > 0 && middle.matches("[0-9]+"))
+				file.delete();
+		}
+	}
+
+	/**
+	 * Map the whole index file
+	 */
+	private void mapIndex()
+	throws IOException{
+		RandomAccessFile indexAccess = new RandomAccessFile(indexFile, "r");
+		try{
+			indexMap = indexAccess.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, indexAccess.length());
+		}finally{
+			indexAccess.close();
+		}
+	}
+
+	/**
+	 * Map the whole data file
+	 */
+	private void mapData()
+	throws IOException{
+		dataMap = dataAccess.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, dataAccess.length());
+	}
+
+	/**
+	 * The 64 bit hash of a key
+	 */
+	private static long hash(String key){
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++){
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * Find the {offset, length} of a key, from pending or the index
+	 * @return null if missing or removed
+	 */
+	private long[] find(long hash){
+		long[] location = pending.get(hash);
+		if (location != null)
+			return location[1] < 0 ? null : location;
+
+		// binary search the index in place
+		int low = 0;
+		int high = indexCount - 1;
+		while (low <= high){
+			int mid = (low + high) >>> 1;
+			int pos = INDEX_HEADER_SIZE + mid*INDEX_ENTRY_SIZE;
+			long value = indexMap.getLong(pos);
+			if (value < hash)
+				low = mid + 1;
+			else if (value > hash)
+				high = mid - 1;
+			else
+				return new long[]{indexMap.getLong(pos + 8), indexMap.getInt(pos + 16)};
+		}
+		return null;
+	}
+
+	/**
+	 * Get the encoded thumbnail as a read only buffer on the mapped file, without copying
+	 * @param key The key, usually the path of the full picture
+	 * @return The buffer, or null if not stored
+	 */
+	public synchronized ByteBuffer getBuffer(String key){
+		long[] location = find(hash(key));
+		if (location == null || recordSize(location[0], location[1]) < 0)
+			return null;
+		try{
+			// check the stored key, in case two keys have the same hash
+			ByteBuffer record = dataMap.duplicate();
+			record.position((int) location[0]);
+			int keyLength = record.getInt();
+			byte[] storedKey = new byte[keyLength];
+			record.get(storedKey);
+			if (!key.equals(new String(storedKey, CHARSET)))
+				return null;
+			int length = record.getInt();
+			record.limit(record.position() + length);
+			return record.slice();
+		}catch(IOException e){
+			Log.e(LOG_TAG, Log.getStackTraceString(e));
+			return null;
+		}catch(RuntimeException e){
+			Log.e(LOG_TAG, Log.getStackTraceString(e));
+			return null;
+		}
+	}
+
+	/**
+	 * Get a copy of the encoded thumbnail
+	 * @param key The key, usually the path of the full picture
+	 * @return The bytes, or null if not stored
+	 */
+	public byte[] getBytes(String key){
+		ByteBuffer buffer = getBuffer(key);
+		if (buffer == null)
+			return null;
+		byte[] out = new byte[buffer.remaining()];
+		buffer.get(out);
+		return out;
+	}
+
+	/**
+	 * Decode the thumbnail straight from the mapped file
+	 * @param key The key, usually the path of the full picture
+	 * @param options Decode options, can be null
+	 * @return The bitmap, or null if not stored or can't be decoded
+	 */
+	public Bitmap decode(String key, BitmapFactory.Options options){
+		ByteBuffer buffer = getBuffer(key);
+		if (buffer == null)
+			return null;
+		return BitmapFactory.decodeStream(new ByteBufferInputStream(buffer), null, options);
+	}
+
+	/**
+	 * Is this key stored
+	 * @param key
+	 * @return
+	 */
+	public synchronized boolean contains(String key){
+		return getBuffer(key) != null;
+	}
+
+	/**
+	 * Append a thumbnail. It can be read right away, and is added to the index on the next flush.
+	 * @param key The key, usually the path of the full picture
+	 * @param data The encoded thumbnail
+	 * @throws IOException If the data file can't be written
+	 * @throws IllegalArgumentException If data is null or empty
+	 */
+	public synchronized void put(String key, byte[] data)
+	throws IOException{
+		if (data == null || data.length == 0)
+			throw new IllegalArgumentException("no thumbnail data for " + key);
+		byte[] keyBytes = key.getBytes(CHARSET);
+		long hash = hash(key);
+		long[] old = find(hash);
+		if (old != null)
+			deadBytes += Math.max(0, recordSize(old[0], old[1]));
+
+		// append the record
+		long offset = dataAccess.length();
+		ByteBuffer record = ByteBuffer.allocate(8 + keyBytes.length + data.length);
+		record.putInt(keyBytes.length);
+		record.put(keyBytes);
+		record.putInt(data.length);
+		record.put(data);
+		dataAccess.seek(offset);
+		dataAccess.write(record.array());
+		pending.put(hash, new long[]{offset, data.length});
+	}
+
+	/**
+	 * Make a thumbnail from a full size picture file and store it. Slow, don't call on the ui thread.
+	 * @param key The key, usually the path of the full picture
+	 * @param fullFile The path of the full picture
+	 * @param maxPixelSize The max size in pixels of either dimension of the thumbnail
+	 * @param imageQuality 0-100 jpeg quality
+	 * @return The thumbnail, or null if it could not be made
+	 * @throws IOException If the data file can't be written
+	 */
+	public Bitmap putFromFullFile(String key, String fullFile, int maxPixelSize, int imageQuality)
+	throws IOException{
+		Bitmap thumbnail = ImageProcessing.makeThumbnail(fullFile, maxPixelSize, false);
+		byte[] data = ImageProcessing.getByteArray(thumbnail, imageQuality);
+		if (data == null)
+			return null;
+		put(key, data);
+		return thumbnail;
+	}
+
+	/**
+	 * Remove a thumbnail. The space is reclaimed on the next compact.
+	 * @param key
+	 */
+	public synchronized void remove(String key){
+		long hash = hash(key);
+		long[] old = find(hash);
+		if (old == null)
+			return;
+		deadBytes += Math.max(0, recordSize(old[0], old[1]));
+		pending.put(hash, new long[]{old[0], -1});
+	}
+
+	/**
+	 * The size of a record on disk, after checking that it lies inside the data file and matches the index.
+	 * Remaps the data file if the record was appended since the last map.
+	 * @param offset The offset of the record
+	 * @param length The length of its data, from the index
+	 * @return The size, or -1 if the record is damaged
+	 */
+	private long recordSize(long offset, long length){
+		try{
+			if (offset + 8 + length > dataMap.capacity())
+				mapData();
+			if (offset < DATA_HEADER_SIZE || length <= 0 || offset + 8 + length > dataMap.capacity())
+				return -1;
+			int keyLength = dataMap.getInt((int) offset);
+			long size = 8L + keyLength + length;
+			if (keyLength < 0 || offset + size > dataMap.capacity()
+					|| dataMap.getInt((int) (offset + 4 + keyLength)) != length)
+				return -1;
+			return size;
+		}catch(IOException e){
+			Log.e(LOG_TAG, Log.getStackTraceString(e));
+			return -1;
+		}
+	}
+
+	/**
+	 * Merge the thumbnails added since the last flush into the sorted index, so the next open finds them.
+	 * @throws IOException If the index can't be written
+	 */
+	public synchronized void flush()
+	throws IOException{
+		if (pending.isEmpty())
+			return;
+		dataAccess.getFD().sync();
+		replaceIndex(mergedEntries(), generation, deadBytes, dataAccess.length());
+	}
+
+	/**
+	 * Rewrite the data file without replaced, removed or damaged records, and flush. The new data file is written
+	 * under the next generation's name, and only used once the index naming it has replaced the old one.
+	 * @throws IOException If the files can't be written
+	 */
+	public synchronized void compact()
+	throws IOException{
+		long[][] entries = mergedEntries();
+		ArrayList<long[]> live = new ArrayList<long[]>(entries.length);
+
+		// copy the live records to the next data file
+		int nextGeneration = generation + 1;
+		File nextData = getDataFile(nextGeneration);
+		RandomAccessFile out = new RandomAccessFile(nextData, "rw");
+		long offset = DATA_HEADER_SIZE;
+		boolean isWritten = false;
+		try{
+			out.setLength(0);
+			out.writeInt(DATA_MAGIC);
+			out.writeInt(VERSION);
+			for (long[] entry : entries){
+				long size = recordSize(entry[1], entry[2]);
+				if (size < 0){
+					Log.w(LOG_TAG, "dropping damaged thumbnail record at " + entry[1]);
+					continue;
+				}
+				byte[] record = new byte[(int) size];
+				ByteBuffer source = dataMap.duplicate();
+				source.position((int) entry[1]);
+				source.get(record);
+				out.write(record);
+				live.add(new long[]{entry[0], offset, entry[2]});
+				offset += size;
+			}
+			out.getFD().sync();
+			isWritten = true;
+		}finally{
+			out.close();
+			if (!isWritten)
+				nextData.delete();
+		}
+
+		// the index rename is the commit point, before it the old files are still whole
+		replaceIndex(live.toArray(new long[live.size()][]), nextGeneration, 0, offset);
+		File oldData = dataFile;
+		dataAccess.close();
+		generation = nextGeneration;
+		dataFile = nextData;
+		dataAccess = new RandomAccessFile(dataFile, "rw");
+		mapData();
+		oldData.delete();
+	}
+
+	/**
+	 * @return The number of bytes that compact would reclaim
+	 */
+	public synchronized long getDeadBytes(){
+		return deadBytes;
+	}
+
+	/**
+	 * @return The number of thumbnails stored
+	 */
+	public synchronized int size(){
+		return mergedEntries().length;
+	}
+
+	/**
+	 * Flush and close the files. The store can't be used after.
+	 * @throws IOException
+	 */
+	public synchronized void close()
+	throws IOException{
+		flush();
+		dataAccess.close();
+		dataMap = null;
+		indexMap = null;
+	}
+
+	/**
+	 * The index entries plus pending changes, sorted by hash
+	 * @return {hash, offset, length} for each live key
+	 */
+	private long[][] mergedEntries(){
+		HashMap<Long, long[]> all = new HashMap<Long, long[]>(indexCount + pending.size());
+		for (int i = 0; i < indexCount; i++){
+			int pos = INDEX_HEADER_SIZE + i*INDEX_ENTRY_SIZE;
+			long hash = indexMap.getLong(pos);
+			all.put(hash, new long[]{hash, indexMap.getLong(pos + 8), indexMap.getInt(pos + 16)});
+		}
+		for (Map.Entry<Long, long[]> entry : pending.entrySet()){
+			long[] location = entry.getValue();
+			if (location[1] < 0)
+				all.remove(entry.getKey());
+			else
+				all.put(entry.getKey(), new long[]{entry.getKey(), location[0], location[1]});
+		}
+		long[][] entries = all.values().toArray(new long[all.size()][]);
+		Arrays.sort(entries, new java.util.Comparator<long[]>() {
+			@Override
+			public int compare(long[] a, long[] b) {
+				return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+			}
+		});
+		return entries;
+	}
+
+	/**
+	 * Write the index to a temp file, rename it over the old one and map it
+	 * @param entries {hash, offset, length}, sorted by hash
+	 * @param generation The generation of the data file the entries point into
+	 * @param deadBytes The bytes compact would reclaim from that data file
+	 * @param dataLength The length of that data file covered by the entries
+	 */
+	private void replaceIndex(long[][] entries, int generation, long deadBytes, long dataLength)
+	throws IOException{
+		File temp = new File(indexFile.getPath() + TEMP_EXTENSION);
+		writeIndex(temp, entries, generation, deadBytes, dataLength);
+		if (!temp.renameTo(indexFile))
+			throw new IOException("could not replace " + indexFile);
+		mapIndex();
+		indexCount = entries.length;
+		this.deadBytes = deadBytes;
+		pending.clear();
+	}
+
+	/**
+	 * Write a sorted index file
+	 * @param file The file to write
+	 * @param entries {hash, offset, length}, sorted by hash
+	 * @param generation The generation of the data file
+	 * @param deadBytes The bytes compact would reclaim
+	 * @param dataLength The length of the data file covered by the entries
+	 */
+	private static void writeIndex(File file, long[][] entries, int generation, long deadBytes, long dataLength)
+	throws IOException{
+		ByteBuffer buffer = ByteBuffer.allocate(INDEX_HEADER_SIZE + entries.length*INDEX_ENTRY_SIZE);
+		buffer.putInt(INDEX_MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(entries.length);
+		buffer.putInt(generation);
+		buffer.putLong(deadBytes);
+		buffer.putLong(dataLength);
+		for (long[] entry : entries){
+			buffer.putLong(entry[0]);
+			buffer.putLong(entry[1]);
+			buffer.putInt((int) entry[2]);
+		}
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try{
+			out.setLength(0);
+			out.write(buffer.array());
+			out.getFD().sync();
+		}finally{
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads a ByteBuffer as a stream, so BitmapFactory can decode from a mapped file without a copy
+	 */
+	private static class ByteBufferInputStream
+	extends InputStream{
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer){
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			if (!buffer.hasRemaining())
+				return -1;
+			return buffer.get() & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0)
+				return 0;
+			if (!buffer.hasRemaining())
+				return -1;
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+
+		@Override
+		public boolean markSupported() {
+			return true;
+		}
+
+		@Override
+		public synchronized void mark(int readlimit) {
+			buffer.mark();
+		}
+
+		@Override
+		public synchronized void reset() {
+			buffer.reset();
+		}
+
+		@Override
+		public long skip(long n) {
+			int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+	}
+}
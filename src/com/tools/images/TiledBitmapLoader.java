@@ -0,0 +1,462 @@
+package com.tools.images;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+/**
+ * Loads square tiles of a large image on demand, so it can be zoomed into without holding the full image in memory. <br>
+ * A low resolution base layer is decoded once and is always shown. When zoomed in far enough that the base layer is
+ * blurry, only the tiles in view are decoded with a {@link BitmapRegionDecoder} at the inSampleSize matching the zoom,
+ * on a small background pool. Tiles are kept in an LRU cache keyed by sample size, column and row, and the tiles just past
+ * the edge of the view in the direction of the last pan are loaded ahead of time. <br>
+ * Use through {@link ImageViewTouchBase#setImageTiledReset(TiledBitmapLoader, boolean)}.
+ * @author Kyle
+ *
+ */
+public class TiledBitmapLoader {
+
+	// constants
+	private static final String TAG = "com.tools.images.TiledBitmapLoader";
+	/** The width and height of each tile in decoded pixels */
+	public static final int TILE_SIZE = 256;
+	/** The default number of threads decoding tiles */
+	public static final int DEFAULT_THREADS = 2;
+	/** The default max width or height of the base layer */
+	public static final int DEFAULT_BASE_DIMENSION = 1024;
+	private static final long TILE_INDEX_MASK = (1L << 29) - 1; 	// bits used by the column and the row in a tile key
+
+	// private variables
+	private final String path; 										// the file, or null if data is used
+	private final byte[] data; 										// the encoded data, or null if path is used
+	private final int width; 										// full image width
+	private final int height; 										// full image height
+	private final Bitmap baseBitmap; 								// the low resolution layer
+	private final int baseSampleSize; 								// the sample size of the base layer
+	private final LruCache<Long, Bitmap> cache; 					// decoded tiles
+	private final ThreadPoolExecutor executor; 						// decodes tiles
+	private final Set<Long> pending = Collections.synchronizedSet(new HashSet<Long>()); 	// tiles queued or decoding
+	private volatile Set<Long> wanted = new HashSet<Long>(); 		// tiles in view or prefetched at the last draw, not modified once published
+	private final ThreadLocal<BitmapRegionDecoder> decoders = 
+		new ThreadLocal<BitmapRegionDecoder>(); 					// each decode thread has its own decoder, and recycles it when it exits
+	private final Object decoderLock = new Object(); 				// guards firstDecoder and isFirstDecoderTaken
+	private BitmapRegionDecoder firstDecoder; 						// made in the constructor, handed to the first decode thread
+	private boolean isFirstDecoderTaken = false; 					// a thread owns firstDecoder, or close recycled it
+	private final Handler mainHandler = new Handler(Looper.getMainLooper()); 	// tile loaded callbacks are posted here
+	private OnTileLoadedListener listener = null; 					// called when a tile is ready
+	private volatile boolean isClosed = false; 						// closed, stop loading
+	private int lastSampleSize = 0; 								// sample size at the last draw
+	private float lastCenterX; 										// center of the view in image pixels at the last draw
+	private float lastCenterY;
+	private int panDirectionX = 0; 									// -1, 0, 1 direction of the last pan in x
+	private int panDirectionY = 0; 									// -1, 0, 1 direction of the last pan in y
+	private final Matrix inverse = new Matrix(); 					// reused in draw
+	private final Matrix imageToView = new Matrix(); 				// reused in draw
+	private final RectF visible = new RectF(); 						// reused in draw
+	private final RectF tileRect = new RectF(); 					// reused in draw
+	private final float[] values = new float[9]; 					// reused in draw
+	private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG); // used to draw tiles
+
+	/**
+	 * Called on the main thread when a tile has been decoded and the view should be redrawn
+	 */
+	public interface OnTileLoadedListener{
+		public void onTileLoaded();
+	}
+
+	/**
+	 * Create a tile loader for a JPEG or PNG file
+	 * @param path The file path
+	 * @param baseMaxDimension The max width or height of the base layer, see {@link #DEFAULT_BASE_DIMENSION}
+	 * @param cacheBytes The max bytes of tiles to keep, for example Runtime.getRuntime().maxMemory()/8
+	 * @param nThreads The number of decode threads, see {@link #DEFAULT_THREADS}
+	 * @throws IOException if the file can't be read or isn't a supported format
+	 */
+	public TiledBitmapLoader(String path, int baseMaxDimension, int cacheBytes, int nThreads)
+	throws IOException{
+		this(path, null, baseMaxDimension, cacheBytes, nThreads);
+	}
+
+	/**
+	 * Create a tile loader for JPEG or PNG data. The data array is kept, so don't modify it.
+	 * @param data The encoded image
+	 * @param baseMaxDimension The max width or height of the base layer, see {@link #DEFAULT_BASE_DIMENSION}
+	 * @param cacheBytes The max bytes of tiles to keep, for example Runtime.getRuntime().maxMemory()/8
+	 * @param nThreads The number of decode threads, see {@link #DEFAULT_THREADS}
+	 * @throws IOException if the data isn't a supported format
+	 */
+	public TiledBitmapLoader(byte[] data, int baseMaxDimension, int cacheBytes, int nThreads)
+	throws IOException{
+		this(null, data, baseMaxDimension, cacheBytes, nThreads);
+	}
+
+	private TiledBitmapLoader(String path, byte[] data, int baseMaxDimension, int cacheBytes, int nThreads)
+	throws IOException{
+		this.path = path;
+		this.data = data;
+
+		// the first decoder gives us the size
+		firstDecoder = newDecoder();
+		width = firstDecoder.getWidth();
+		height = firstDecoder.getHeight();
+
+		// the base layer
+		if (baseMaxDimension < 1)
+			baseMaxDimension = DEFAULT_BASE_DIMENSION;
+		int sample = 1;
+		while (Math.max(width, height)/sample > baseMaxDimension)
+			sample *= 2;
+		baseSampleSize = sample;
+		BitmapFactory.Options opt = new BitmapFactory.Options();
+		opt.inSampleSize = sample;
+		opt.inPreferredConfig = Bitmap.Config.RGB_565;
+		opt.inDither = true;
+		if (path != null)
+			baseBitmap = BitmapFactory.decodeFile(path, opt);
+		else
+			baseBitmap = BitmapFactory.decodeByteArray(data, 0, data.length, opt);
+		if (baseBitmap == null){
+			firstDecoder.recycle();
+			throw new IOException("could not decode base layer");
+		}
+
+		// the tile cache, sized by bytes
+		cache = new LruCache<Long, Bitmap>(Math.max(cacheBytes, 1)){
+			@Override
+			protected int sizeOf(Long key, Bitmap value) {
+				return value.getRowBytes()*value.getHeight();
+			}
+		};
+
+		// decode threads
+		if (nThreads < 1)
+			nThreads = 1;
+		executor = new ThreadPoolExecutor(
+				nThreads,
+				nThreads,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable r) {
+						// the decoder is only recycled by the thread that uses it, once the pool has let the thread go
+						Thread thread = new Thread(new Runnable() {
+							@Override
+							public void run() {
+								try{
+									r.run();
+								}finally{
+									BitmapRegionDecoder decoder = decoders.get();
+									decoders.remove();
+									if (decoder != null)
+										decoder.recycle();
+								}
+							}
+						}, "TiledBitmapLoader");
+						thread.setPriority(Thread.NORM_PRIORITY - 1);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * The low resolution image shown under the tiles. This is what the view displays as its bitmap.
+	 * @return The base layer
+	 */
+	public Bitmap getBaseBitmap(){
+		return baseBitmap;
+	}
+
+	/**
+	 * The full width of the image
+	 * @return the width in pixels
+	 */
+	public int getWidth(){
+		return width;
+	}
+
+	/**
+	 * The full height of the image
+	 * @return the height in pixels
+	 */
+	public int getHeight(){
+		return height;
+	}
+
+	/**
+	 * Set the listener called when a tile is ready
+	 * @param listener the listener, can be null
+	 */
+	public void setOnTileLoadedListener(OnTileLoadedListener listener){
+		this.listener = listener;
+	}
+
+	/**
+	 * Draw the tiles that are in view and cached, and request the ones that are missing, plus the next row or column
+	 * in the direction of the last pan. Call on the main thread after the base layer was drawn.
+	 * @param canvas The canvas to draw on
+	 * @param baseToView The matrix that maps the base layer to the view, usually the image matrix
+	 * @param viewWidth The view width
+	 * @param viewHeight The view height
+	 */
+	public void draw(Canvas canvas, Matrix baseToView, int viewWidth, int viewHeight){
+		if (isClosed)
+			return;
+
+		// full image -> view
+		imageToView.setScale((float) baseBitmap.getWidth()/width, (float) baseBitmap.getHeight()/height);
+		imageToView.postConcat(baseToView);
+
+		// view pixels per image pixel, then the sample size that gives at least that
+		imageToView.getValues(values);
+		float scale = (float) Math.sqrt(values[Matrix.MSCALE_X]*values[Matrix.MSCALE_X] + values[Matrix.MSKEW_Y]*values[Matrix.MSKEW_Y]);
+		if (scale <= 0)
+			return;
+		int sampleSize = 1;
+		while (sampleSize*2 <= 1/scale)
+			sampleSize *= 2;
+
+		// the base layer is good enough
+		if (sampleSize >= baseSampleSize){
+			wanted = new HashSet<Long>();
+			lastSampleSize = 0;
+			return;
+		}
+
+		// what part of the image is visible
+		if (!imageToView.invert(inverse))
+			return;
+		visible.set(0, 0, viewWidth, viewHeight);
+		inverse.mapRect(visible);
+		if (!visible.intersect(0, 0, width, height))
+			return;
+
+		// which way did we pan since last time
+		if (sampleSize == lastSampleSize){
+			float dx = visible.centerX() - lastCenterX;
+			float dy = visible.centerY() - lastCenterY;
+			float threshold = sampleSize;
+			panDirectionX = (dx > threshold) ? 1 : (dx < -threshold) ? -1 : panDirectionX;
+			panDirectionY = (dy > threshold) ? 1 : (dy < -threshold) ? -1 : panDirectionY;
+		}else{
+			panDirectionX = 0;
+			panDirectionY = 0;
+		}
+		lastSampleSize = sampleSize;
+		lastCenterX = visible.centerX();
+		lastCenterY = visible.centerY();
+
+		// the tiles in view
+		int tileSpan = TILE_SIZE*sampleSize;
+		int nCols = (width + tileSpan - 1)/tileSpan;
+		int nRows = (height + tileSpan - 1)/tileSpan;
+		int colStart = Math.max(0, (int) (visible.left/tileSpan));
+		int colEnd = Math.min(nCols - 1, (int) (visible.right/tileSpan));
+		int rowStart = Math.max(0, (int) (visible.top/tileSpan));
+		int rowEnd = Math.min(nRows - 1, (int) (visible.bottom/tileSpan));
+
+		// draw what we have, and list the rest, visible first
+		HashSet<Long> newWanted = new HashSet<Long>();
+		ArrayList<Long> missing = new ArrayList<Long>();
+		canvas.save();
+		canvas.concat(imageToView);
+		for (int row = rowStart; row <= rowEnd; row++){
+			for (int col = colStart; col <= colEnd; col++){
+				long key = getKey(sampleSize, col, row);
+				newWanted.add(key);
+				Bitmap tile = cache.get(key);
+				if (tile != null && !tile.isRecycled()){
+					tileRect.set(col*tileSpan, row*tileSpan, Math.min(width, (col+1)*tileSpan), Math.min(height, (row+1)*tileSpan));
+					canvas.drawBitmap(tile, null, tileRect, paint);
+				}else
+					missing.add(key);
+			}
+		}
+		canvas.restore();
+
+		// prefetch the next column and row in the pan direction
+		int prefetchCol = (panDirectionX > 0) ? colEnd + 1 : (panDirectionX < 0) ? colStart - 1 : -1;
+		int prefetchRow = (panDirectionY > 0) ? rowEnd + 1 : (panDirectionY < 0) ? rowStart - 1 : -1;
+		if (prefetchCol >= 0 && prefetchCol < nCols){
+			for (int row = rowStart; row <= rowEnd; row++)
+				prefetch(newWanted, missing, sampleSize, prefetchCol, row);
+		}
+		if (prefetchRow >= 0 && prefetchRow < nRows){
+			for (int col = colStart; col <= colEnd; col++)
+				prefetch(newWanted, missing, sampleSize, col, prefetchRow);
+			if (prefetchCol >= 0 && prefetchCol < nCols)
+				prefetch(newWanted, missing, sampleSize, prefetchCol, prefetchRow);
+		}
+
+		// publish what we want before queuing, so the decode threads don't skip it
+		wanted = newWanted;
+		for (Long key : missing)
+			request(key);
+	}
+
+	/**
+	 * Stop loading tiles, and free the decoders and cached tiles. The base bitmap is left alone, as the view may still show it. <br>
+	 * Does not wait for a tile being decoded. Each decode thread recycles its own decoder when it finishes and exits.
+	 */
+	public void close(){
+		isClosed = true;
+		executor.shutdownNow();
+		cache.evictAll();
+
+		// no thread took the first decoder, so nobody else will recycle it
+		synchronized (decoderLock) {
+			if (!isFirstDecoderTaken){
+				isFirstDecoderTaken = true;
+				firstDecoder.recycle();
+			}
+			firstDecoder = null;
+		}
+	}
+
+	/**
+	 * The decoder of the calling decode thread, made on first use
+	 * @return The decoder, or null if closed or it could not be made
+	 */
+	private BitmapRegionDecoder getDecoder(){
+		BitmapRegionDecoder decoder = decoders.get();
+		if (decoder != null)
+			return decoder;
+		synchronized (decoderLock) {
+			if (isClosed)
+				return null;
+			if (!isFirstDecoderTaken){
+				isFirstDecoderTaken = true;
+				decoder = firstDecoder;
+			}
+		}
+		if (decoder == null){
+			try{
+				decoder = newDecoder();
+			}catch(IOException e){
+				Log.e(TAG, Log.getStackTraceString(e));
+				return null;
+			}
+		}
+		decoders.set(decoder);
+		return decoder;
+	}
+
+	/**
+	 * Add a tile that is just out of view to the wanted tiles, and to the missing ones if not already cached
+	 */
+	private void prefetch(HashSet<Long> newWanted, ArrayList<Long> missing, int sampleSize, int col, int row){
+		long key = getKey(sampleSize, col, row);
+		newWanted.add(key);
+		if (cache.get(key) == null)
+			missing.add(key);
+	}
+
+	/**
+	 * Queue a tile to be decoded, unless it already is
+	 */
+	private void request(final long key){
+		if (!pending.add(key))
+			return;
+		final int sampleSize = 1 << (int) (key >>> 58);
+		final int col = (int) ((key >>> 29) & TILE_INDEX_MASK);
+		final int row = (int) (key & TILE_INDEX_MASK);
+		try{
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try{
+						loadTile(key, sampleSize, col, row);
+					}finally{
+						pending.remove(key);
+					}
+				}
+			});
+		}catch(RejectedExecutionException e){
+			pending.remove(key);
+		}
+	}
+
+	/**
+	 * Decode a tile on a background thread and tell the listener
+	 */
+	private void loadTile(long key, int sampleSize, int col, int row){
+
+		// scrolled or zoomed away before we got to it
+		if (isClosed || !wanted.contains(key))
+			return;
+		BitmapRegionDecoder decoder = getDecoder();
+		if (decoder == null)
+			return;
+
+		int tileSpan = TILE_SIZE*sampleSize;
+		Rect rect = new Rect(col*tileSpan, row*tileSpan, Math.min(width, (col+1)*tileSpan), Math.min(height, (row+1)*tileSpan));
+		BitmapFactory.Options opt = new BitmapFactory.Options();
+		opt.inSampleSize = sampleSize;
+		opt.inPreferredConfig = Bitmap.Config.RGB_565;
+		opt.inDither = true;
+		Bitmap tile;
+		try{
+			tile = decoder.decodeRegion(rect, opt);
+		}catch(RuntimeException e){
+			// region could not be decoded
+			Log.e(TAG, Log.getStackTraceString(e));
+			return;
+		}catch(OutOfMemoryError e){
+			Log.e(TAG, "out of memory decoding tile");
+			cache.trimToSize(cache.maxSize()/2);
+			return;
+		}
+		if (tile == null || isClosed)
+			return;
+		cache.put(key, tile);
+
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				OnTileLoadedListener listener = TiledBitmapLoader.this.listener;
+				if (listener != null && !isClosed)
+					listener.onTileLoaded();
+			}
+		});
+	}
+
+	/**
+	 * Create a decoder for our source
+	 */
+	private BitmapRegionDecoder newDecoder()
+	throws IOException{
+		if (path != null)
+			return BitmapRegionDecoder.newInstance(path, false);
+		else
+			return BitmapRegionDecoder.newInstance(data, 0, data.length, false);
+	}
+
+	/**
+	 * The cache key of a tile, sample sizes are powers of 2 so the level fits in 6 bits
+	 */
+	private static long getKey(int sampleSize, int col, int row){
+		long level = Integer.numberOfTrailingZeros(sampleSize);
+		return (level << 58) | ((long) col << 29) | row;
+	}
+}
@@ -18,8 +18,8 @@ package test.android.util;
 
 
 import java.io.UnsupportedEncodingException;
-
-import android.util.Base64OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Utilities for encoding and decoding the Base64 representation of
@@ -67,6 +67,11 @@ public class Base64 {
 	 */
 	public static final int NO_CLOSE = 16;
 
+	/**
+	 * Size of the scratch arrays used to code direct ByteBuffers.
+	 */
+	private static final int SCRATCH_SIZE = 8 * 1024;
+
 	//  --------------------------------------------------------
 	//  shared code
 	//  --------------------------------------------------------
@@ -75,11 +80,17 @@ public class Base64 {
 		public byte[] output;
 		public int op;
 
+		/**
+		 * Where in output process() starts writing. Normally 0, set
+		 * when coding straight into the backing array of a ByteBuffer.
+		 */
+		public int outputOffset;
+
 		/**
 		 * Encode/decode another block of input data.  this.output is
 		 * provided by the caller, and must be big enough to hold all
-		 * the coded data.  On exit, this.opwill be set to the length
-		 * of the coded data.
+		 * the coded data.  On exit, this.op will be set to the end
+		 * of the coded data, which is its length when outputOffset is 0.
 		 *
 		 * @param finish true if this is the final call to process for
 		 *        this object.  Will finalize the coder state and
@@ -176,6 +187,35 @@ public class Base64 {
 		return temp;
 	}
 
+	/**
+	 * Decode the remaining Base64-encoded bytes of input into output.
+	 * If both buffers have backing arrays, the data is coded in place
+	 * with no copies, otherwise it goes through a small scratch array.
+	 *
+	 * @param input  the data to decode, from position to limit. On
+	 *               return its position is at its limit.
+	 * @param output where the decoded data is written, starting at its
+	 *               position. On return its position is after the data.
+	 * @param flags  controls certain features of the decoded output.
+	 *               Pass {@code DEFAULT} to decode standard Base64.
+	 * @return the number of bytes written to output
+	 * @throws BufferOverflowException if output has less room than
+	 *         input.remaining()*3/4, the most the input could decode to
+	 * @throws IllegalArgumentException if the input contains
+	 * incorrect padding
+	 */
+	public static int decode(ByteBuffer input, ByteBuffer output, int flags) {
+		int max = input.remaining()*3/4;
+		if (output.remaining() < max) {
+			throw new BufferOverflowException();
+		}
+		int start = output.position();
+		if (!process(new Decoder(flags, null), input, output)) {
+			throw new IllegalArgumentException("bad base-64");
+		}
+		return output.position() - start;
+	}
+
 	/* package */ static class Decoder extends Coder {
 		/**
 		 * Lookup table for turning bytes into their position in the
@@ -278,7 +318,7 @@ public class Base64 {
 			// the member variable is final.)
 			int state = this.state;
 			int value = this.value;
-			int op = 0;
+			int op = outputOffset;
 			final byte[] output = this.output;
 			final int[] alphabet = this.alphabet;
 
@@ -513,6 +553,59 @@ public class Base64 {
 	 */
 	public static byte[] encode(byte[] input, int offset, int len, int flags) {
 		Encoder encoder = new Encoder(flags, null);
+		int output_len = encodedLength(encoder, len);
+
+		encoder.output = new byte[output_len];
+		encoder.process(input, offset, len, true);
+
+		assert encoder.op == output_len;
+
+		return encoder.output;
+	}
+
+	/**
+	 * Base64-encode the remaining bytes of input into output. If both
+	 * buffers have backing arrays, the data is coded in place with no
+	 * copies, otherwise it goes through a small scratch array.
+	 *
+	 * @param input  the data to encode, from position to limit. On
+	 *               return its position is at its limit.
+	 * @param output where the encoded data is written, starting at its
+	 *               position. On return its position is after the data.
+	 * @param flags  controls certain features of the encoded output.
+	 *               Passing {@code DEFAULT} results in output that
+	 *               adheres to RFC 2045.
+	 * @return the number of bytes written to output
+	 * @throws BufferOverflowException if output does not have room for
+	 *         {@link #encodedLength(int, int)} bytes, nothing is read
+	 *         or written in that case
+	 */
+	public static int encode(ByteBuffer input, ByteBuffer output, int flags) {
+		Encoder encoder = new Encoder(flags, null);
+		int len = input.remaining();
+		int output_len = encodedLength(encoder, len);
+		if (output.remaining() < output_len) {
+			throw new BufferOverflowException();
+		}
+		process(encoder, input, output);
+		return output_len;
+	}
+
+	/**
+	 * The exact number of bytes {@link #encode(byte[], int, int, int)}
+	 * produces for len bytes of input.
+	 *
+	 * @param len   the number of bytes of input
+	 * @param flags the encoder flags
+	 */
+	public static int encodedLength(int len, int flags) {
+		return encodedLength(new Encoder(flags, null), len);
+	}
+
+	/**
+	 * The exact encoded length of len bytes for this encoder's flags
+	 */
+	private static int encodedLength(Encoder encoder, int len) {
 
 		// Compute the exact length of the array we will produce.
 		int output_len = len / 3 * 4;
@@ -536,12 +629,44 @@ public class Base64 {
 			(encoder.do_cr ? 2 : 1);
 		}
 
-		encoder.output = new byte[output_len];
-		encoder.process(input, offset, len, true);
+		return output_len;
+	}
 
-		assert encoder.op == output_len;
+	/**
+	 * Run a coder over the remaining bytes of input, writing to output,
+	 * which must have room for all of it. Uses the backing arrays
+	 * directly when there are any.
+	 *
+	 * @return false if the coder found bad input
+	 */
+	private static boolean process(Coder coder, ByteBuffer input, ByteBuffer output) {
+
+		// zero copy, code straight between the backing arrays
+		if (input.hasArray() && output.hasArray()) {
+			coder.output = output.array();
+			coder.outputOffset = output.arrayOffset() + output.position();
+			int len = input.remaining();
+			boolean ok = coder.process(input.array(), input.arrayOffset() + input.position(), len, true);
+			if (ok) {
+				input.position(input.limit());
+				output.position(coder.op - output.arrayOffset());
+			}
+			return ok;
+		}
 
-		return encoder.output;
+		// direct buffers, go through scratch arrays a chunk at a time
+		int chunk = Math.min(SCRATCH_SIZE, Math.max(input.remaining(), 1));
+		byte[] in = new byte[chunk];
+		coder.output = new byte[coder.maxOutputSize(chunk)];
+		do {
+			int n = Math.min(chunk, input.remaining());
+			input.get(in, 0, n);
+			if (!coder.process(in, 0, n, !input.hasRemaining())) {
+				return false;
+			}
+			output.put(coder.output, 0, coder.op);
+		} while (input.hasRemaining());
+		return true;
 	}
 
 	/* package */ static class Encoder extends Coder {
@@ -611,7 +736,7 @@ public class Base64 {
 			// Using local variables makes the encoder about 9% faster.
 			final byte[] alphabet = this.alphabet;
 			final byte[] output = this.output;
-			int op = 0;
+			int op = outputOffset;
 			int count = this.count;
 
 			int p = offset;
@@ -665,21 +790,50 @@ public class Base64 {
 			// than 3 bytes of input available.
 
 			// The main loop, turning 3 input bytes into 4 output bytes on
-			// each iteration.
+			// each iteration. The groups up to the next line break (or all
+			// of them with no wrapping) run in an inner loop with no line
+			// check, two groups at a time.
 			while (p+3 <= len) {
-				v = ((input[p] & 0xff) << 16) |
-				((input[p+1] & 0xff) << 8) |
-				(input[p+2] & 0xff);
-				output[op] = alphabet[(v >> 18) & 0x3f];
-				output[op+1] = alphabet[(v >> 12) & 0x3f];
-				output[op+2] = alphabet[(v >> 6) & 0x3f];
-				output[op+3] = alphabet[v & 0x3f];
-				p += 3;
-				op += 4;
-				if (--count == 0) {
-					if (do_cr) output[op++] = '\r';
-					output[op++] = '\n';
-					count = LINE_GROUPS;
+				int groups = (len - p) / 3;
+				if (do_newline && groups > count) groups = count;
+				int end = p + groups * 3;
+				int end2 = end - 3;
+				while (p < end2) {
+					v = ((input[p] & 0xff) << 16) |
+					((input[p+1] & 0xff) << 8) |
+					(input[p+2] & 0xff);
+					int v2 = ((input[p+3] & 0xff) << 16) |
+					((input[p+4] & 0xff) << 8) |
+					(input[p+5] & 0xff);
+					output[op] = alphabet[(v >> 18) & 0x3f];
+					output[op+1] = alphabet[(v >> 12) & 0x3f];
+					output[op+2] = alphabet[(v >> 6) & 0x3f];
+					output[op+3] = alphabet[v & 0x3f];
+					output[op+4] = alphabet[(v2 >> 18) & 0x3f];
+					output[op+5] = alphabet[(v2 >> 12) & 0x3f];
+					output[op+6] = alphabet[(v2 >> 6) & 0x3f];
+					output[op+7] = alphabet[v2 & 0x3f];
+					p += 6;
+					op += 8;
+				}
+				if (p < end) {
+					v = ((input[p] & 0xff) << 16) |
+					((input[p+1] & 0xff) << 8) |
+					(input[p+2] & 0xff);
+					output[op] = alphabet[(v >> 18) & 0x3f];
+					output[op+1] = alphabet[(v >> 12) & 0x3f];
+					output[op+2] = alphabet[(v >> 6) & 0x3f];
+					output[op+3] = alphabet[v & 0x3f];
+					p += 3;
+					op += 4;
+				}
+				if (do_newline) {
+					count -= groups;
+					if (count == 0) {
+						if (do_cr) output[op++] = '\r';
+						output[op++] = '\n';
+						count = LINE_GROUPS;
+					}
 				}
 			}
 
@@ -718,7 +872,7 @@ public class Base64 {
 						if (do_cr) output[op++] = '\r';
 						output[op++] = '\n';
 					}
-				} else if (do_newline && op > 0 && count != LINE_GROUPS) {
+				} else if (do_newline && op > outputOffset && count != LINE_GROUPS) {
 					if (do_cr) output[op++] = '\r';
 					output[op++] = '\n';
 				}